@@ -1,24 +1,49 @@
 package net.ijbrown.elf;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class Entity
 {
     public FileHeader fhdr;
 
     public StrSection shstrtab;
     String name;
-    byte[] buffer;
+
+    // The whole file, little endian. Usually mapped, so only the parts that are used get paged in.
+    ByteBuffer buffer;
+    long lastModified;
     int pos;
     boolean isSEndian;
     PrgHdrList phdrs;
     SecHdrList shdrs;
     SectionList sects;
 
+    // Callers reading several sections, and whether the pool released the entity while they were.
+    private int pins;
+    private boolean releasePending;
 
     Entity(String n)
     {
         name = n;
     }
 
+    Entity(String n, byte[] data)
+    {
+        this(n, data == null ? null : ByteBuffer.wrap(data));
+    }
+
+    Entity(String n, ByteBuffer data)
+    {
+        name = n;
+        buffer = data == null ? null : data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
     public int parse()
     {
         if (buffer == null) {
@@ -47,6 +72,7 @@ public class Entity
             return -1;
         }
 
+        // Only the headers are parsed here, section contents are read when first used.
         sects = new SectionList(this);
         res = sects.parse();
         if (res == -1) {
@@ -90,25 +116,93 @@ public class Entity
         return sects.sectList.get(sectIndex).name;
     }
 
-    public String getString(int tabIndex, int strIndex)
+    /**
+     * @return The index of the symbol table, or of the dynamic symbols if there is no symbol table.
+     *         Null if the file has neither.
+     */
+    public SymbolIndex getSymbolIndex()
+    {
+        SymSection dynsym = null;
+        for (Section sect : sects.sectList) {
+            if (sect instanceof SymSection sym) {
+                if (sect.sh_type == SectHeader.SHT_SYMTAB) {
+                    return sym.getIndex();
+                }
+                if (dynsym == null) {
+                    dynsym = sym;
+                }
+            }
+        }
+        return dynsym == null ? null : dynsym.getIndex();
+    }
+
+    /**
+     * Stops release dropping the section contents until unpin is called. Use this around work that
+     * reads several sections of an entity which other threads may evict from the EntityPool.
+     */
+    public synchronized void pin()
+    {
+        ++pins;
+    }
+
+    public synchronized void unpin()
     {
+        if (pins == 0) {
+            throw new IllegalStateException(name + " is not pinned");
+        }
+        if (--pins == 0 && releasePending) {
+            releasePending = false;
+            releaseSections();
+        }
+    }
+
+    /**
+     * Drops the contents of every section other than the section names. They are read from the file
+     * again if used. If the entity is pinned this happens when the last pin is removed.
+     */
+    public synchronized void release()
+    {
+        if (pins > 0) {
+            releasePending = true;
+            return;
+        }
+        releaseSections();
+    }
 
-        StrSection sect = (StrSection) sects.sectList.get(tabIndex);
+    private void releaseSections()
+    {
+        if (sects == null) {
+            return;
+        }
+        for (Section sect : sects.sectList) {
+            if (sect != shstrtab) {
+                sect.unload();
+            }
+        }
+    }
 
-        if (sect == null) {
+    public String getString(int tabIndex, int strIndex)
+    {
+        if (tabIndex < 0 || tabIndex >= sects.sectList.size() || !(sects.sectList.get(tabIndex) instanceof StrSection sect)) {
+            Util.error("strtab section incorrect");
+            return null;
+        }
+        // Held locally as the pool may release the section while it is being read.
+        String table = sect.getTable();
+        if (table == null) {
             Util.error("strtab section incorrect");
             return null;
         }
 
-        if (strIndex < 0 || strIndex >= sect.table.length()) {
+        if (strIndex < 0 || strIndex >= table.length()) {
             Util.error("Index into strtab incorrect");
             return null;
         }
-        if (sect.table.charAt(strIndex) == 0)
+        if (table.charAt(strIndex) == 0)
             return null;
 
-        int end = sect.table.indexOf(0, strIndex);
-        return sect.table.substring(strIndex, end);
+        int end = table.indexOf(0, strIndex);
+        return table.substring(strIndex, end);
 
     }
 
@@ -1,14 +1,99 @@
 package net.ijbrown.elf;
 
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * The most recently loaded entities, keyed by file path.
+ * <p>
+ * The pool holds at most maxEntities entities. Adding one more evicts the least recently used, which
+ * also drops the section contents it has read once nothing has it pinned, see {@link Entity#pin}.
+ * Entities can be evicted explicitly with remove or clear.
+ */
 public class EntityPool
 {
-    private static final Hashtable<String, Entity> pool = new Hashtable<>();
+    public static final int DEFAULT_MAX_ENTITIES = 16;
 
-    public static void put(Entity entity)
+    private static int maxEntities = DEFAULT_MAX_ENTITIES;
+
+    // Least recently used first. Guarded by the map itself.
+    private static final LinkedHashMap<String, Entity> pool = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entity> eldest)
+        {
+            if (size() > maxEntities) {
+                eldest.getValue().release();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public static void put(String key, Entity entity)
+    {
+        synchronized (pool) {
+            Entity previous = pool.put(key, entity);
+            if (previous != null && previous != entity) {
+                previous.release();
+            }
+        }
+    }
+
+    public static Entity get(String key)
+    {
+        synchronized (pool) {
+            return pool.get(key);
+        }
+    }
+
+    /**
+     * Evicts an entity.
+     *
+     * @return The entity that was evicted or null if it wasn't in the pool.
+     */
+    public static Entity remove(String key)
     {
-        pool.put(entity.name, entity);
+        synchronized (pool) {
+            Entity entity = pool.remove(key);
+            if (entity != null) {
+                entity.release();
+            }
+            return entity;
+        }
     }
 
+    public static void clear()
+    {
+        synchronized (pool) {
+            pool.values().forEach(Entity::release);
+            pool.clear();
+        }
+    }
+
+    public static int size()
+    {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    /**
+     * Sets the number of entities the pool holds, evicting the least recently used ones if there are
+     * now too many.
+     */
+    public static void setMaxEntities(int max)
+    {
+        if (max < 1) {
+            throw new IllegalArgumentException("The pool must hold at least one entity");
+        }
+        synchronized (pool) {
+            maxEntities = max;
+            var it = pool.values().iterator();
+            while (pool.size() > maxEntities) {
+                it.next().release();
+                it.remove();
+            }
+        }
+    }
 }
@@ -1,5 +1,9 @@
 package net.ijbrown.elf;
 
+import org.tinylog.Logger;
+
+import java.nio.ByteBuffer;
+
 public class FileHeader
 {
     public final static int EI_NIDENT = 16;
@@ -39,20 +43,24 @@ public class FileHeader
 
     int parse()
     {
-        byte[] buffer = entity.buffer;
-        if (buffer[EI_MAG0] != ELFMAG0 ||
-                buffer[EI_MAG1] != ELFMAG1 ||
-                buffer[EI_MAG2] != ELFMAG2 ||
-                buffer[EI_MAG3] != ELFMAG3) {
-            System.out.println("Not ELF file");
+        ByteBuffer buffer = entity.buffer;
+        if (buffer.limit() < headerSize) {
+            Logger.warn("{} is not an ELF file", entity.name);
+            return -1;
+        }
+        if (buffer.get(EI_MAG0) != ELFMAG0 ||
+                buffer.get(EI_MAG1) != ELFMAG1 ||
+                buffer.get(EI_MAG2) != ELFMAG2 ||
+                buffer.get(EI_MAG3) != ELFMAG3) {
+            Logger.warn("{} is not an ELF file", entity.name);
             return -1;
         }
 
-        if (buffer[EI_CLASS] != ELFCLASS32) {
-            System.out.println("Not 32-bit file");
+        if (buffer.get(EI_CLASS) != ELFCLASS32) {
+            Logger.warn("{} is not a 32-bit ELF file", entity.name);
             return -1;
         }
-        entity.isSEndian = (buffer[EI_DATA] == ELFDATA2LSB);
+        entity.isSEndian = (buffer.get(EI_DATA) == ELFDATA2LSB);
         int pos = EI_NIDENT;
         e_type = Util.readShort(buffer, pos, entity.isSEndian);
         pos += 2;
@@ -5,16 +5,28 @@ import java.io.File;
 public class Loader
 {
 
+    /**
+     * Maps the file and parses its headers, section contents are read when first used. A file that
+     * is still in the EntityPool and hasn't changed since it was loaded is not parsed again.
+     *
+     * @return The entity or null if the file could not be read or is not a valid ELF.
+     */
     public Entity load(File file)
     {
-        Entity entity = new Entity(file.getName());
-        entity.buffer = Util.loadFileintoBuffer(file);
+        String key = file.getAbsolutePath();
+        Entity pooled = EntityPool.get(key);
+        if (pooled != null && pooled.lastModified == file.lastModified() && pooled.buffer.capacity() == file.length()) {
+            return pooled;
+        }
+
+        Entity entity = new Entity(file.getName(), Util.mapFile(file));
+        entity.lastModified = file.lastModified();
         int res = entity.parse();
 
         if (res == -1) {
             return null;
         }
-        EntityPool.put(entity);
+        EntityPool.put(key, entity);
 
         return entity;
     }
@@ -1,46 +1,176 @@
 package net.ijbrown.elf;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
 /**
  * Main memory.
+ * <p>
+ * The 32MB address space is split into 4KB pages which only exist once something is stored in them.
+ * Sections of an ELF can be mapped straight from the file, in which case their pages are read-only
+ * views of the file until they are first written to. Pages that were never written or mapped read as zero.
  */
 public class Memory {
-    // This should probably be int or long to be more efficient.
-    private final byte[] memory;
+    private static final int SIZE = 32 * 1024 * 1024;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Either a writable heap page or a read-only view of a mapped file. Null for pages never touched.
+    private final ByteBuffer[] pages = new ByteBuffer[SIZE >> PAGE_SHIFT];
 
     public Memory() {
-        memory = new byte[32 * 1024 * 1024];
     }
 
     public void setData(byte[] data, int startAddr) {
-        System.arraycopy(data, 0, memory, startAddr, data.length);
+        setData(ByteBuffer.wrap(data), startAddr);
+    }
+
+    private void setData(ByteBuffer data, int startAddr) {
+        int address32 = startAddr & 0x1FFFFFFF;
+        int pos = data.position();
+        while (pos < data.limit()) {
+            ByteBuffer page = getWritablePage(address32);
+            int pageOffset = address32 & PAGE_MASK;
+            int n = Math.min(PAGE_SIZE - pageOffset, data.limit() - pos);
+            page.put(pageOffset, data, pos, n);
+            pos += n;
+            address32 += n;
+        }
+    }
+
+    /**
+     * Maps length bytes at fileOffset in a file to memory at startAddr. Pages wholly inside the range
+     * are read-only views of the file until written to, the partial pages at either end are copied.
+     * The mapping remains valid after the channel is closed.
+     */
+    public void map(FileChannel channel, long fileOffset, int startAddr, int length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, length).order(ByteOrder.LITTLE_ENDIAN);
+        int address32 = startAddr & 0x1FFFFFFF;
+        int pos = 0;
+        while (pos < length) {
+            int pageOffset = address32 & PAGE_MASK;
+            int n = Math.min(PAGE_SIZE - pageOffset, length - pos);
+            if (n == PAGE_SIZE && pages[address32 >> PAGE_SHIFT] == null) {
+                pages[address32 >> PAGE_SHIFT] = mapped.slice(pos, PAGE_SIZE).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            } else {
+                setData(mapped.slice(pos, n), address32);
+            }
+            pos += n;
+            address32 += n;
+        }
+    }
+
+    /**
+     * @return A flat copy of the whole address space. This allocates the full 32MB, use getBytes
+     *         where only a region is needed.
+     */
+    public byte[] getData() {
+        return getBytes(0, SIZE);
+    }
+
+    /**
+     * @return A copy of length bytes starting at address. Bytes past the end of memory read as zero.
+     */
+    public byte[] getBytes(long address, int length) {
+        byte[] bytes = new byte[length];
+        int address32 = (int) (address & 0x1FFFFFFF);
+        int pos = 0;
+        while (pos < length && address32 < SIZE) {
+            int pageOffset = address32 & PAGE_MASK;
+            int n = Math.min(PAGE_SIZE - pageOffset, length - pos);
+            ByteBuffer page = pages[address32 >> PAGE_SHIFT];
+            if (page != null) {
+                page.get(pageOffset, bytes, pos, n);
+            }
+            pos += n;
+            address32 += n;
+        }
+        return bytes;
+    }
+
+    public int getSize() {
+        return SIZE;
+    }
+
+    /**
+     * @return Whether the page holding address was ever written or mapped. Other pages read as zero.
+     */
+    public boolean hasPage(long address) {
+        int address32 = (int) (address & 0x1FFFFFFF);
+        return address32 < SIZE && pages[address32 >> PAGE_SHIFT] != null;
+    }
+
+    /**
+     * @return The number of bytes held by pages that were written to, mapped pages are not counted.
+     */
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (ByteBuffer page : pages) {
+            if (page != null && !page.isReadOnly()) {
+                total += PAGE_SIZE;
+            }
+        }
+        return total;
+    }
+
+    private ByteBuffer getWritablePage(int address32) {
+        int pageNo = address32 >> PAGE_SHIFT;
+        ByteBuffer page = pages[pageNo];
+        if (page == null) {
+            page = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            pages[pageNo] = page;
+        } else if (page.isReadOnly()) {
+            // Copy on write
+            ByteBuffer copy = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            copy.put(0, page, 0, PAGE_SIZE);
+            page = copy;
+            pages[pageNo] = page;
+        }
+        return page;
     }
 
-    public byte[] getData() { return memory; }
+    // The page holding address32 if it exists and the access of size bytes does not cross into the next page.
+    private ByteBuffer getPageFor(int address32, int size) {
+        if ((address32 & PAGE_MASK) + size > PAGE_SIZE) {
+            return null;
+        }
+        return pages[address32 >> PAGE_SHIFT];
+    }
 
     public String getString(long address) {
         StringBuilder s = new StringBuilder();
         int address32 = (int) (address & 0x1FFFFFFF);
-        while (memory[address32] != 0) {
-            s.append((char) memory[address32]);
+        int c;
+        while ((c = get8U(address32)) != 0) {
+            s.append((char) c);
             address32++;
         }
         return s.toString();
     }
 
     public int get8U(long address) {
-        int address32 = (int) (address & 0x1FFFFFFF);
-        return memory[address32] & 0xff;
+        return get8(address) & 0xff;
     }
 
     public int get8(long address) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        return memory[address32];
+        ByteBuffer page = pages[address32 >> PAGE_SHIFT];
+        return page == null ? 0 : page.get(address32 & PAGE_MASK);
     }
 
     public int get16U(long address) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        return ((memory[address32] & 0xff) |
-                ((memory[address32 + 1] << 8) & 0xff00));
+        ByteBuffer page = getPageFor(address32, 2);
+        if (page != null) {
+            return page.getShort(address32 & PAGE_MASK) & 0xffff;
+        }
+        return get8U(address32) | (get8U(address32 + 1) << 8);
     }
 
     public int get16(long address) {
@@ -49,63 +179,59 @@ public class Memory {
 
     public int get32(long address) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        return ((memory[address32] & 0xff) |
-                ((memory[address32 + 1] << 8) & 0xff00) |
-                ((memory[address32 + 2] << 16) & 0xff0000) |
-                ((memory[address32 + 3] << 24)));
+        ByteBuffer page = getPageFor(address32, 4);
+        if (page != null) {
+            return page.getInt(address32 & PAGE_MASK);
+        }
+        return get16U(address32) | (get16U(address32 + 2) << 16);
     }
 
     public long get64(long address) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        long val64 = 0;
-        for (int i = 7; i >= 0; --i) {
-            val64 <<= 8;
-            val64 |= (memory[address32 + i] & 0xff);
+        ByteBuffer page = getPageFor(address32, 8);
+        if (page != null) {
+            return page.getLong(address32 & PAGE_MASK);
         }
-        return val64;
+        return (get32(address32) & 0xffffffffL) | ((long) get32(address32 + 4) << 32);
     }
 
     public void store32(long address, int ival) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        memory[address32] = (byte) (ival & 0xff);
-        memory[address32 + 1] = (byte) ((ival >> 8) & 0xff);
-        memory[address32 + 2] = (byte) ((ival >> 16) & 0xff);
-        memory[address32 + 3] = (byte) ((ival >> 24) & 0xff);
-
+        if ((address32 & PAGE_MASK) + 4 <= PAGE_SIZE) {
+            getWritablePage(address32).putInt(address32 & PAGE_MASK, ival);
+        } else {
+            store16(address32, ival);
+            store16(address32 + 2, ival >> 16);
+        }
     }
 
     public void store8(long address, long ival) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        memory[address32] = (byte) (ival & 0xff);
-
+        getWritablePage(address32).put(address32 & PAGE_MASK, (byte) (ival & 0xff));
     }
 
     public void store16(long address, long ival) {
         int address32 = (int) (address & 0x1FFFFFFF);
-        memory[address32] = (byte) (ival & 0xff);
-        memory[address32 + 1] = (byte) ((ival >> 8) & 0xff);
+        if ((address32 & PAGE_MASK) + 2 <= PAGE_SIZE) {
+            getWritablePage(address32).putShort(address32 & PAGE_MASK, (short) ival);
+        } else {
+            store8(address32, ival);
+            store8(address32 + 1, ival >> 8);
+        }
     }
 
     public void store64(long address, long val64) {
-
         int address32 = (int) (address & 0x1FFFFFFF);
-        memory[address32] = (byte) (val64 & 0xff);
-        memory[address32 + 1] = (byte) ((val64 >> 8) & 0xff);
-        memory[address32 + 2] = (byte) ((val64 >> 16) & 0xff);
-        memory[address32 + 3] = (byte) ((val64 >> 24) & 0xff);
-        memory[address32 + 4] = (byte) ((val64 >> 32) & 0xff);
-        memory[address32 + 5] = (byte) ((val64 >> 40) & 0xff);
-        memory[address32 + 6] = (byte) ((val64 >> 48) & 0xff);
-        memory[address32 + 7] = (byte) ((val64 >> 56) & 0xff);
+        if ((address32 & PAGE_MASK) + 8 <= PAGE_SIZE) {
+            getWritablePage(address32).putLong(address32 & PAGE_MASK, val64);
+        } else {
+            store32(address32, (int) val64);
+            store32(address32 + 4, (int) (val64 >> 32));
+        }
     }
 
     public void storeFloat(long address, float v) {
-        int address32 = (int) (address & 0x1FFFFFFF);
-        int ival = Float.floatToRawIntBits(v);
-        memory[address32] = (byte) (ival & 0xff);
-        memory[address32 + 1] = (byte) ((ival >> 8) & 0xff);
-        memory[address32 + 2] = (byte) ((ival >> 16) & 0xff);
-        memory[address32 + 3] = (byte) ((ival >> 24) & 0xff);
+        store32(address, Float.floatToRawIntBits(v));
     }
 
     public float getFloat(long address) {
@@ -1,5 +1,7 @@
 package net.ijbrown.elf;
 
+import java.nio.ByteBuffer;
+
 public class PrgHdrList
 {
     Entity entity;
@@ -19,7 +21,7 @@ public class PrgHdrList
         }
 
         phdr = new ProgHeader[entity.fhdr.e_phnum];
-        byte[] buffer = entity.buffer;
+        ByteBuffer buffer = entity.buffer;
         entity.pos = entity.fhdr.e_phoff;
         boolean endian = entity.isSEndian;
 
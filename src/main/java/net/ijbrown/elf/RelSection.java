@@ -1,10 +1,11 @@
 package net.ijbrown.elf;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RelSection extends Section
 {
-    LinkedList<RelEntry> relList;
+    List<RelEntry> relList;
 
     RelSection(Entity e)
     {
@@ -16,7 +17,7 @@ public class RelSection extends Section
         SectHeader shdr = entity.shdrs.shdr[secno];
         int entries = shdr.sh_size / shdr.sh_entsize;
 
-        relList = new LinkedList<>();
+        relList = new ArrayList<>(entries);
 
         boolean endian = entity.isSEndian;
         int pos = 0;
@@ -1,5 +1,7 @@
 package net.ijbrown.elf;
 
+import java.nio.ByteBuffer;
+
 public class SectHeader
 {
     public final static int SHT_NULL = 0;
@@ -28,7 +30,7 @@ public class SectHeader
 
     public int parse(int sectIndex)
     {
-        byte[] buffer = entity.buffer;
+        ByteBuffer buffer = entity.buffer;
         int pos = entity.pos;
         boolean endian = entity.isSEndian;
 
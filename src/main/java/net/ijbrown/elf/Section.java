@@ -16,6 +16,9 @@ public class Section
     int sh_type;
     byte[] data;
 
+    // Whether data has been read from the file and specialize has run.
+    private boolean loaded;
+
     Section(Entity e)
     {  //for parseing
         entity = e;
@@ -32,8 +35,43 @@ public class Section
         return 0;
     }
 
-    public byte[] getData()
+    /**
+     * Reads the contents of the section from the entity's file the first time they are needed.
+     */
+    synchronized void load()
+    {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (entity == null || entity.buffer == null) {
+            return;
+        }
+        SectHeader shdr = entity.getSectHeader(secno);
+        if (shdr == null || sh_type == SectHeader.SHT_NOBITS || shdr.sh_size == 0) {
+            return;
+        }
+        data = new byte[shdr.sh_size];
+        entity.buffer.get(shdr.sh_offset, data);
+        specialize();
+    }
+
+    /**
+     * Drops the contents read by load, they are read again when next needed.
+     */
+    synchronized void unload()
+    {
+        if (loaded && entity != null && entity.buffer != null) {
+            data = null;
+            loaded = false;
+        }
+    }
+
+    // Loads and returns the data under one lock, so that an unload from another thread can't
+    // drop it in between.
+    public synchronized byte[] getData()
     {
+        load();
         return data;
     }
 }
@@ -1,16 +1,16 @@
 package net.ijbrown.elf;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 public class SectionList
 {
     Entity entity;
-    LinkedList<Section> sectList;
+    ArrayList<Section> sectList;
 
     SectionList(Entity e)
     {
         entity = e;
-        sectList = new LinkedList<>();
+        sectList = new ArrayList<>();
 
         Section sect0 = new Section("", SectHeader.SHT_NULL);
         addSection(sect0);
@@ -19,12 +19,9 @@ public class SectionList
 
     public int parse()
     {
-        byte[] buffer = entity.buffer;
-
         for (int i = 1; i < entity.fhdr.e_shnum; i++) {
             SectHeader shdr = entity.shdrs.shdr[i];
             int type = shdr.sh_type;
-            int size = shdr.sh_size;
 
             Section stmp;
             if (type == SectHeader.SHT_STRTAB) {
@@ -41,13 +38,10 @@ public class SectionList
             stmp.sh_type = type;
             sectList.add(stmp);
 
-            if (type == SectHeader.SHT_NOBITS || size == 0)
-                continue;
-
-            stmp.data = new byte[size];
-            System.arraycopy(buffer, shdr.sh_offset, stmp.data, 0, size);
-
-            stmp.specialize();
+            // Contents are read when first used, except for the section names.
+            if (i == entity.fhdr.e_shstrndx && stmp instanceof StrSection strSection) {
+                entity.shstrtab = strSection;
+            }
         }
 
         for (Section stmp : sectList) {
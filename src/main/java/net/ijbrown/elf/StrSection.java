@@ -1,5 +1,7 @@
 package net.ijbrown.elf;
 
+import java.nio.charset.StandardCharsets;
+
 public class StrSection extends Section
 {
     public String table;
@@ -11,7 +13,7 @@ public class StrSection extends Section
 
     public int specialize()
     {
-        table = new String(data);
+        table = new String(data, StandardCharsets.ISO_8859_1);
 
         if (entity.fhdr.e_shstrndx == secno) {
             entity.shstrtab = this;
@@ -19,4 +21,22 @@ public class StrSection extends Section
         return 0;
     }
 
+    /**
+     * @return The string table, read from the file if it was released.
+     */
+    synchronized String getTable()
+    {
+        load();
+        return table;
+    }
+
+    @Override
+    synchronized void unload()
+    {
+        super.unload();
+        if (data == null) {
+            table = null;
+        }
+    }
+
 }
@@ -1,10 +1,12 @@
 package net.ijbrown.elf;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SymSection extends Section
 {
-    public LinkedList<SymEntry> symbolList;
+    public List<SymEntry> symbolList;
+    private SymbolIndex index;
 
     SymSection(Entity e)
     {
@@ -16,7 +18,7 @@ public class SymSection extends Section
         SectHeader shdr = entity.getSectHeader(secno);
         int entries = shdr.sh_size / shdr.sh_entsize;
 
-        LinkedList<SymEntry> symList = new LinkedList<>();
+        List<SymEntry> symList = new ArrayList<>(entries);
 
         boolean endian = entity.isSEndian;
         int pos = 0;
@@ -41,10 +43,42 @@ public class SymSection extends Section
         }
 
         symbolList = symList;
+        index = null;
 
         return 0;
     }
 
+    /**
+     * @return The symbols in file order.
+     */
+    public synchronized List<SymEntry> getSymbols()
+    {
+        load();
+        return symbolList == null ? List.of() : symbolList;
+    }
+
+    @Override
+    synchronized void unload()
+    {
+        super.unload();
+        if (data == null) {
+            symbolList = null;
+            index = null;
+        }
+    }
+
+    /**
+     * @return The symbols sorted by address, with names resolved against the linked string table.
+     */
+    public synchronized SymbolIndex getIndex()
+    {
+        if (index == null) {
+            SectHeader shdr = entity.getSectHeader(secno);
+            index = new SymbolIndex(entity, shdr.sh_link, getSymbols());
+        }
+        return index;
+    }
+
     static class SymEntry
     {
         public int st_name;
@@ -0,0 +1,163 @@
+package net.ijbrown.elf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lookups over the symbols of a symbol table section.
+ * <p>
+ * Symbols are sorted by address so that the symbol enclosing an address is found with a binary search.
+ * Each symbol also records the nearest earlier symbol still open where it starts, so a lookup only visits
+ * the symbols overlapping the address rather than walking back over every symbol inside a large one.
+ * Names are only read from the string table when they are asked for and the name to symbol map is
+ * built on the first lookup by name.
+ */
+public class SymbolIndex
+{
+    private final Entity entity;
+    private final int strTabIndex;
+
+    // Symbols sorted by address, as unsigned values
+    private final int[] addresses;
+    private final int[] sizes;
+    private final int[] nameOffsets;
+
+    // The last symbol before each one that ends after it starts, or -1
+    private final int[] openBefore;
+
+    private final String[] names;
+    private Map<String, Integer> nameMap;
+
+    SymbolIndex(Entity entity, int strTabIndex, List<SymSection.SymEntry> symbols)
+    {
+        this.entity = entity;
+        this.strTabIndex = strTabIndex;
+
+        // Sort on the unsigned address with the symbol number in the low bits.
+        long[] keys = new long[symbols.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = (Integer.toUnsignedLong(symbols.get(i).st_value.value()) << 24) | i;
+        }
+        Arrays.sort(keys);
+
+        addresses = new int[keys.length];
+        sizes = new int[keys.length];
+        nameOffsets = new int[keys.length];
+        openBefore = new int[keys.length];
+        names = new String[keys.length];
+
+        // Symbols that may still be open. Start addresses only go up, so a symbol that has ended
+        // before one starts has ended before all the later ones too.
+        int[] open = new int[keys.length];
+        int numOpen = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            var sym = symbols.get((int) (keys[i] & 0xFFFFFF));
+            addresses[i] = sym.st_value.value();
+            sizes[i] = sym.st_size;
+            nameOffsets[i] = sym.st_name;
+
+            long start = Integer.toUnsignedLong(addresses[i]);
+            while (numOpen > 0 && getEnd(open[numOpen - 1]) <= start) {
+                --numOpen;
+            }
+            openBefore[i] = numOpen > 0 ? open[numOpen - 1] : -1;
+            open[numOpen++] = i;
+        }
+    }
+
+    public int size()
+    {
+        return addresses.length;
+    }
+
+    public int getAddress(int symbol)
+    {
+        return addresses[symbol];
+    }
+
+    public int getSize(int symbol)
+    {
+        return sizes[symbol];
+    }
+
+    public String getName(int symbol)
+    {
+        String name = names[symbol];
+        if (name == null && nameOffsets[symbol] != 0) {
+            name = entity.getString(strTabIndex, nameOffsets[symbol]);
+            names[symbol] = name;
+        }
+        return name;
+    }
+
+    // Symbols with no size only cover their own address.
+    private long getEnd(int symbol)
+    {
+        return Integer.toUnsignedLong(addresses[symbol]) + Math.max(1, Integer.toUnsignedLong(sizes[symbol]));
+    }
+
+    /**
+     * @return The symbol whose range holds the address, the one starting nearest below the address if
+     *         several do, or -1 if none do.
+     */
+    public int findEnclosing(int address)
+    {
+        long addr = Integer.toUnsignedLong(address);
+
+        // Find the last symbol starting at or before the address.
+        int lo = 0;
+        int hi = addresses.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.toUnsignedLong(addresses[mid]) <= addr) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // The symbols between one and the last symbol open where it starts all end before it starts,
+        // so they can be skipped.
+        for (int i = found; i >= 0; i = openBefore[i]) {
+            if (getEnd(i) > addr) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The symbol with the given name or -1 if there isn't one.
+     */
+    public synchronized int find(String name)
+    {
+        if (nameMap == null) {
+            nameMap = new HashMap<>(addresses.length * 2);
+            for (int i = 0; i < addresses.length; ++i) {
+                String symName = getName(i);
+                if (symName != null) {
+                    nameMap.putIfAbsent(symName, i);
+                }
+            }
+        }
+        return nameMap.getOrDefault(name, -1);
+    }
+
+    /**
+     * @return The address as symbol+offset, or as hex if no symbol holds it.
+     */
+    public String describe(int address)
+    {
+        int symbol = findEnclosing(address);
+        String name = symbol < 0 ? null : getName(symbol);
+        if (name == null) {
+            return String.format("0x%08x", address);
+        }
+        int offset = address - addresses[symbol];
+        return offset == 0 ? name : name + "+0x" + Integer.toHexString(offset);
+    }
+}
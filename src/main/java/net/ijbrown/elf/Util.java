@@ -1,9 +1,18 @@
 package net.ijbrown.elf;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class Util
 {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
     static void error()
     {
         System.out.println("Util operation error");
@@ -30,7 +39,7 @@ public class Util
             error();
             return -1;
         }
-        return (short) ((buf[pos++] & 0xff) | (buf[pos] << 8));
+        return (short) SHORT.get(buf, pos);
     }
 
     public static int readLEInt(byte[] buf, int pos)
@@ -45,10 +54,41 @@ public class Util
             error();
             return -1;
         }
-        return ((buf[pos++] & 0xff) |
-                ((buf[pos++] << 8) & 0xff00) |
-                ((buf[pos++] << 16) & 0xff0000) |
-                ((buf[pos] << 24)));
+        return (int) INT.get(buf, pos);
+    }
+
+    // The buffer is expected to be in little endian order.
+    public static short readShort(ByteBuffer buf, int pos, boolean littleEndian)
+    {
+        if (!littleEndian) {
+            error();
+            return -1;
+        }
+        return buf.getShort(pos);
+    }
+
+    public static int readInt(ByteBuffer buf, int pos, boolean littleEndian)
+    {
+        if (!littleEndian) {
+            error();
+            return -1;
+        }
+        return buf.getInt(pos);
+    }
+
+    /**
+     * Maps a file read-only. The mapping stays valid after this returns and is released once the
+     * buffer is no longer referenced.
+     *
+     * @return The mapped file or null if it could not be opened.
+     */
+    public static ByteBuffer mapFile(File file)
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     public static byte[] loadFileintoBuffer(String pathname)
@@ -10,18 +10,50 @@ import org.tinylog.Logger;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import static java.nio.file.FileVisitResult.CONTINUE;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
     Unpacks the LMP and GOB files and parses the files inside them.
     Writes the results to a sibling directory.
  */
 public class ExtractFiles {
+
+    // Stages that the scheduler limits separately.
+    private static final String UNPACK = "unpack";
+    private static final String ELF = "elf";
+    private static final String TEX = "tex";
+    private static final String FNT = "fnt";
+    private static final String VIF = "vif";
+    private static final String SCRIPT = "scr";
+    private static final String OB = "ob";
+    private static final String WORLD = "world";
+
+    // Converter versions recorded in the manifest. Bump one when its converter changes and the next run
+    // will rebuild only the outputs of that converter.
+    private static final int TEX_VERSION = 1;
+    private static final int FNT_VERSION = 1;
+    private static final int VIF_VERSION = 1;
+    private static final int SCRIPT_VERSION = 1;
+    private static final int OB_VERSION = 1;
+    private static final int WORLD_VERSION = 1;
+
+    // Budget charged for unpacking a GOB, which holds at most a block of the lmp table and one lmp directory.
+    private static final long GOB_STREAM_BYTES = 1024 * 1024;
+
+    private ExtractScheduler scheduler;
+    private ExtractManifest manifest;
+
+    // The archives, which the conversions read their input from, and where they are extracted to.
+    private AssetFileSystem assets;
+    private Path extractedPath;
+
     public static void main(String[] args) throws IOException {
 
         // Specify here if you want to extract all the GOB and LMP files (you only need to do this first time).
@@ -46,39 +78,114 @@ public class ExtractFiles {
         Logger.info("Extracting to {}", extractedPath);
 
         Files.createDirectories(extractedPath);
+        manifest = ExtractManifest.load(extractedPath);
+
+        // Allow half the heap for the data held by running tasks.
+        try (var extractScheduler = new ExtractScheduler(Runtime.getRuntime().maxMemory() / 2);
+             var assetFileSystem = new AssetFileSystem(gameDataPath, gameType)) {
+            scheduler = extractScheduler;
+            assets = assetFileSystem;
+            this.extractedPath = extractedPath;
+            int numCores = Runtime.getRuntime().availableProcessors();
+            scheduler.setStageLimit(UNPACK, 4);
+            scheduler.setStageLimit(TEX, numCores);
+            scheduler.setStageLimit(FNT, numCores);
+            scheduler.setStageLimit(VIF, numCores);
+            scheduler.setStageLimit(WORLD, numCores);
+
+            var elfName = config.getElfPath();
+            if (elfName != null) {
+                var elfPath = FileSystems.getDefault().getPath(elfName);
+                scheduler.submit(ELF, elfName, 32 * 1024 * 1024, () -> extractElfResources(elfPath, extractedPath, gameType));
+            }
+            if (extractLmps) {
+                extractGobs(gameDataPath, extractedPath, gameType);
+                extractLmps(gameDataPath, extractedPath, gameType);
+                extractHDRDATArchives(gameDataPath, extractedPath);
+                // Finish unpacking before the conversions write into the same directories.
+                try {
+                    scheduler.await();
+                } finally {
+                    manifest.save();
+                }
+            }
+            // The conversions read their input from the archives, listed once for all of them.
+            var catalog = AssetCatalog.list(assets);
+            //convertFntFiles(catalog, gameType, pattern);
+            //convertTexFiles(catalog, gameType, pattern);
+            //convertVifFiles(catalog, gameType, pattern, gameConfigs.getGameConfig(gameType));
+            //convertScriptFiles(catalog, gameType, pattern);
+            //convertObFiles(catalog, gameType, pattern);
+            convertWorldFiles(gameDataPath, catalog, gameType, pattern);
+            scheduler.await();
+        } finally {
+            scheduler = null;
+            assets = null;
+            StringTable.clearPool();
+            manifest.save();
+        }
+    }
 
-        var elfName = config.getElfPath();
-        if (elfName != null) {
-            extractElfResources(FileSystems.getDefault().getPath(elfName), extractedPath, gameType);
-        }
-        if (extractLmps) {
-            extractGobs(gameDataPath, extractedPath, gameType);
-            extractLmps(gameDataPath, extractedPath, gameType);
-            extractHDRDATArchives(gameDataPath, extractedPath, gameType);
-        }
-        //convertFntFiles(extractedPath, gameType, pattern);
-        //convertTexFiles(extractedPath, gameType, pattern);
-        //convertVifFiles(extractedPath, gameType, pattern, gameConfigs.getGameConfig(gameType));
-        //convertScriptFiles(extractedPath, gameType, pattern);
-        //convertObFiles(extractedPath, gameType, pattern);
-        convertWorldFiles(gameDataPath, extractedPath, gameType, pattern);
+    // A conversion adds any files it wrote beyond the declared ones to outputs, and returns false if it failed.
+    @FunctionalInterface
+    private interface Conversion
+    {
+        boolean run(List<Path> outputs) throws IOException;
+    }
+
+    private void convertIfChanged(String step, int version, String assetPath, List<String> inputs, List<Path> declaredOutputs,
+                                  Conversion conversion) throws IOException {
+        convertIfChanged(step, version, assetPath, inputs, List.of(), declaredOutputs, conversion);
+    }
+
+    // Runs a conversion unless the manifest shows that its inputs and the converter are unchanged. The
+    // inputs are archive entries, then any files outside the archives. The conversion is only recorded if
+    // it succeeded and wrote all of its declared outputs, so that a failed one is tried again next time.
+    private void convertIfChanged(String step, int version, String assetPath, List<String> inputs, List<Path> fileInputs,
+                                  List<Path> declaredOutputs, Conversion conversion) throws IOException {
+        String hash = ExtractManifest.hash(assets, inputs, fileInputs);
+        // Recorded against where the entry is extracted to
+        var file = getOutputPath(assetPath);
+        if (manifest.isUpToDate(step, file, hash, version)) {
+            Logger.debug("{} is up to date", assetPath);
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        var outputs = new ArrayList<>(declaredOutputs);
+        if (!conversion.run(outputs)) {
+            Logger.debug("{} failed, not recording it", assetPath);
+            return;
+        }
+        for (var output : declaredOutputs) {
+            if (!Files.exists(output)) {
+                Logger.debug("{} did not write {}, not recording it", assetPath, output.toString());
+                return;
+            }
+        }
+        manifest.record(step, file, hash, version, outputs.toArray(new Path[0]));
+    }
+
+    // Where an archive entry is extracted to, the converted files are written beside it.
+    private Path getOutputPath(String assetPath) {
+        return extractedPath.resolve(assetPath);
     }
 
     private Memory loadElf(Path elfPath) throws IOException {
         var memory = new Memory();
         Entity entity = new Loader().load(elfPath.toFile());
-        entity.parse();
-
-        int numSections = entity.getSectionCount();
-        for (int sectionIdx = 0; sectionIdx < numSections; ++sectionIdx) {
-            Section section = entity.getSection(sectionIdx);
-            if (section.getType() == Section.SHT_PROGBITS) {
-                SectHeader header = entity.getSectHeader(sectionIdx);
-                int startAddress = header.sh_addr.value();
-
-                byte[] data = section.getData();
-                if (data != null) {
-                    memory.setData(data, startAddress);
+        if (entity == null) {
+            throw new IOException("Failed to parse " + elfPath);
+        }
+
+        // The sections are mapped from the file rather than copied.
+        try (FileChannel channel = FileChannel.open(elfPath, StandardOpenOption.READ)) {
+            int numSections = entity.getSectionCount();
+            for (int sectionIdx = 0; sectionIdx < numSections; ++sectionIdx) {
+                Section section = entity.getSection(sectionIdx);
+                if (section.getType() == Section.SHT_PROGBITS) {
+                    SectHeader header = entity.getSectHeader(sectionIdx);
+                    int startAddress = header.sh_addr.value();
+                    memory.map(channel, header.sh_offset, startAddress, header.sh_size);
                 }
             }
         }
@@ -96,27 +203,27 @@ public class ExtractFiles {
 
         if (gameType == GameType.CHAMPIONS_RTA) {
             extractSkillTreeInfo(memory, outPath, 0x04f6198, "barbarian");    // PAL
-        } else if (gameType == GameType.DARK_ALLIANCE) {
-            extractElfTex(memory, outPath, 0x25b6f0, "tex_25b6f0.tex");
-            extractElfTex(memory, outPath, 0x2346a0, "tex_2346a0.tex");
-            extractElfTex(memory, outPath, 0x26be10, "tex_26be10.tex");
-            extractElfTex(memory, outPath, 0x2922e0, "tex_2922e0.tex");
-            extractElfTex(memory, outPath, 0x292cc0, "tex_292cc0.tex");
-            extractElfTex(memory, outPath, 0x275d40, "tex_275d40.tex");
-            extractElfTex(memory, outPath, 0x295cf0, "tex_295cf0.tex");
-            extractElfFnt(memory, outPath, 0x0023a970, "fnt_0023a970.tex");
-            extractElfFnt(memory, outPath, 0x00245840, "fnt_00245840.tex");
-            extractElfFnt(memory, outPath, 0x0024e910, "fnt_0024e910.tex");
+        }
+
+        long startTime = System.nanoTime();
+        var candidates = new TexScanner(memory).scan();
+        Logger.info("found {} textures and fonts in {} ms", candidates.size(), (System.nanoTime() - startTime) / 1000000);
+        for (var candidate : candidates) {
+            if (candidate.kind() == TexScanner.Kind.FONT) {
+                extractElfFnt(memory, outPath, candidate.address(), String.format("fnt_%08x.tex", candidate.address()));
+            } else {
+                extractElfTex(memory, outPath, candidate.address(), String.format("tex_%x.tex", candidate.address()));
+            }
         }
 
     }
 
     private void extractElfFnt(Memory memory, Path outDir, int address, String name) throws IOException {
-        var data = memory.getData();
-        var fontTexOffset = DataUtil.getLEInt(data, address + 0x10);
+        var fontTexOffset = memory.get32(address + 0x10);
+        var data = getElfTex(memory, address + fontTexOffset);
         TexDecode decoder = new TexDecode();
         try {
-            decoder.extract(outDir, data, address+fontTexOffset, name, 0);
+            decoder.extract(outDir, data, 0, name, 0);
         } catch (RuntimeException e) {
             Logger.info("Failed to convert {}", name);
             Logger.error(e);
@@ -126,24 +233,30 @@ public class ExtractFiles {
     private void extractElfTex(Memory memory, Path outDir, int address, String name) throws IOException {
 
         TexDecode decoder = new TexDecode();
-        var data = memory.getData();
+        var data = getElfTex(memory, address);
         try {
-            decoder.extract(outDir, data, address, name, 0);
+            decoder.extract(outDir, data, 0, name, 0);
         } catch (RuntimeException e) {
             Logger.info("Failed to convert {}", name);
             Logger.error(e);
         }
     }
 
+    // Copies out the texture at address, sized from its header.
+    private static byte[] getElfTex(Memory memory, int address) {
+        var header = memory.getBytes(address, TexDecode.HEADER_SIZE);
+        return memory.getBytes(address, TexDecode.getTexSize(header, 0));
+    }
+
     private void extractSkillTreeInfo(Memory memory, Path outDir, int address, String name) throws IOException {
 
         var elements = new ArrayList<SkillTreeInfoEl>();
-        var data = memory.getData();
-        var el = SkillTreeInfoEl.read(data, address);
+        int offset = 0;
+        var el = SkillTreeInfoEl.read(memory.getBytes(address, 0x28), 0);
         while (el.x >= 0){
-            address += 0x28;
+            offset += 0x28;
             elements.add(el);
-            el = SkillTreeInfoEl.read(data, address);
+            el = SkillTreeInfoEl.read(memory.getBytes(address + offset, 0x28), 0);
         }
         Logger.info("read {} elements", elements.size());
         var outPath = outDir.resolve(name + ".txt");
@@ -163,208 +276,243 @@ public class ExtractFiles {
         Files.writeString(outPath, sb.toString());
     }
 
-    private void convertVifFiles(Path extractedPath, GameType gameType, String pattern, GameConfig gameConfig) throws IOException {
-
-        VifDecode decoder = new VifDecode();
+    private void convertVifFiles(AssetCatalog catalog, GameType gameType, String pattern, GameConfig gameConfig) throws IOException {
+
+        var files = catalog.getFiles(".vif");
+        Logger.info("found {} vif files", files.size());
+        for (var file : files) {
+            if (pattern == null || pattern.isEmpty() || file.contains(pattern)) {
+                scheduler.submit(VIF, file, catalog.getSize(file), () -> {
+                    var dir = AssetCatalog.getParent(file);
+                    var vifFilename = AssetCatalog.getFileName(file);
+                    var inputs = new ArrayList<String>();
+                    inputs.add(file);
+                    inputs.add(dir + "/" + vifFilename.replace(".vif", ".tex"));
+                    // Find anm files in the same directory
+                    var anmFiles = catalog.getFilesUnder(dir, ".anm");
+                    inputs.addAll(anmFiles);
+                    var gltfPath = getOutputPath(file).resolveSibling(vifFilename.replace(".vif", "_vif.gltf"));
+                    convertIfChanged(VIF, VIF_VERSION, file, inputs, List.of(gltfPath),
+                            outputs -> convertVifFile(file, anmFiles, gameType, gameConfig));
+                });
+            }
+        }
+    }
 
-        var fileFinder = new FileFinder(".vif");
-        Files.walkFileTree(extractedPath, fileFinder);
+    private boolean convertVifFile(String file, List<String> anmPaths, GameType gameType, GameConfig gameConfig) throws IOException {
+        Logger.debug("Converting {}", file);
+        try {
+            VifDecode decoder = new VifDecode();
+            var vifFilename = AssetCatalog.getFileName(file);
+            var outDir = getOutputPath(file).getParent();
 
-        Logger.info("found {} vif files", fileFinder.found.size());
-        for (var file : fileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || file.toString().contains(pattern)) {
-                Logger.debug("Converting {}", file.toString());
-                try {
-                    var vifFilename = file.getFileName().toString();
-                    var outDir = file.getParent();
+            ModelDef modelDef = gameConfig.getModelDef(vifFilename);
 
-                    ModelDef modelDef = gameConfig.getModelDef(vifFilename);
+            List<VifDecode.Mesh> meshList = decoder.decode(assets.read(file));
 
-                    // Find anm files in the same directory
-                    var anmFinder = new FileFinder(".anm");
-                    Files.walkFileTree(outDir, anmFinder);
-
-                    byte[] fileData = Files.readAllBytes(file);
-                    List<VifDecode.Mesh> meshList = decoder.decode(fileData, 0);
-
-                    int texW = 0;
-                    int texH = 0;
-                    String texName = vifFilename.replace(".vif", ".tex");
-                    String pngName = vifFilename.replace(".vif", ".png");
-
-                    var texPath = outDir.resolve(texName);
-                    if (Files.exists(texPath)) {
-                        byte[] texData = Files.readAllBytes(texPath);
-                        texW = DataUtil.getLEShort(texData, 0);
-                        texH = DataUtil.getLEShort(texData, 2);
-                    }
+            int texW = 0;
+            int texH = 0;
+            String texName = vifFilename.replace(".vif", ".tex");
+            String pngName = vifFilename.replace(".vif", ".png");
 
-                    List<AnmData> anmList = new ArrayList<>();
-                    for (var anmPath : anmFinder.found) {
-                        var anmName = anmPath.getFileName().toString();
-                        boolean include = modelDef.hasAnimation(anmName);
-                        if (vifFilename.startsWith("projectile") && !anmName.startsWith("projectile")) {
-                            include = false;
-                        }
-                        if (vifFilename.startsWith("ant") && (anmName.startsWith("projectile") || anmName.startsWith("spel"))) {
-                            include = false;
-                        }
-                        if (include) {
-                            byte[] anmFileData = Files.readAllBytes(anmPath);
-                            AnmDecoder anmDecoder = new AnmDecoder();
-                            var anmData = anmDecoder.decode(gameType, anmFileData, 0, anmFileData.length);
-                            anmData.name = anmName;
-                            anmList.add(anmData);
-                        }
-                    }
-
-                    var gltf = new Gltf(meshList, pngName, texW, texH, anmList);
+            var texPath = AssetCatalog.getParent(file) + "/" + texName;
+            if (assets.exists(texPath)) {
+                ByteBuffer texData = assets.read(texPath);
+                texW = texData.getShort(0);
+                texH = texData.getShort(2);
+            }
 
-                    var gltfFilename = vifFilename.replace(".vif", "_vif.gltf");
-                    var outPath = outDir.resolve(gltfFilename);
-                    gltf.write(outPath);
-                } catch (RuntimeException e) {
-                    Logger.error(e, "Failed to convert {}", file.toString());
+            List<AnmData> anmList = new ArrayList<>();
+            for (var anmPath : anmPaths) {
+                var anmName = AssetCatalog.getFileName(anmPath);
+                boolean include = modelDef.hasAnimation(anmName);
+                if (vifFilename.startsWith("projectile") && !anmName.startsWith("projectile")) {
+                    include = false;
+                }
+                if (vifFilename.startsWith("ant") && (anmName.startsWith("projectile") || anmName.startsWith("spel"))) {
+                    include = false;
+                }
+                if (include) {
+                    AnmDecoder anmDecoder = new AnmDecoder();
+                    var anmData = anmDecoder.decode(gameType, assets.read(anmPath));
+                    anmData.name = anmName;
+                    anmList.add(anmData);
                 }
             }
-        }
-    }
 
-    private void convertFntFiles(Path extractedPath, GameType gameType, String pattern) throws IOException {
+            var gltf = new Gltf(meshList, pngName, texW, texH, anmList);
 
-        TexDecode decoder = new TexDecode();
+            var gltfFilename = vifFilename.replace(".vif", "_vif.gltf");
+            var outPath = outDir.resolve(gltfFilename);
+            gltf.write(outPath);
+        } catch (RuntimeException e) {
+            Logger.error(e, "Failed to convert {}", file);
+            return false;
+        }
+        return true;
+    }
 
-        var fileFinder = new FileFinder(".fnt");
-        Files.walkFileTree(extractedPath, fileFinder);
+    private void convertFntFiles(AssetCatalog catalog, GameType gameType, String pattern) throws IOException {
 
-        Logger.info("found {} fnt files", fileFinder.found.size());
-        for (var file : fileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || file.toString().contains(pattern)) {
-                Logger.debug("Converting {}", file.toString());
-                try {
-                    var filename = file.getFileName().toString();
-                    var outDir = file.getParent();
-
-                    byte[] fileData = Files.readAllBytes(file);
-                    var fontTexOffset = DataUtil.getLEInt(fileData,  0x10);
-                    decoder.extract(outDir, fileData, fontTexOffset, filename+".tex", 0);
-                } catch (RuntimeException e) {
-                    Logger.info("Failed to convert {}", file.toString());
-                }
+        var files = catalog.getFiles(".fnt");
+        Logger.info("found {} fnt files", files.size());
+        for (var file : files) {
+            if (pattern == null || pattern.isEmpty() || file.contains(pattern)) {
+                scheduler.submit(FNT, file, catalog.getSize(file),
+                        () -> convertIfChanged(FNT, FNT_VERSION, file, List.of(file), List.of(), outputs -> convertFntFile(file, outputs)));
             }
         }
     }
 
+    private boolean convertFntFile(String file, List<Path> outputs) throws IOException {
+        Logger.debug("Converting {}", file);
+        try {
+            var filename = AssetCatalog.getFileName(file);
+            var outDir = getOutputPath(file).getParent();
+
+            ByteBuffer fileData = assets.read(file);
+            var fontTexOffset = fileData.getInt(0x10);
+            var texData = fileData.slice(fontTexOffset, fileData.limit() - fontTexOffset);
+            if (new TexDecode().extract(outDir, texData, filename+".tex")) {
+                outputs.add(outDir.resolve(filename + ".png"));
+            }
+        } catch (RuntimeException e) {
+            Logger.info("Failed to convert {}", file);
+            return false;
+        }
+        return true;
+    }
 
-    private void convertTexFiles(Path extractedPath, GameType gameType, String pattern) throws IOException {
-        TexDecode decoder = new TexDecode();
 
-        var texFileFinder = new FileFinder(".tex");
-        Files.walkFileTree(extractedPath, texFileFinder);
+    private void convertTexFiles(AssetCatalog catalog, GameType gameType, String pattern) throws IOException {
+        var texFiles = catalog.getFiles(".tex");
+        Logger.info("found {} tex files", texFiles.size());
+        for (var texFile : texFiles) {
+            if (pattern == null || pattern.isEmpty() || texFile.contains(pattern)) {
+                var texFilename = AssetCatalog.getFileName(texFile);
+                var txtPath = getOutputPath(texFile).resolveSibling(texFilename.replace(".tex", "_tex.txt"));
+                scheduler.submit(TEX, texFile, catalog.getSize(texFile),
+                        () -> convertIfChanged(TEX, TEX_VERSION, texFile, List.of(texFile), List.of(txtPath), outputs -> convertTexFile(texFile, outputs)));
+            }
+        }
+    }
 
-        Logger.info("found {} tex files", texFileFinder.found.size());
-        for (var texFile : texFileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || texFile.toString().contains(pattern)) {
-                Logger.debug("Converting {}", texFile.toString());
-                try {
-                    decoder.extract(texFile);
-                } catch (RuntimeException e) {
-                    Logger.info("Failed to convert {}", texFile.toString());
-                }
-                LogTexFile(texFile);
+    // The png is only written for textures that have an image, the log always is.
+    private boolean convertTexFile(String texFile, List<Path> outputs) throws IOException {
+        Logger.debug("Converting {}", texFile);
+        var texFilename = AssetCatalog.getFileName(texFile);
+        var outDir = getOutputPath(texFile).getParent();
+        ByteBuffer texData = assets.read(texFile);
+        boolean converted = true;
+        try {
+            if (new TexDecode().extract(outDir, texData, texFilename)) {
+                outputs.add(outDir.resolve(texFilename.replace(".tex", ".png")));
             }
+        } catch (RuntimeException e) {
+            Logger.info("Failed to convert {}", texFile);
+            converted = false;
         }
+        LogTexFile(texData, outDir.resolve(texFilename.replace(".tex", "_tex.txt")));
+        return converted;
     }
 
-    private void LogTexFile(Path texPath) throws IOException {
+    private void LogTexFile(ByteBuffer texData, Path outPath) throws IOException {
         var texLogger = new TexLogger();
-        var texFilename = texPath.getFileName().toString();
-        var outDir = texPath.getParent();
-        var txtFilename = texFilename.replace(".tex", "_tex.txt");
-        var outPath = outDir.resolve(txtFilename);
         try (var writer = new FileWriter(outPath.toFile())) {
-            texLogger.log(texPath, writer);
+            texLogger.log(texData, writer);
         }
     }
 
-    private void convertWorldFiles(Path gameDataPath, Path extractedPath, GameType gameType, String pattern) throws IOException {
-        var fileFinder = new FileFinder(".world");
-        Files.walkFileTree(extractedPath, fileFinder);
-
-        Logger.info("found {} world files", fileFinder.found.size());
-        for (var file : fileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || file.toString().contains(pattern)) {
-                Logger.debug("Converting {}", file.toString());
-                logWorldFile(gameDataPath, file, gameType);
+    private void convertWorldFiles(Path gameDataPath, AssetCatalog catalog, GameType gameType, String pattern) throws IOException {
+        var files = catalog.getFiles(".world");
+        Logger.info("found {} world files", files.size());
+        for (var file : files) {
+            if (pattern == null || pattern.isEmpty() || file.contains(pattern)) {
+                var worldName = AssetCatalog.getFileName(file).replace(".world", "");
+                // The level texture is a file of its own beside the archives
+                var levelTexPath = gameDataPath.resolve(worldName.toUpperCase() + ".TEX");
+                var txtPath = getOutputPath(file).resolveSibling(worldName + ".world.txt");
+                scheduler.submit(WORLD, file, catalog.getSize(file),
+                        () -> convertIfChanged(WORLD, WORLD_VERSION, file, List.of(file), List.of(levelTexPath), List.of(txtPath),
+                                outputs -> logWorldFile(levelTexPath, file, gameType, outputs)));
             }
         }
     }
 
-    private void logWorldFile(Path gameDataPath, Path path, GameType gameType) throws IOException {
-        var filename = path.getFileName().toString();
-        var outDir = path.getParent();
-        var worldName = filename.replace(".world", "");
-        var levelTexPath = gameDataPath.resolve(worldName.toUpperCase() + ".TEX");
+    // Adds the minimap and level textures to outputs so that deleting any of them forces a rerun.
+    private boolean logWorldFile(Path levelTexPath, String file, GameType gameType, List<Path> outputs) throws IOException {
+        Logger.debug("Converting {}", file);
+        var outDir = getOutputPath(file).getParent();
+        var worldName = AssetCatalog.getFileName(file).replace(".world", "");
 
-        byte[] worldData = Files.readAllBytes(path);
+        // Worlds already run concurrently on the scheduler, so each decodes its level textures in turn
         var decoder = new WorldDecode(gameType);
-        decoder.decode(worldData, outDir, levelTexPath, worldName);
+        decoder.decode(assets.read(file), outDir, levelTexPath, worldName);
+        outputs.addAll(decoder.getOutputs());
+        return decoder.isComplete();
     }
 
-    private void convertObFiles(Path extractedPath, GameType gameType, String pattern) throws IOException {
-        var fileFinder = new FileFinder(".ob");
-        Files.walkFileTree(extractedPath, fileFinder);
-
-        Logger.info("found {} ob files", fileFinder.found.size());
-        for (var file : fileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || file.toString().contains(pattern)) {
-                Logger.debug("Converting {}", file.toString());
-                logObFile(file);
+    private void convertObFiles(AssetCatalog catalog, GameType gameType, String pattern) throws IOException {
+        var files = catalog.getFiles(".ob");
+        Logger.info("found {} ob files", files.size());
+        for (var file : files) {
+            if (pattern == null || pattern.isEmpty() || file.contains(pattern)) {
+                var outputs = List.of(getOutputPath(file).resolveSibling(AssetCatalog.getFileName(file).replace(".ob", "_ob.txt")));
+                scheduler.submit(OB, file, catalog.getSize(file),
+                        () -> convertIfChanged(OB, OB_VERSION, file, List.of(file), outputs, written -> logObFile(file)));
             }
         }
     }
 
-    private void logObFile(Path path) throws IOException {
-        var filename = path.getFileName().toString();
-        var outDir = path.getParent();
+    private boolean logObFile(String file) throws IOException {
+        Logger.debug("Converting {}", file);
+        var filename = AssetCatalog.getFileName(file);
+        var outDir = getOutputPath(file).getParent();
         var txtFilename = filename.replace(".ob", "_ob.txt");
         var outPath = outDir.resolve(txtFilename);
 
-        byte[] obData = Files.readAllBytes(path);
-        var out = ObLogger.log(obData);
+        var out = ObLogger.log(assets.read(file));
         Files.writeString(outPath, out);
+        return true;
     }
 
-    private void convertScriptFiles(Path extractedPath, GameType gameType, String pattern) throws IOException {
-        ScriptDecode decoder = new ScriptDecode();
-
-        var fileFinder = new FileFinder(".scr");
-        Files.walkFileTree(extractedPath, fileFinder);
+    private void convertScriptFiles(AssetCatalog catalog, GameType gameType, String pattern) throws IOException {
+        var files = catalog.getFiles(".scr");
+        Logger.info("found {} scr files", files.size());
+        for (var file : files) {
+            if (pattern == null || pattern.isEmpty() || file.contains(pattern)) {
+                var outputs = List.of(getOutputPath(file).resolveSibling(AssetCatalog.getFileName(file).replace(".scr", "_scr.txt")));
+                scheduler.submit(SCRIPT, file, catalog.getSize(file),
+                        () -> convertIfChanged(SCRIPT, SCRIPT_VERSION, file, List.of(file), outputs, written -> convertScriptFile(file)));
+            }
+        }
+    }
 
-        Logger.info("found {} scr files", fileFinder.found.size());
-        for (var file : fileFinder.found) {
-            if (pattern == null || pattern.isEmpty() || file.toString().contains(pattern)) {
-                Logger.debug("Converting {}", file.toString());
-                try {
-                    decoder.read(file);
-                    String out = decoder.disassemble();
+    private boolean convertScriptFile(String file) throws IOException {
+        Logger.debug("Converting {}", file);
+        try {
+            // The decoder holds the state of the file being disassembled.
+            ScriptDecode decoder = new ScriptDecode();
+            decoder.read(assets.read(file));
+            String out = decoder.disassemble();
 
-                    var outDir = file.getParent();
-                    var filename = file.getFileName().toString();
-                    var txtFilename = filename.replace(".scr", "_scr.txt");
-                    var outPath = outDir.resolve(txtFilename);
+            var outDir = getOutputPath(file).getParent();
+            var filename = AssetCatalog.getFileName(file);
+            var txtFilename = filename.replace(".scr", "_scr.txt");
+            var outPath = outDir.resolve(txtFilename);
 
-                    Files.writeString(outPath, out);
+            Files.writeString(outPath, out);
 
-                } catch (RuntimeException e) {
-                    Logger.info("Failed to convert {}", file.toString());
-                }
-            }
+        } catch (RuntimeException e) {
+            Logger.info("Failed to convert {}", file);
+            return false;
         }
+        return true;
     }
 
     private void extractLmps(Path gameDataPath, Path extractedPath, GameType gameType) throws IOException {
         var extractor = new LmpExtractor(gameType);
+        extractor.setManifest(manifest);
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(gameDataPath, "*.LMP")) {
             for (Path entry : stream) {
                 var lmpFilename = entry.getFileName();
@@ -372,13 +520,16 @@ public class ExtractFiles {
                 var outDirname = lmpFilename.toString().replace('.', '_');
                 var outPath = extractedPath.resolve(outDirname);
                 Files.createDirectories(outPath);
-                extractor.extractAll(lmpFilename, entry.toAbsolutePath(), outPath);
+                var lmpPath = entry.toAbsolutePath();
+                scheduler.submit(UNPACK, lmpFilename.toString(), Files.size(lmpPath),
+                        () -> extractor.extractAll(lmpFilename, lmpPath, outPath));
             }
         }
     }
 
     private void extractGobs(Path gameDataPath, Path extractedPath, GameType gameType) throws IOException {
         var extractor = new GobExtractor(gameType);
+        extractor.setManifest(manifest);
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(gameDataPath, "*.GOB")) {
             for (Path entry : stream) {
                 var gobFilename = entry.getFileName();
@@ -386,13 +537,17 @@ public class ExtractFiles {
                 var outDirname = gobFilename.toString().replace('.', '_');
                 var outPath = extractedPath.resolve(outDirname);
                 Files.createDirectories(outPath);
-                extractor.extract(gobFilename, entry.toAbsolutePath(), outPath);
+                var gobPath = entry.toAbsolutePath();
+                // GOBs are streamed so only the lmp directories are held in memory.
+                scheduler.submit(UNPACK, gobFilename.toString(), GOB_STREAM_BYTES,
+                        () -> extractor.extract(gobFilename, gobPath, outPath));
             }
         }
     }
 
-    private void extractHDRDATArchives(Path gameDataPath, Path extractedPath, GameType gameType) throws IOException {
-        var extractor = new HdrDatExtractor(gameType);
+    private void extractHDRDATArchives(Path gameDataPath, Path extractedPath) throws IOException {
+        var extractor = new HdrDatExtractor();
+        extractor.setManifest(manifest);
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(gameDataPath, "*.HDR")) {
             for (Path hdrPath : stream) {
                 var hdrFilename = hdrPath.getFileName().toString();
@@ -405,29 +560,86 @@ public class ExtractFiles {
                 var datFilename = baseFilename + ".DAT";
                 var datPath = hdrPath.resolveSibling(datFilename);
 
-                extractor.extract(baseFilename, hdrPath.toAbsolutePath(), datPath.toAbsolutePath(), outPath);
+                scheduler.submit(UNPACK, hdrFilename, Files.size(datPath),
+                        () -> extractor.extract(hdrPath.toAbsolutePath(), datPath.toAbsolutePath(), outPath));
             }
         }
 
     }
 
-    public static class FileFinder extends SimpleFileVisitor<Path> {
-        private final String ext;
+    /*
+        The entries of the archives, listed once through the AssetFileSystem and grouped by extension and
+        by directory. Paths are those of the AssetFileSystem, which mirror the extracted directory. The
+        conversion stages share one catalog and read their input from the archives.
+     */
+    public static class AssetCatalog {
+
+        // Extension, including the dot, to the entries with that extension
+        private final Map<String, List<String>> filesByExt = new HashMap<>();
+
+        // Directory to the entries directly inside it with each extension
+        private final Map<String, Map<String, List<String>>> filesByDir = new HashMap<>();
 
-        public List<Path> found = new ArrayList<>();
+        private final Map<String, Long> sizes = new HashMap<>();
 
-        FileFinder(String ext) {
-            this.ext = ext;
+        private record DirExt(String dir, String ext) {
         }
 
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
-            if (attr.isRegularFile()) {
-                if (file.toString().endsWith(ext)) {
-                    found.add(file);
-                }
+        // Conversion tasks look entries up concurrently
+        private final Map<DirExt, List<String>> filesUnder = new ConcurrentHashMap<>();
+
+        public static AssetCatalog list(AssetFileSystem assets) throws IOException {
+            var catalog = new AssetCatalog();
+            for (var path : assets.list()) {
+                catalog.add(path, assets.locate(path).length());
+            }
+            return catalog;
+        }
+
+        private void add(String path, long size) {
+            var filename = getFileName(path);
+            int dot = filename.lastIndexOf('.');
+            if (dot >= 0) {
+                var ext = filename.substring(dot);
+                filesByExt.computeIfAbsent(ext, k -> new ArrayList<>()).add(path);
+                filesByDir.computeIfAbsent(getParent(path), k -> new HashMap<>())
+                        .computeIfAbsent(ext, k -> new ArrayList<>()).add(path);
             }
-            return CONTINUE;
+            sizes.put(path, size);
+        }
+
+        public static String getParent(String path) {
+            int sep = path.lastIndexOf('/');
+            return sep < 0 ? "" : path.substring(0, sep);
+        }
+
+        public static String getFileName(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        public List<String> getFiles(String ext) {
+            return filesByExt.getOrDefault(ext, List.of());
+        }
+
+        /**
+         * @return The entries with the given extension in dir or any directory below it. The result is
+         *         cached as every model in a directory asks for the same animations.
+         */
+        public List<String> getFilesUnder(String dir, String ext) {
+            return filesUnder.computeIfAbsent(new DirExt(dir, ext), key -> {
+                var files = new ArrayList<String>();
+                for (var dirFiles : filesByDir.entrySet()) {
+                    var entryDir = dirFiles.getKey();
+                    if (entryDir.equals(dir) || entryDir.startsWith(dir + "/")) {
+                        files.addAll(dirFiles.getValue().getOrDefault(ext, List.of()));
+                    }
+                }
+                return List.copyOf(files);
+            });
+        }
+
+        public long getSize(String path) {
+            return sizes.getOrDefault(path, 0L);
         }
     }
 
@@ -0,0 +1,112 @@
+package net.ijbrown.jbgda.demos;
+
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/*
+    Runs the extraction and conversion tasks of ExtractFiles concurrently on virtual threads.
+
+    Each task belongs to a stage (such as "unpack" or "tex") and may declare how many bytes it expects to
+    hold in memory. A task only starts when both its stage has a free slot and the bytes are available
+    from the shared in-flight budget. Every task writes its own output files so the results do not
+    depend on the order that tasks complete in, and errors are reported in submission order.
+ */
+public class ExtractScheduler implements AutoCloseable {
+
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    // The budget is counted in KiB so that it fits in a semaphore.
+    private static final int BUDGET_UNIT = 1024;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore budget;
+    private final int budgetPermits;
+    private final Map<String, Semaphore> stageLimits = new HashMap<>();
+    private final List<Submitted> submitted = new ArrayList<>();
+
+    private record Submitted(String stage, String name, Future<?> future) {
+    }
+
+    public ExtractScheduler(long maxInFlightBytes) {
+        budgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / BUDGET_UNIT));
+        budget = new Semaphore(budgetPermits, true);
+    }
+
+    /**
+     * Limits the number of tasks of the given stage that can run at the same time.
+     * Stages without a limit are only constrained by the byte budget.
+     */
+    public synchronized void setStageLimit(String stage, int maxConcurrent) {
+        stageLimits.put(stage, new Semaphore(maxConcurrent, true));
+    }
+
+    public synchronized void submit(String stage, String name, long sizeBytes, Task task) {
+        Semaphore stageLimit = stageLimits.get(stage);
+        int permits = (int) Math.min(budgetPermits, Math.max(1, (sizeBytes + BUDGET_UNIT - 1) / BUDGET_UNIT));
+        Future<?> future = executor.submit(() -> {
+            if (stageLimit != null) {
+                stageLimit.acquire();
+            }
+            try {
+                budget.acquire(permits);
+                try {
+                    task.run();
+                } finally {
+                    budget.release(permits);
+                }
+            } finally {
+                if (stageLimit != null) {
+                    stageLimit.release();
+                }
+            }
+            return null;
+        });
+        submitted.add(new Submitted(stage, name, future));
+    }
+
+    /**
+     * Waits for every task submitted so far. If any failed, the first failure in submission order
+     * is thrown once all the tasks have finished.
+     */
+    public void await() throws IOException {
+        List<Submitted> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(submitted);
+            submitted.clear();
+        }
+        Throwable firstFailure = null;
+        for (var task : pending) {
+            try {
+                task.future().get();
+            } catch (ExecutionException e) {
+                Logger.error(e.getCause(), "{} task failed for {}", task.stage(), task.name());
+                if (firstFailure == null) {
+                    firstFailure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + task.name(), e);
+            }
+        }
+        if (firstFailure instanceof IOException ioe) {
+            throw ioe;
+        } else if (firstFailure instanceof RuntimeException re) {
+            throw re;
+        } else if (firstFailure != null) {
+            throw new IOException(firstFailure);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
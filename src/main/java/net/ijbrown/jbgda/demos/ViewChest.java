@@ -13,8 +13,8 @@ import org.tinylog.Logger;
 
 import java.io.IOException;
 import java.lang.Math;
-import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
@@ -140,28 +140,43 @@ public class ViewChest implements IAppLogic {
 
     }
 
-    private Texture buildTexture(Device device, TexDecode.DecodedTex texData)
+    // Decodes the chest from the game archives and stores it in a pack which later runs map directly.
+    private void writeChestPack(Path packPath) throws IOException
     {
-        int size = texData.pixels.length * 4;
-        var buf = ByteBuffer.allocate(size);
-        buf.clear();
-        for(var pe : texData.pixels){
-            buf.put(pe.r);
-            buf.put(pe.g);
-            buf.put(pe.b);
-            //buf.put(pe.a);
-            buf.put((byte)0xff);
+        ArchiveIndex archiveIndex = ArchiveIndex.open(gameDataPath, GameType.DARK_ALLIANCE);
+
+        var texData = TexDecode.decodeTex(archiveIndex.read("CHEST_LMP/chest_large.tex"));
+
+        VifDecode vifDecoder = new VifDecode();
+        List<VifDecode.Mesh> meshes = vifDecoder.decode(archiveIndex.read("CHEST_LMP/chest_large.vif"));
+
+        var writer = new AssetPack.Writer();
+        writer.addTextureRgba("tex", texData.pixelsWidth, texData.pixelsHeight, texData.getRgba());
+        for (int i = 0; i < meshes.size(); ++i) {
+            var meshData = processMesh(meshes.get(i), texData.pixelsWidth, texData.pixelsHeight);
+            writer.addMesh("mesh_" + i, meshData.positions(), meshData.normals(), meshData.tangents(),
+                    meshData.biTangents(), meshData.textCoords(), meshData.indices(), meshData.materialIdx());
         }
-        buf.rewind();
-        return new Texture(device, buf, texData.pixelsWidth, texData.pixelsHeight, VK_FORMAT_R8G8B8A8_SRGB);
+        // The chest's animations are stored decoded so they can be played without the AnmDecoder.
+        AnmDecoder anmDecoder = new AnmDecoder();
+        for (var entry : archiveIndex.getEntries()) {
+            if (entry.path.startsWith("CHEST_LMP/") && entry.type.equals("anm")) {
+                var anmData = anmDecoder.decode(GameType.DARK_ALLIANCE, archiveIndex.read(entry));
+                anmData.name = entry.path.substring("CHEST_LMP/".length());
+                writer.addAnimation(anmData);
+            }
+        }
+        Files.createDirectories(packPath.getParent());
+        writer.write(packPath);
     }
 
-    private ModelData meshToModelData(String modelId, List<VifDecode.Mesh> meshes, TexDecode.DecodedTex texData, Render render)
+    private ModelData packToModelData(String modelId, AssetPack pack, Render render)
     {
         var device = render.getDevice();
         var textureCache = render.getTextureCache();
 
-        var texture = buildTexture(device, texData);
+        var texRecord = pack.find("tex");
+        var texture = new Texture(device, pack.getData(texRecord), texRecord.getWidth(), texRecord.getHeight(), VK_FORMAT_R8G8B8A8_SRGB);
         var texPath = modelId + "_tex";
         textureCache.addTexture(texture, texPath);
 
@@ -169,13 +184,16 @@ public class ViewChest implements IAppLogic {
         ModelData.Material material = new ModelData.Material(texPath, null, null, ModelData.Material.DEFAULT_COLOR, 0.0f, 0.0f);
         materialList.add(material);
 
-        List<ModelData.MeshData> meshDataList = new ArrayList<>();
-        for (VifDecode.Mesh mesh : meshes) {
-            ModelData.MeshData meshData = processMesh(mesh, texData.pixelsWidth, texData.pixelsHeight);
-            meshDataList.add(meshData);
+        List<ModelData.PackedMeshData> packedMeshDataList = new ArrayList<>();
+        for (var record : pack.getRecords()) {
+            if (record.kind == AssetPack.Kind.MESH) {
+                packedMeshDataList.add(new ModelData.PackedMeshData(pack.getVertices(record), pack.getIndices(record),
+                        record.getNumIndices(), record.getMaterialIdx()));
+            }
         }
 
-        ModelData modelData = new ModelData(modelId, meshDataList, materialList);
+        ModelData modelData = new ModelData(modelId, new ArrayList<>(), materialList);
+        modelData.setPackedMeshDataList(packedMeshDataList);
         return modelData;
     }
 
@@ -183,20 +201,17 @@ public class ViewChest implements IAppLogic {
     public void init(Window window, Scene scene, Render render) {
         List<ModelData> modelDataList = new ArrayList<>();
 
-        Path ChestLmpPath = gameDataPath.resolve("CHEST.LMP");
-        Lmp chestLmp = new Lmp(GameType.DARK_ALLIANCE);
         try {
-            chestLmp.readLmpFile(ChestLmpPath);
-            Lmp.Entry chestVif = chestLmp.findEntry("chest_large.vif");
-            Lmp.Entry chestTex = chestLmp.findEntry("chest_large.tex");
-
-            var texData = TexDecode.decodeTex(chestTex.data, chestTex.offset, chestTex.length);
-
-            VifDecode vifDecoder = new VifDecode();
-            List<VifDecode.Mesh> meshes = vifDecoder.decode(chestVif.data, chestVif.offset);
+            // The decoded chest is cached in a pack which is rebuilt when CHEST.LMP changes.
+            Path packPath = Path.of(gameDataPath + "_EXTRACTED").resolve("chest_large.pack");
+            Path chestLmpPath = gameDataPath.resolve("CHEST.LMP");
+            if (!AssetPack.isUpToDate(packPath, chestLmpPath)) {
+                writeChestPack(packPath);
+            }
+            AssetPack chestPack = AssetPack.open(packPath);
 
             String chestLargeId = "chestLargeModel";
-            ModelData chestLargeModelData = meshToModelData(chestLargeId, meshes, texData, render);
+            ModelData chestLargeModelData = packToModelData(chestLargeId, chestPack, render);
             modelDataList.add(chestLargeModelData);
 
             Entity ChestLargeEntity = new Entity("ChestLargeEntity", chestLargeId, new Vector3f(0.0f, 0.0f, 0.0f));
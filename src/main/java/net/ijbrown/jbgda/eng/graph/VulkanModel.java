@@ -42,6 +42,23 @@ public class VulkanModel {
         return new TransferBuffers(srcBuffer, dstBuffer);
     }
 
+    // Copies data that is already in the upload layout, e.g. from a mapped AssetPack, into a staging buffer.
+    private static TransferBuffers createPackedBuffers(Device device, ByteBuffer packed, int usage) {
+        int bufferSize = packed.remaining();
+
+        VulkanBuffer srcBuffer = new VulkanBuffer(device, bufferSize,
+                VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+        VulkanBuffer dstBuffer = new VulkanBuffer(device, bufferSize,
+                VK_BUFFER_USAGE_TRANSFER_DST_BIT | usage, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+
+        long mappedMemory = srcBuffer.map();
+        ByteBuffer data = MemoryUtil.memByteBuffer(mappedMemory, bufferSize);
+        data.put(packed.duplicate());
+        srcBuffer.unMap();
+
+        return new TransferBuffers(srcBuffer, dstBuffer);
+    }
+
     private static TransferBuffers createJointMatricesBuffers(Device device, ModelData.AnimatedFrame frame) {
         Matrix4f[] matrices = frame.jointMatrices();
         int numMatrices = matrices.length;
@@ -245,6 +262,36 @@ public class VulkanModel {
                 vulkanMaterial.vulkanMeshList.add(vulkanMesh);
                 meshCount++;
             }
+
+            // Packed meshes are copied straight from their buffers, which may be mapped files
+            List<ModelData.PackedMeshData> packedMeshDataList = modelData.getPackedMeshDataList();
+            if (packedMeshDataList != null) {
+                for (ModelData.PackedMeshData packedMeshData : packedMeshDataList) {
+                    TransferBuffers verticesBuffers = createPackedBuffers(device, packedMeshData.vertices(),
+                            VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT);
+                    TransferBuffers indicesBuffers = createPackedBuffers(device, packedMeshData.indices(),
+                            VK_BUFFER_USAGE_INDEX_BUFFER_BIT);
+                    stagingBufferList.add(verticesBuffers.srcBuffer());
+                    stagingBufferList.add(indicesBuffers.srcBuffer());
+                    recordTransferCommand(cmd, verticesBuffers);
+                    recordTransferCommand(cmd, indicesBuffers);
+
+                    VulkanModel.VulkanMesh vulkanMesh = new VulkanModel.VulkanMesh(verticesBuffers.dstBuffer(),
+                            indicesBuffers.dstBuffer(), packedMeshData.numIndices(), null);
+
+                    VulkanMaterial vulkanMaterial;
+                    int materialIdx = packedMeshData.materialIdx();
+                    if (materialIdx >= 0 && materialIdx < vulkanModel.vulkanMaterialList.size()) {
+                        vulkanMaterial = vulkanModel.vulkanMaterialList.get(materialIdx);
+                    } else {
+                        if (defaultVulkanMaterial == null) {
+                            defaultVulkanMaterial = transformMaterial(new ModelData.Material(), device, textureCache, cmd, textureList);
+                        }
+                        vulkanMaterial = defaultVulkanMaterial;
+                    }
+                    vulkanMaterial.vulkanMeshList.add(vulkanMesh);
+                }
+            }
         }
 
         cmd.endRecording();
@@ -2,6 +2,7 @@ package net.ijbrown.jbgda.eng.scene;
 
 import org.joml.*;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class ModelData {
@@ -9,6 +10,7 @@ public class ModelData {
     private List<Animation> animationsList;
     private List<Material> materialList;
     private List<MeshData> meshDataList;
+    private List<PackedMeshData> packedMeshDataList;
     private String modelId;
 
     public ModelData(String modelId, List<MeshData> meshDataList, List<Material> materialList) {
@@ -33,6 +35,10 @@ public class ModelData {
         return meshDataList;
     }
 
+    public List<PackedMeshData> getPackedMeshDataList() {
+        return packedMeshDataList;
+    }
+
     public String getModelId() {
         return modelId;
     }
@@ -45,6 +51,10 @@ public class ModelData {
         this.animMeshDataList = animMeshDataList;
     }
 
+    public void setPackedMeshDataList(List<PackedMeshData> packedMeshDataList) {
+        this.packedMeshDataList = packedMeshDataList;
+    }
+
     public void setAnimationsList(List<Animation> animationsList) {
         this.animationsList = animationsList;
     }
@@ -67,6 +77,13 @@ public class ModelData {
         }
     }
 
+    /**
+     * Mesh data that is already interleaved in the layout the renderer uploads, such as a slice of a
+     * mapped AssetPack. It is copied into the staging buffers as is.
+     */
+    public record PackedMeshData(ByteBuffer vertices, ByteBuffer indices, int numIndices, int materialIdx) {
+    }
+
     public record MeshData(float[] positions, float[] normals, float[] tangents, float[] biTangents,
                            float[] textCoords, int[] indices, int materialIdx) {
 
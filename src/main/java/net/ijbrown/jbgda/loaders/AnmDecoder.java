@@ -4,10 +4,16 @@ import org.joml.Matrix3f;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class AnmDecoder {
+    public AnmData decode(GameType gameType, ByteBuffer anmData) {
+        byte[] data = DataUtil.getBytes(anmData);
+        return decode(gameType, data, 0, data.length);
+    }
+
     public AnmData decode(GameType gameType, byte[] data, int startOffset, int len) {
         if (gameType == GameType.DARK_ALLIANCE) {
             return decode(data, startOffset, len);
@@ -195,30 +201,22 @@ public class AnmDecoder {
         var curPose = new AnmData.Pose[anmData.numJoints];
 
         // RTA reads the anim as a bit stream
-        int frameBitpos = framePoseOffset * 8;
+        var bits = new BitReader(data, 0, BitReader.Order.WORD_SWAPPED);
+        bits.setBitPosition(framePoseOffset * 8);
         anmData.poses = new ArrayList<>();
         for (int jointNo = 0; jointNo < anmData.numJoints; ++jointNo) {
 
-            var posLen = DataUtil.getBits(data, frameBitpos, 4, true) + 1;
-            frameBitpos += 4;
-            float x = (float) DataUtil.getBits(data, frameBitpos, posLen, false) / 64.0f;
-            frameBitpos += posLen;
-            float y = (float) DataUtil.getBits(data, frameBitpos, posLen, false) / 64.0f;
-            frameBitpos += posLen;
-            float z = (float) DataUtil.getBits(data, frameBitpos, posLen, false) / 64.0f;
-            frameBitpos += posLen;
-
-            var rotLen = DataUtil.getBits(data, frameBitpos, 4, true) + 1;
-            frameBitpos += 4;
-
-            float a = (float) DataUtil.getBits(data, frameBitpos, rotLen, false) / 4096.0f;
-            frameBitpos += rotLen;
-            float b = (float) DataUtil.getBits(data, frameBitpos, rotLen, false) / 4096.0f;
-            frameBitpos += rotLen;
-            float c = (float) DataUtil.getBits(data, frameBitpos, rotLen, false) / 4096.0f;
-            frameBitpos += rotLen;
-            float d = (float) DataUtil.getBits(data, frameBitpos, rotLen, false) / 4096.0f;
-            frameBitpos += rotLen;
+            var posLen = bits.readBits(4) + 1;
+            float x = (float) bits.readSignedBits(posLen) / 64.0f;
+            float y = (float) bits.readSignedBits(posLen) / 64.0f;
+            float z = (float) bits.readSignedBits(posLen) / 64.0f;
+
+            var rotLen = bits.readBits(4) + 1;
+
+            float a = (float) bits.readSignedBits(rotLen) / 4096.0f;
+            float b = (float) bits.readSignedBits(rotLen) / 4096.0f;
+            float c = (float) bits.readSignedBits(rotLen) / 4096.0f;
+            float d = (float) bits.readSignedBits(rotLen) / 4096.0f;
 
             var pose = new AnmData.Pose();
             pose.rotation = new Quaternionf(b, c, d, a);
@@ -241,16 +239,13 @@ public class AnmDecoder {
 
         var maxbitpos = (startOffset + len) * 8;
 
-        while (frameBitpos < (maxbitpos - 22) && frameNumber < maxFrames) {
-            int count = DataUtil.getBits(data, frameBitpos, 8, true);
-            frameBitpos += 8;
+        while (bits.getBitPosition() < (maxbitpos - 22) && frameNumber < maxFrames) {
+            int count = bits.readBits(8);
             if (count == 0xFF) {
                 break;
             }
-            int flag = DataUtil.getBits(data, frameBitpos, 1, true);
-            frameBitpos += 1;
-            int jointNo = DataUtil.getBits(data, frameBitpos, 6, true);
-            frameBitpos += 6;
+            int flag = bits.readBits(1);
+            int jointNo = bits.readBits(6);
 
             if (jointNo >= anmData.numJoints) {
                 break;
@@ -270,17 +265,12 @@ public class AnmDecoder {
             }
 
             if (flag == 0) {
-                var rotLen = DataUtil.getBits(data, frameBitpos, 4, true) + 1;
-                frameBitpos += 4;
-
-                int a = DataUtil.getBits(data, frameBitpos, rotLen, false);
-                frameBitpos += rotLen;
-                int b = DataUtil.getBits(data, frameBitpos, rotLen, false);
-                frameBitpos += rotLen;
-                int c = DataUtil.getBits(data, frameBitpos, rotLen, false);
-                frameBitpos += rotLen;
-                int d = DataUtil.getBits(data, frameBitpos, rotLen, false);
-                frameBitpos += rotLen;
+                var rotLen = bits.readBits(4) + 1;
+
+                int a = bits.readSignedBits(rotLen);
+                int b = bits.readSignedBits(rotLen);
+                int c = bits.readSignedBits(rotLen);
+                int d = bits.readSignedBits(rotLen);
 
                 Quaternionf angVel = new Quaternionf(b, c, d, a);
                 var prevAngVel = pose.angularVelocity;
@@ -300,15 +290,11 @@ public class AnmDecoder {
                 curPose[jointNo].angularVelocity = pose.angularVelocity;
                 curAngVelFrame[jointNo] = frameNumber;
             } else {
-                var posLen = DataUtil.getBits(data, frameBitpos, 4, true) + 1;
-                frameBitpos += 4;
-
-                int x = DataUtil.getBits(data, frameBitpos, posLen, false);
-                frameBitpos += posLen;
-                int y = DataUtil.getBits(data, frameBitpos, posLen, false);
-                frameBitpos += posLen;
-                int z = DataUtil.getBits(data, frameBitpos, posLen, false);
-                frameBitpos += posLen;
+                var posLen = bits.readBits(4) + 1;
+
+                int x = bits.readSignedBits(posLen);
+                int y = bits.readSignedBits(posLen);
+                int z = bits.readSignedBits(posLen);
 
                 Vector3f vel = new Vector3f(x, y, z);
                 var prevVel = pose.velocity;
@@ -0,0 +1,565 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A persistent index of every entry in the GOB, LMP and HDR/DAT archives of a game data directory.
+ * <p>
+ * Building the index parses every archive once. The result is written to a binary file which is
+ * memory mapped on later runs, so finding an entry is a single hash table probe and no archive
+ * needs to be parsed. The index records the size and modification time of each archive and is
+ * rebuilt when any of them change. Paths are the same as the ones used by {@link AssetFileSystem}.
+ * Archives are mapped whole when first read from, except for ones too large for a single mapping
+ * where each entry is mapped as it is read.
+ * <pre>
+ * Header (0x28 bytes)
+ *   0x00 magic 'JBIX'
+ *   0x04 format version
+ *   0x08 game type ordinal
+ *   0x0C number of archives
+ *   0x10 number of types
+ *   0x14 number of entries
+ *   0x18 number of hash slots (a power of 2)
+ *   0x1C offset of the entries
+ *   0x20 offset of the hash slots
+ *   0x24 offset of the strings
+ * Archives (0x18 bytes each): name offset, name length, size (long), modification time millis (long)
+ * Types (8 bytes each): name offset, name length
+ * Entries (0x20 bytes each): path offset, path length, name hash, archive, data offset (long), length, type
+ * Hash slots (4 bytes each): entry number + 1, 0 when empty. Slots are keyed on the entry file name.
+ * Strings: ISO-8859-1 bytes
+ * </pre>
+ */
+public class ArchiveIndex
+{
+    public static final String FILENAME = "_archives.idx";
+
+    private static final int MAGIC = 0x5849424A;    // JBIX
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 0x28;
+    private static final int ARCHIVE_SIZE = 0x18;
+    private static final int TYPE_SIZE = 8;
+    private static final int ENTRY_SIZE = 0x20;
+
+    private static final String ARCHIVE_GLOB = "*.{GOB,LMP,HDR,DAT}";
+
+    private final Path gameDataPath;
+    private final ByteBuffer index;
+
+    private final int numArchives;
+    private final int numTypes;
+    private final int numEntries;
+    private final int slotMask;
+    private final int entriesOffset;
+    private final int slotsOffset;
+    private final int stringsOffset;
+
+    private final String[] archiveNames;
+    private final String[] typeNames;
+    private final ByteBuffer[] archiveData;
+
+    private ArchiveIndex(Path gameDataPath, ByteBuffer index)
+    {
+        this.gameDataPath = gameDataPath;
+        this.index = index;
+        numArchives = index.getInt(0x0C);
+        numTypes = index.getInt(0x10);
+        numEntries = index.getInt(0x14);
+        slotMask = index.getInt(0x18) - 1;
+        entriesOffset = index.getInt(0x1C);
+        slotsOffset = index.getInt(0x20);
+        stringsOffset = index.getInt(0x24);
+
+        archiveNames = new String[numArchives];
+        for (int i = 0; i < numArchives; ++i) {
+            int rec = HEADER_SIZE + i * ARCHIVE_SIZE;
+            archiveNames[i] = getString(index.getInt(rec), index.getInt(rec + 4));
+        }
+        typeNames = new String[numTypes];
+        for (int i = 0; i < numTypes; ++i) {
+            int rec = HEADER_SIZE + numArchives * ARCHIVE_SIZE + i * TYPE_SIZE;
+            typeNames[i] = getString(index.getInt(rec), index.getInt(rec + 4));
+        }
+        archiveData = new ByteBuffer[numArchives];
+    }
+
+    /**
+     * An entry in the index.
+     */
+    public static class Entry
+    {
+        /** The full path of the entry, e.g. CHEST_LMP/chest_large.vif */
+        public final String path;
+
+        /** The file name of the archive holding the data, e.g. CHEST.LMP */
+        public final String container;
+
+        /** The offset of the data from the start of the container file. */
+        public final long offset;
+        public final int length;
+
+        /** The lower case file extension of the entry, e.g. vif */
+        public final String type;
+
+        public final int nameHash;
+
+        private final int archive;
+
+        private Entry(String path, String container, long offset, int length, String type, int nameHash, int archive)
+        {
+            this.path = path;
+            this.container = container;
+            this.offset = offset;
+            this.length = length;
+            this.type = type;
+            this.nameHash = nameHash;
+            this.archive = archive;
+        }
+    }
+
+    /**
+     * @return The default location of the index, which is in the extracted directory used by ExtractFiles.
+     */
+    public static Path getDefaultIndexPath(Path gameDataPath)
+    {
+        return Path.of(gameDataPath + "_EXTRACTED").resolve(FILENAME);
+    }
+
+    public static ArchiveIndex open(Path gameDataPath, GameType gameType) throws IOException
+    {
+        return open(gameDataPath, gameType, getDefaultIndexPath(gameDataPath));
+    }
+
+    /**
+     * Maps the index at indexPath if it is up to date with the archives in gameDataPath, otherwise
+     * the index is rebuilt and written to indexPath. If the index can't be written it is kept in memory.
+     */
+    public static ArchiveIndex open(Path gameDataPath, GameType gameType, Path indexPath) throws IOException
+    {
+        List<Path> archiveFiles = listArchiveFiles(gameDataPath);
+        if (Files.exists(indexPath)) {
+            ByteBuffer mapped = Lmp.map(indexPath);
+            if (isValid(mapped, gameType, archiveFiles)) {
+                return new ArchiveIndex(gameDataPath, mapped);
+            }
+            Logger.info("Archive index {} is out of date", indexPath);
+        }
+
+        ByteBuffer built = build(gameDataPath, gameType, archiveFiles);
+        try {
+            Files.createDirectories(indexPath.toAbsolutePath().getParent());
+            Path tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmpPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                ByteBuffer data = built.duplicate();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            return new ArchiveIndex(gameDataPath, Lmp.map(indexPath));
+        } catch (IOException e) {
+            Logger.warn(e, "Failed to write archive index {}", indexPath);
+            return new ArchiveIndex(gameDataPath, built);
+        }
+    }
+
+    private static List<Path> listArchiveFiles(Path gameDataPath) throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(gameDataPath, ARCHIVE_GLOB)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        files.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        return files;
+    }
+
+    private static boolean isValid(ByteBuffer index, GameType gameType, List<Path> archiveFiles) throws IOException
+    {
+        if (index.limit() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != FORMAT_VERSION
+                || index.getInt(8) != gameType.ordinal() || index.getInt(0x0C) != archiveFiles.size()
+                || !isWellFormed(index)) {
+            return false;
+        }
+        int stringsOffset = index.getInt(0x24);
+        for (int i = 0; i < archiveFiles.size(); ++i) {
+            Path file = archiveFiles.get(i);
+            int rec = HEADER_SIZE + i * ARCHIVE_SIZE;
+            String name = getString(index, stringsOffset, index.getInt(rec), index.getInt(rec + 4));
+            if (!name.equals(file.getFileName().toString())
+                    || index.getLong(rec + 8) != Files.size(file)
+                    || index.getLong(rec + 16) != Files.getLastModifiedTime(file).toMillis()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the tables fit in the index and that every string, archive, type and entry number
+     * they hold is in range, so a truncated or corrupt index is rebuilt rather than read past its end.
+     */
+    private static boolean isWellFormed(ByteBuffer index)
+    {
+        int numArchives = index.getInt(0x0C);
+        int numTypes = index.getInt(0x10);
+        int numEntries = index.getInt(0x14);
+        int numSlots = index.getInt(0x18);
+        int entriesOffset = index.getInt(0x1C);
+        int slotsOffset = index.getInt(0x20);
+        int stringsOffset = index.getInt(0x24);
+        if (numArchives < 0 || numTypes < 0 || numEntries < 0 || numSlots <= numEntries
+                || Integer.bitCount(numSlots) != 1
+                || entriesOffset != HEADER_SIZE + (long) numArchives * ARCHIVE_SIZE + (long) numTypes * TYPE_SIZE
+                || slotsOffset != entriesOffset + (long) numEntries * ENTRY_SIZE
+                || stringsOffset != slotsOffset + (long) numSlots * 4
+                || stringsOffset > index.limit()) {
+            return false;
+        }
+        int stringsLength = index.limit() - stringsOffset;
+        for (int i = 0; i < numArchives; ++i) {
+            int rec = HEADER_SIZE + i * ARCHIVE_SIZE;
+            if (!isInRange(index.getInt(rec), index.getInt(rec + 4), stringsLength)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < numTypes; ++i) {
+            int rec = HEADER_SIZE + numArchives * ARCHIVE_SIZE + i * TYPE_SIZE;
+            if (!isInRange(index.getInt(rec), index.getInt(rec + 4), stringsLength)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < numEntries; ++i) {
+            int rec = entriesOffset + i * ENTRY_SIZE;
+            int archive = index.getInt(rec + 12);
+            int type = index.getInt(rec + 28);
+            if (!isInRange(index.getInt(rec), index.getInt(rec + 4), stringsLength)
+                    || archive < 0 || archive >= numArchives || type < 0 || type >= numTypes
+                    || index.getLong(rec + 16) < 0 || index.getInt(rec + 24) < 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < numSlots; ++i) {
+            int entryNo = index.getInt(slotsOffset + i * 4);
+            if (entryNo < 0 || entryNo > numEntries) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInRange(int offset, int length, int size)
+    {
+        return offset >= 0 && length >= 0 && (long) offset + length <= size;
+    }
+
+    private static ByteBuffer build(Path gameDataPath, GameType gameType, List<Path> archiveFiles) throws IOException
+    {
+        Logger.info("Building archive index for {}", gameDataPath);
+        List<String> paths;
+        List<AssetFileSystem.Location> locations;
+        try (var fs = new AssetFileSystem(gameDataPath, gameType)) {
+            paths = new ArrayList<>();
+            for (var archiveName : fs.getArchiveNames()) {
+                try {
+                    paths.addAll(fs.list(archiveName));
+                } catch (IOException e) {
+                    // Leave the archive out rather than failing the whole index
+                    Logger.warn(e, "Failed to index {}", fs.getArchivePath(archiveName));
+                }
+            }
+            locations = new ArrayList<>(paths.size());
+            for (var path : paths) {
+                locations.add(fs.locate(path));
+            }
+        }
+
+        Map<String, Integer> archiveNumbers = new HashMap<>();
+        for (var file : archiveFiles) {
+            archiveNumbers.put(file.getFileName().toString(), archiveNumbers.size());
+        }
+
+        Map<String, Integer> typeNumbers = new LinkedHashMap<>();
+        for (var path : paths) {
+            typeNumbers.putIfAbsent(getType(path), typeNumbers.size());
+        }
+
+        var strings = new StringPool();
+        int numSlots = 16;
+        while (numSlots < paths.size() * 2) {
+            numSlots <<= 1;
+        }
+        int entriesOffset = HEADER_SIZE + archiveFiles.size() * ARCHIVE_SIZE + typeNumbers.size() * TYPE_SIZE;
+        int slotsOffset = entriesOffset + paths.size() * ENTRY_SIZE;
+        int stringsOffset = slotsOffset + numSlots * 4;
+
+        // The strings are added first so the size of the index is known up front.
+        int[] archiveNameOffsets = new int[archiveFiles.size()];
+        for (int i = 0; i < archiveFiles.size(); ++i) {
+            archiveNameOffsets[i] = strings.add(archiveFiles.get(i).getFileName().toString());
+        }
+        int[] typeNameOffsets = new int[typeNumbers.size()];
+        for (var type : typeNumbers.entrySet()) {
+            typeNameOffsets[type.getValue()] = strings.add(type.getKey());
+        }
+        int[] pathOffsets = new int[paths.size()];
+        for (int i = 0; i < paths.size(); ++i) {
+            pathOffsets[i] = strings.add(paths.get(i));
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(stringsOffset + strings.size()).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(0, MAGIC);
+        index.putInt(4, FORMAT_VERSION);
+        index.putInt(8, gameType.ordinal());
+        index.putInt(0x0C, archiveFiles.size());
+        index.putInt(0x10, typeNumbers.size());
+        index.putInt(0x14, paths.size());
+        index.putInt(0x18, numSlots);
+        index.putInt(0x1C, entriesOffset);
+        index.putInt(0x20, slotsOffset);
+        index.putInt(0x24, stringsOffset);
+
+        for (int i = 0; i < archiveFiles.size(); ++i) {
+            Path file = archiveFiles.get(i);
+            int rec = HEADER_SIZE + i * ARCHIVE_SIZE;
+            index.putInt(rec, archiveNameOffsets[i]);
+            index.putInt(rec + 4, archiveFiles.get(i).getFileName().toString().length());
+            index.putLong(rec + 8, Files.size(file));
+            index.putLong(rec + 16, Files.getLastModifiedTime(file).toMillis());
+        }
+        for (var type : typeNumbers.entrySet()) {
+            int rec = HEADER_SIZE + archiveFiles.size() * ARCHIVE_SIZE + type.getValue() * TYPE_SIZE;
+            index.putInt(rec, typeNameOffsets[type.getValue()]);
+            index.putInt(rec + 4, type.getKey().length());
+        }
+
+        int slotMask = numSlots - 1;
+        for (int i = 0; i < paths.size(); ++i) {
+            var path = paths.get(i);
+            var location = locations.get(i);
+            int nameHash = hash(getName(path));
+            int rec = entriesOffset + i * ENTRY_SIZE;
+            index.putInt(rec, pathOffsets[i]);
+            index.putInt(rec + 4, path.length());
+            index.putInt(rec + 8, nameHash);
+            index.putInt(rec + 12, archiveNumbers.get(location.file().getFileName().toString()));
+            index.putLong(rec + 16, location.offset());
+            index.putInt(rec + 24, location.length());
+            index.putInt(rec + 28, typeNumbers.get(getType(path)));
+
+            int slot = nameHash & slotMask;
+            while (index.getInt(slotsOffset + slot * 4) != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            index.putInt(slotsOffset + slot * 4, i + 1);
+        }
+
+        index.put(stringsOffset, strings.bytes(), 0, strings.size());
+        return index;
+    }
+
+    public int size()
+    {
+        return numEntries;
+    }
+
+    /**
+     * @return The entry with the given full path, or null if there isn't one.
+     */
+    public Entry find(String path)
+    {
+        int nameHash = hash(getName(path));
+        int slot = nameHash & slotMask;
+        int entryNo;
+        while ((entryNo = index.getInt(slotsOffset + slot * 4)) != 0) {
+            int rec = entriesOffset + (entryNo - 1) * ENTRY_SIZE;
+            if (index.getInt(rec + 8) == nameHash && stringEquals(index.getInt(rec), index.getInt(rec + 4), path)) {
+                return getEntry(entryNo - 1);
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return null;
+    }
+
+    /**
+     * @return All the entries with the given file name, e.g. chest_large.vif, in any archive.
+     */
+    public List<Entry> findByName(String name)
+    {
+        List<Entry> entries = new ArrayList<>();
+        int nameHash = hash(name);
+        int slot = nameHash & slotMask;
+        int entryNo;
+        while ((entryNo = index.getInt(slotsOffset + slot * 4)) != 0) {
+            int rec = entriesOffset + (entryNo - 1) * ENTRY_SIZE;
+            if (index.getInt(rec + 8) == nameHash) {
+                Entry entry = getEntry(entryNo - 1);
+                if (getName(entry.path).equals(name)) {
+                    entries.add(entry);
+                }
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return entries;
+    }
+
+    /**
+     * @return The entries in archive order.
+     */
+    public List<Entry> getEntries()
+    {
+        List<Entry> entries = new ArrayList<>(numEntries);
+        for (int i = 0; i < numEntries; ++i) {
+            entries.add(getEntry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a read-only little endian view of an entry. The containing archive is mapped but not parsed.
+     *
+     * @throws NoSuchFileException if there is no such entry.
+     */
+    public ByteBuffer read(String path) throws IOException
+    {
+        Entry entry = find(path);
+        if (entry == null) {
+            throw new NoSuchFileException(path);
+        }
+        return read(entry);
+    }
+
+    public ByteBuffer read(Entry entry) throws IOException
+    {
+        ByteBuffer data = getArchiveData(entry.archive);
+        if (data == null) {
+            try (FileChannel channel = FileChannel.open(gameDataPath.resolve(entry.container), READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return data.slice((int) entry.offset, entry.length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return The whole archive mapped, or null if it is too large to map in one go.
+     */
+    private synchronized ByteBuffer getArchiveData(int archive) throws IOException
+    {
+        if (archiveData[archive] == null) {
+            Path archivePath = gameDataPath.resolve(archiveNames[archive]);
+            if (Files.size(archivePath) > Integer.MAX_VALUE) {
+                return null;
+            }
+            archiveData[archive] = Lmp.map(archivePath);
+        }
+        return archiveData[archive];
+    }
+
+    private Entry getEntry(int entryNo)
+    {
+        int rec = entriesOffset + entryNo * ENTRY_SIZE;
+        int archive = index.getInt(rec + 12);
+        return new Entry(getString(index.getInt(rec), index.getInt(rec + 4)), archiveNames[archive],
+                index.getLong(rec + 16), index.getInt(rec + 24), typeNames[index.getInt(rec + 28)],
+                index.getInt(rec + 8), archive);
+    }
+
+    private String getString(int offset, int length)
+    {
+        return getString(index, stringsOffset, offset, length);
+    }
+
+    private static String getString(ByteBuffer index, int stringsOffset, int offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        index.get(stringsOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean stringEquals(int offset, int length, String s)
+    {
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if ((index.get(stringsOffset + offset + i) & 0xFF) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getName(String path)
+    {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getType(String path)
+    {
+        String name = getName(path);
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // String.hashCode is specified so it is stable between runs.
+    private static int hash(String name)
+    {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static class StringPool
+    {
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        int add(String s)
+        {
+            byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+            if (size + b.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + b.length));
+            }
+            System.arraycopy(b, 0, bytes, size, b.length);
+            int offset = size;
+            size += b.length;
+            return offset;
+        }
+
+        byte[] bytes()
+        {
+            return bytes;
+        }
+
+        int size()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A read-only view of the GOB, LMP and HDR/DAT archives in a game data directory.
+ * <p>
+ * Paths mirror the layout that ExtractFiles writes to the _EXTRACTED directory, for example
+ * <code>CHEST_LMP/chest_large.vif</code>, <code>CUTTOWN_GOB/CUTTOWN_LMP/town.world</code> or
+ * <code>EQCACHE_HDR/name/name-el_0-id_1.tex</code>. An archive is only indexed when a path inside
+ * it is first accessed. LMP and GOB entries are served as slices of the mapped archive and HDR/DAT
+ * elements are read through {@link HdrDatArchive}. Each lmp in a GOB is mapped separately, so GOBs
+ * larger than a single mapping are fine.
+ */
+public class AssetFileSystem implements Closeable
+{
+    private final GameType gameType;
+
+    // Archive directory name to archive path
+    private final Map<String, Path> archives = new TreeMap<>();
+
+    private final Map<String, Container> containers = new HashMap<>();
+
+    public AssetFileSystem(Path gameDataPath, GameType gameType) throws IOException
+    {
+        this.gameType = gameType;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(gameDataPath, "*.{GOB,LMP,HDR}")) {
+            for (Path archivePath : stream) {
+                archives.put(getArchiveDirName(archivePath), archivePath);
+            }
+        }
+    }
+
+    /**
+     * @return The directory name that an archive is extracted to, e.g. CHEST_LMP for CHEST.LMP.
+     */
+    public static String getArchiveDirName(Path archivePath)
+    {
+        return archivePath.getFileName().toString().replace('.', '_');
+    }
+
+    public Set<String> getArchiveNames()
+    {
+        return Collections.unmodifiableSet(archives.keySet());
+    }
+
+    public Path getArchivePath(String archiveName)
+    {
+        return archives.get(archiveName);
+    }
+
+    /**
+     * Lists the full paths of all the entries in an archive.
+     */
+    public List<String> list(String archiveName) throws IOException
+    {
+        List<String> paths = new ArrayList<>();
+        for (var entryName : getContainer(archiveName).getEntryNames()) {
+            paths.add(archiveName + "/" + entryName);
+        }
+        return paths;
+    }
+
+    /**
+     * Lists the full paths of the entries in every archive. This indexes all the archives.
+     */
+    public List<String> list() throws IOException
+    {
+        List<String> paths = new ArrayList<>();
+        for (var archiveName : archives.keySet()) {
+            paths.addAll(list(archiveName));
+        }
+        return paths;
+    }
+
+    public boolean exists(String path) throws IOException
+    {
+        int sep = path.indexOf('/');
+        if (sep < 0 || !archives.containsKey(path.substring(0, sep))) {
+            return false;
+        }
+        return getContainer(path.substring(0, sep)).contains(path.substring(sep + 1));
+    }
+
+    /**
+     * Returns a read-only little endian view of an entry. No data is copied for LMP and GOB entries.
+     *
+     * @throws NoSuchFileException if there is no such entry.
+     */
+    public ByteBuffer read(String path) throws IOException
+    {
+        int sep = path.indexOf('/');
+        if (sep < 0 || !archives.containsKey(path.substring(0, sep))) {
+            throw new NoSuchFileException(path);
+        }
+        ByteBuffer data = getContainer(path.substring(0, sep)).read(path.substring(sep + 1));
+        if (data == null) {
+            throw new NoSuchFileException(path);
+        }
+        return data;
+    }
+
+    /**
+     * Where the bytes of an entry are stored on disk.
+     *
+     * @param file The file holding the data, for HDR archives this is the DAT file.
+     * @param offset The offset of the entry from the start of the file.
+     * @param length The length of the entry.
+     */
+    public record Location(Path file, long offset, int length)
+    {
+    }
+
+    /**
+     * @return The location of an entry.
+     * @throws NoSuchFileException if there is no such entry.
+     */
+    public Location locate(String path) throws IOException
+    {
+        int sep = path.indexOf('/');
+        if (sep < 0 || !archives.containsKey(path.substring(0, sep))) {
+            throw new NoSuchFileException(path);
+        }
+        Location location = getContainer(path.substring(0, sep)).locate(path.substring(sep + 1));
+        if (location == null) {
+            throw new NoSuchFileException(path);
+        }
+        return location;
+    }
+
+    /**
+     * Closes the DAT files of any HDR/DAT archives that have been opened.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (var container : containers.values()) {
+            container.close();
+        }
+        containers.clear();
+    }
+
+    private synchronized Container getContainer(String archiveName) throws IOException
+    {
+        Container container = containers.get(archiveName);
+        if (container == null) {
+            Path archivePath = archives.get(archiveName);
+            if (archivePath == null) {
+                throw new NoSuchFileException(archiveName);
+            }
+            var filename = archivePath.getFileName().toString();
+            if (filename.endsWith(".GOB")) {
+                container = new GobContainer(archivePath, gameType);
+            } else if (filename.endsWith(".LMP")) {
+                container = new LmpContainer(archivePath, gameType);
+            } else {
+                container = new HdrDatContainer(archivePath);
+            }
+            containers.put(archiveName, container);
+        }
+        return container;
+    }
+
+    private interface Container extends Closeable
+    {
+        Collection<String> getEntryNames();
+
+        boolean contains(String entryName);
+
+        /**
+         * @return The entry data or null if there is no such entry.
+         */
+        ByteBuffer read(String entryName) throws IOException;
+
+        /**
+         * @return The location of the entry or null if there is no such entry.
+         */
+        Location locate(String entryName);
+
+        @Override
+        default void close() throws IOException
+        {
+        }
+    }
+
+    private static class LmpContainer implements Container
+    {
+        private final Path lmpPath;
+        private final Lmp lmp;
+
+        LmpContainer(Path lmpPath, GameType gameType) throws IOException
+        {
+            this.lmpPath = lmpPath;
+            lmp = new Lmp(gameType);
+            lmp.readLmpFile(lmpPath);
+        }
+
+        @Override
+        public Collection<String> getEntryNames()
+        {
+            List<String> names = new ArrayList<>();
+            for (var entry : lmp.getEntries()) {
+                names.add(entry.name);
+            }
+            return names;
+        }
+
+        @Override
+        public boolean contains(String entryName)
+        {
+            return lmp.findEntry(entryName) != null;
+        }
+
+        @Override
+        public ByteBuffer read(String entryName) throws IOException
+        {
+            var entry = lmp.findEntry(entryName);
+            return entry == null ? null : entry.getData();
+        }
+
+        @Override
+        public Location locate(String entryName)
+        {
+            var entry = lmp.findEntry(entryName);
+            return entry == null ? null : new Location(lmpPath, entry.offset, entry.length);
+        }
+    }
+
+    private static class GobContainer implements Container
+    {
+        private final Path gobPath;
+
+        // Lmp directory name to lmp
+        private final Map<String, Lmp> lmps = new LinkedHashMap<>();
+
+        // Lmp directory name to the offset of the lmp in the GOB
+        private final Map<String, Long> lmpOffsets = new HashMap<>();
+
+        GobContainer(Path gobPath, GameType gameType) throws IOException
+        {
+            this.gobPath = gobPath;
+            try (FileChannel channel = FileChannel.open(gobPath, READ)) {
+                var gobEntries = GobExtractor.readLmpTable(channel);
+                long gobSize = channel.size();
+
+                // An lmp runs to the start of the next one or the end of the GOB. The mappings remain
+                // valid after the channel is closed.
+                var starts = new TreeSet<Long>();
+                for (var gobEntry : gobEntries) {
+                    starts.add(gobEntry.lmpOffset());
+                }
+                for (var gobEntry : gobEntries) {
+                    long start = gobEntry.lmpOffset();
+                    Long next = starts.higher(start);
+                    long size = Math.min((next == null ? gobSize : next) - start, Integer.MAX_VALUE);
+                    var lmp = new Lmp(gameType);
+                    lmp.readLmp(channel.map(FileChannel.MapMode.READ_ONLY, start, size));
+                    var lmpDirName = gobEntry.name().replace('.', '_');
+                    lmps.put(lmpDirName, lmp);
+                    lmpOffsets.put(lmpDirName, start);
+                }
+            }
+        }
+
+        @Override
+        public Collection<String> getEntryNames()
+        {
+            List<String> names = new ArrayList<>();
+            for (var lmp : lmps.entrySet()) {
+                for (var entry : lmp.getValue().getEntries()) {
+                    names.add(lmp.getKey() + "/" + entry.name);
+                }
+            }
+            return names;
+        }
+
+        @Override
+        public boolean contains(String entryName)
+        {
+            return findEntry(entryName) != null;
+        }
+
+        @Override
+        public ByteBuffer read(String entryName) throws IOException
+        {
+            var entry = findEntry(entryName);
+            return entry == null ? null : entry.getData();
+        }
+
+        // Finds an entry from its path in the GOB, e.g. CUTTOWN_LMP/town.world
+        private Lmp.Entry findEntry(String entryName)
+        {
+            int sep = entryName.indexOf('/');
+            if (sep < 0) {
+                return null;
+            }
+            var lmp = lmps.get(entryName.substring(0, sep));
+            return lmp == null ? null : lmp.findEntry(entryName.substring(sep + 1));
+        }
+
+        @Override
+        public Location locate(String entryName)
+        {
+            int sep = entryName.indexOf('/');
+            if (sep < 0) {
+                return null;
+            }
+            var lmpName = entryName.substring(0, sep);
+            var lmp = lmps.get(lmpName);
+            if (lmp == null) {
+                return null;
+            }
+            var entry = lmp.findEntry(entryName.substring(sep + 1));
+            return entry == null ? null : new Location(gobPath, lmpOffsets.get(lmpName) + entry.offset, entry.length);
+        }
+    }
+
+    private static class HdrDatContainer implements Container
+    {
+        private final HdrDatArchive archive;
+
+        // Element path to the element
+        private final Map<String, HdrDatArchive.HeaderElement> elements = new LinkedHashMap<>();
+
+        HdrDatContainer(Path hdrPath) throws IOException
+        {
+            archive = new HdrDatArchive(hdrPath);
+            for (var entry : archive.getEntries()) {
+                for (int el = 0; el < entry.headerElements.length; ++el) {
+                    var elementPath = entry.name + "/" + archive.getElementFilename(entry, el);
+                    elements.put(elementPath, entry.headerElements[el]);
+                }
+            }
+        }
+
+        @Override
+        public Collection<String> getEntryNames()
+        {
+            return Collections.unmodifiableSet(elements.keySet());
+        }
+
+        @Override
+        public boolean contains(String entryName)
+        {
+            return elements.containsKey(entryName);
+        }
+
+        @Override
+        public ByteBuffer read(String entryName) throws IOException
+        {
+            var element = elements.get(entryName);
+            return element == null ? null : archive.read(element);
+        }
+
+        @Override
+        public Location locate(String entryName)
+        {
+            var element = elements.get(entryName);
+            return element == null ? null : new Location(archive.getDatPath(), element.startPosBytes, element.lenBytes);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            archive.close();
+        }
+    }
+}
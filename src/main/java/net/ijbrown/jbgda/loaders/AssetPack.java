@@ -0,0 +1,436 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import org.joml.Matrix4f;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A file of decoded assets laid out so that it can be memory mapped and used directly.
+ * <p>
+ * Textures, meshes and animation clips are stored in the form the renderer uploads them, each starting
+ * on a page boundary. Loading an asset is a lookup in the record table followed by a copy from the
+ * mapped file into a staging buffer, with no decoding.
+ * <pre>
+ * Header
+ *   0x00 magic 'JBPK'
+ *   0x04 format version
+ *   0x08 number of records
+ *   0x0C page size
+ *   0x10 records (0x60 bytes each)
+ * Record
+ *   0x00 name, nul terminated (0x40 bytes)
+ *   0x40 kind
+ *   0x44 width, number of vertices or number of joints
+ *   0x48 height, number of indices or number of frames
+ *   0x4C number of palette entries, material index or duration (float bits)
+ *   0x50 offset of the data (long)
+ *   0x58 length of the data (long)
+ * </pre>
+ * Data is little endian. RGBA textures are 4 bytes per pixel. Indexed textures are one byte per pixel
+ * followed by the RGBA palette. Meshes are interleaved vertices of position, normal, tangent, bitangent
+ * (3 floats each) and uv (2 floats) followed by int indices. Animations are the joint local 4x4 column
+ * major matrices of each joint, frame by frame, followed by the time of each frame.
+ */
+public class AssetPack
+{
+    public static final int PAGE_SIZE = 4096;
+
+    /** Floats per vertex in the interleaved vertex data. */
+    public static final int VERTEX_FLOATS = 14;
+
+    private static final int MAGIC = 0x4B50424A;    // JBPK
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int HEADER_SIZE = 0x10;
+    private static final int RECORD_SIZE = 0x60;
+    private static final int NAME_SIZE = 0x40;
+
+    public enum Kind
+    {
+        TEXTURE_RGBA, TEXTURE_INDEXED, MESH, ANIMATION
+    }
+
+    public static class Record
+    {
+        public final String name;
+        public final Kind kind;
+        public final int param0;
+        public final int param1;
+        public final int param2;
+        public final long offset;
+        public final long length;
+
+        Record(String name, Kind kind, int param0, int param1, int param2, long offset, long length)
+        {
+            this.name = name;
+            this.kind = kind;
+            this.param0 = param0;
+            this.param1 = param1;
+            this.param2 = param2;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getWidth()
+        {
+            return param0;
+        }
+
+        public int getHeight()
+        {
+            return param1;
+        }
+
+        public int getNumVertices()
+        {
+            return param0;
+        }
+
+        public int getNumIndices()
+        {
+            return param1;
+        }
+
+        public int getMaterialIdx()
+        {
+            return param2;
+        }
+
+        public int getNumPaletteEntries()
+        {
+            return param2;
+        }
+
+        public int getNumJoints()
+        {
+            return param0;
+        }
+
+        public int getNumFrames()
+        {
+            return param1;
+        }
+
+        public float getDuration()
+        {
+            return Float.intBitsToFloat(param2);
+        }
+    }
+
+    private final ByteBuffer packData;
+    private final Map<String, Record> records = new LinkedHashMap<>();
+
+    private AssetPack(ByteBuffer packData) throws IOException
+    {
+        this.packData = packData;
+        if (packData.limit() < HEADER_SIZE || packData.getInt(0) != MAGIC || packData.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not an asset pack");
+        }
+        int numRecords = packData.getInt(8);
+        for (int i = 0; i < numRecords; ++i) {
+            int rec = HEADER_SIZE + i * RECORD_SIZE;
+            var name = DataUtil.collectString(packData, rec);
+            var record = new Record(name, Kind.values()[packData.getInt(rec + 0x40)],
+                    packData.getInt(rec + 0x44), packData.getInt(rec + 0x48), packData.getInt(rec + 0x4C),
+                    packData.getLong(rec + 0x50), packData.getLong(rec + 0x58));
+            records.put(name, record);
+        }
+    }
+
+    /**
+     * @return true if the pack exists, is in the current format and is no older than any of the files it
+     *         was built from.
+     */
+    public static boolean isUpToDate(Path path, Path... sources) throws IOException
+    {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        byte[] header;
+        try (var in = Files.newInputStream(path)) {
+            header = in.readNBytes(8);
+        }
+        if (header.length < 8 || DataUtil.getLEInt(header, 0) != MAGIC || DataUtil.getLEInt(header, 4) != FORMAT_VERSION) {
+            return false;
+        }
+        var packTime = Files.getLastModifiedTime(path);
+        for (var source : sources) {
+            if (packTime.compareTo(Files.getLastModifiedTime(source)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps a pack file. The mapping stays valid until the pack is no longer referenced.
+     */
+    public static AssetPack open(Path path) throws IOException
+    {
+        return new AssetPack(Lmp.map(path));
+    }
+
+    public Record find(String name)
+    {
+        return records.get(name);
+    }
+
+    public Collection<Record> getRecords()
+    {
+        return Collections.unmodifiableCollection(records.values());
+    }
+
+    /**
+     * @return A read-only little endian view of the mapped data of a record.
+     */
+    public ByteBuffer getData(Record record)
+    {
+        return slice(record.offset, record.length);
+    }
+
+    /**
+     * @return The interleaved vertex data of a mesh.
+     */
+    public ByteBuffer getVertices(Record record)
+    {
+        return slice(record.offset, (long) record.getNumVertices() * VERTEX_FLOATS * 4);
+    }
+
+    public ByteBuffer getIndices(Record record)
+    {
+        long vertexBytes = (long) record.getNumVertices() * VERTEX_FLOATS * 4;
+        return slice(record.offset + vertexBytes, (long) record.getNumIndices() * 4);
+    }
+
+    /**
+     * @return The palette indices of an indexed texture, one byte per pixel.
+     */
+    public ByteBuffer getPixels(Record record)
+    {
+        return slice(record.offset, (long) record.getWidth() * record.getHeight());
+    }
+
+    /**
+     * @return The RGBA palette of an indexed texture.
+     */
+    public ByteBuffer getPalette(Record record)
+    {
+        long pixelBytes = (long) record.getWidth() * record.getHeight();
+        return slice(record.offset + pixelBytes, (long) record.getNumPaletteEntries() * 4);
+    }
+
+    /**
+     * @return The joint matrices of one frame of an animation.
+     */
+    public ByteBuffer getFrame(Record record, int frame)
+    {
+        long frameBytes = (long) record.getNumJoints() * 64;
+        return slice(record.offset + frame * frameBytes, frameBytes);
+    }
+
+    /**
+     * @return The time of each frame of an animation as floats.
+     */
+    public ByteBuffer getFrameTimes(Record record)
+    {
+        long framesBytes = (long) record.getNumFrames() * record.getNumJoints() * 64;
+        return slice(record.offset + framesBytes, (long) record.getNumFrames() * 4);
+    }
+
+    private ByteBuffer slice(long offset, long length)
+    {
+        return packData.slice(Math.toIntExact(offset), Math.toIntExact(length)).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Collects assets and writes them as a pack.
+     */
+    public static class Writer
+    {
+        private final List<Record> records = new ArrayList<>();
+        private final List<ByteBuffer> blobs = new ArrayList<>();
+
+        public void addTextureRgba(String name, int width, int height, ByteBuffer rgba)
+        {
+            add(name, Kind.TEXTURE_RGBA, width, height, 0, copy(rgba));
+        }
+
+        public void addTextureIndexed(String name, int width, int height, ByteBuffer indices, ByteBuffer rgbaPalette)
+        {
+            if (indices.remaining() != width * height) {
+                throw new IllegalArgumentException("Expected " + width * height + " pixels for " + name);
+            }
+            ByteBuffer data = allocate(indices.remaining() + rgbaPalette.remaining());
+            data.put(indices.duplicate()).put(rgbaPalette.duplicate()).flip();
+            add(name, Kind.TEXTURE_INDEXED, width, height, rgbaPalette.remaining() / 4, data);
+        }
+
+        /**
+         * Adds a mesh, interleaving the vertex attributes in the layout that VulkanModel uploads.
+         * Missing texture coordinates are written as zero.
+         */
+        public void addMesh(String name, float[] positions, float[] normals, float[] tangents, float[] biTangents,
+                            float[] textCoords, int[] indices, int materialIdx)
+        {
+            int numVertices = positions.length / 3;
+            ByteBuffer data = allocate((numVertices * VERTEX_FLOATS + indices.length) * 4);
+            for (int v = 0; v < numVertices; ++v) {
+                int p = v * 3;
+                int t = v * 2;
+                data.putFloat(positions[p]).putFloat(positions[p + 1]).putFloat(positions[p + 2]);
+                data.putFloat(normals[p]).putFloat(normals[p + 1]).putFloat(normals[p + 2]);
+                data.putFloat(tangents[p]).putFloat(tangents[p + 1]).putFloat(tangents[p + 2]);
+                data.putFloat(biTangents[p]).putFloat(biTangents[p + 1]).putFloat(biTangents[p + 2]);
+                if (textCoords != null && t + 1 < textCoords.length) {
+                    data.putFloat(textCoords[t]).putFloat(textCoords[t + 1]);
+                } else {
+                    data.putFloat(0.0f).putFloat(0.0f);
+                }
+            }
+            for (int index : indices) {
+                data.putInt(index);
+            }
+            add(name, Kind.MESH, numVertices, indices.length, materialIdx, data.flip());
+        }
+
+        /**
+         * Adds an animation clip.
+         *
+         * @param frameTimes The time of each frame, the last being the duration of the clip.
+         * @param frames     For each frame, numJoints column major 4x4 matrices.
+         */
+        public void addAnimation(String name, int numJoints, float[] frameTimes, List<float[]> frames)
+        {
+            if (frameTimes.length != frames.size()) {
+                throw new IllegalArgumentException("Expected a time for each frame of " + name);
+            }
+            ByteBuffer data = allocate(frames.size() * (numJoints * 64 + 4));
+            for (float[] frame : frames) {
+                for (int i = 0; i < numJoints * 16; ++i) {
+                    data.putFloat(frame[i]);
+                }
+            }
+            for (float time : frameTimes) {
+                data.putFloat(time);
+            }
+            float duration = frameTimes.length == 0 ? 0.0f : frameTimes[frameTimes.length - 1];
+            add(name, Kind.ANIMATION, numJoints, frames.size(), Float.floatToIntBits(duration), data.flip());
+        }
+
+        /**
+         * Adds the key frames of a decoded animation, each joint's position and rotation relative to its
+         * parent becoming one matrix.
+         */
+        public void addAnimation(AnmData anm)
+        {
+            float[] frameTimes = new float[anm.keyFrames.size()];
+            List<float[]> frames = new ArrayList<>(anm.keyFrames.size());
+            var matrix = new Matrix4f();
+            for (int f = 0; f < frameTimes.length; ++f) {
+                var keyFrame = anm.keyFrames.get(f);
+                frameTimes[f] = keyFrame.timestamp;
+                float[] frame = new float[anm.numJoints * 16];
+                for (int joint = 0; joint < anm.numJoints; ++joint) {
+                    var pos = keyFrame.jointPositions.get(joint);
+                    matrix.translationRotate(pos.x, pos.y, pos.z, keyFrame.jointRotations.get(joint)).get(frame, joint * 16);
+                }
+                frames.add(frame);
+            }
+            addAnimation(anm.name, anm.numJoints, frameTimes, frames);
+        }
+
+        private void add(String name, Kind kind, int param0, int param1, int param2, ByteBuffer data)
+        {
+            if (name.getBytes(StandardCharsets.ISO_8859_1).length >= NAME_SIZE) {
+                throw new IllegalArgumentException("Asset name too long: " + name);
+            }
+            records.add(new Record(name, kind, param0, param1, param2, 0, data.remaining()));
+            blobs.add(data);
+        }
+
+        private static ByteBuffer allocate(int size)
+        {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static ByteBuffer copy(ByteBuffer data)
+        {
+            return allocate(data.remaining()).put(data.duplicate()).flip();
+        }
+
+        private static long alignToPage(long offset)
+        {
+            return (offset + PAGE_SIZE - 1) & -PAGE_SIZE;
+        }
+
+        public void write(Path path) throws IOException
+        {
+            ByteBuffer header = allocate(HEADER_SIZE + records.size() * RECORD_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putInt(8, records.size());
+            header.putInt(0x0C, PAGE_SIZE);
+
+            long offset = alignToPage(header.capacity());
+            long[] offsets = new long[records.size()];
+            for (int i = 0; i < records.size(); ++i) {
+                var record = records.get(i);
+                offsets[i] = offset;
+                int rec = HEADER_SIZE + i * RECORD_SIZE;
+                header.put(rec, record.name.getBytes(StandardCharsets.ISO_8859_1));
+                header.putInt(rec + 0x40, record.kind.ordinal());
+                header.putInt(rec + 0x44, record.param0);
+                header.putInt(rec + 0x48, record.param1);
+                header.putInt(rec + 0x4C, record.param2);
+                header.putLong(rec + 0x50, offset);
+                header.putLong(rec + 0x58, record.length);
+                offset = alignToPage(offset + record.length);
+            }
+
+            Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmpPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                writeFully(channel, header, 0);
+                for (int i = 0; i < blobs.size(); ++i) {
+                    writeFully(channel, blobs.get(i).duplicate(), offsets[i]);
+                }
+                // Pad the last page so that every blob lies within whole pages.
+                if (channel.size() < offset) {
+                    writeFully(channel, ByteBuffer.allocate(1), offset - 1);
+                }
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException
+        {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads little endian values from a byte array, either at a given offset or from a cursor that moves
+ * past what was read.
+ * <p>
+ * Single values are read with a VarHandle view of the array, which compiles to one load rather than
+ * assembling the value a byte at a time. Blocks of values such as vertices, uvs and palettes are copied
+ * in bulk.
+ */
+public class BinaryReader
+{
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] data;
+    private int position;
+
+    public BinaryReader(byte[] data, int position)
+    {
+        this.data = data;
+        this.position = position;
+    }
+
+    public static short getShort(byte[] data, int offset)
+    {
+        return (short) SHORT.get(data, offset);
+    }
+
+    public static int getUShort(byte[] data, int offset)
+    {
+        return (short) SHORT.get(data, offset) & 0xFFFF;
+    }
+
+    public static int getInt(byte[] data, int offset)
+    {
+        return (int) INT.get(data, offset);
+    }
+
+    public static long getLong(byte[] data, int offset)
+    {
+        return (long) LONG.get(data, offset);
+    }
+
+    public static float getFloat(byte[] data, int offset)
+    {
+        return (float) FLOAT.get(data, offset);
+    }
+
+    public byte[] getData()
+    {
+        return data;
+    }
+
+    public int getPosition()
+    {
+        return position;
+    }
+
+    public BinaryReader setPosition(int position)
+    {
+        this.position = position;
+        return this;
+    }
+
+    public BinaryReader skip(int numBytes)
+    {
+        position += numBytes;
+        return this;
+    }
+
+    /**
+     * Moves the cursor forward to the next multiple of alignment, which must be a power of 2.
+     */
+    public BinaryReader align(int alignment)
+    {
+        position = (position + alignment - 1) & -alignment;
+        return this;
+    }
+
+    public byte readByte()
+    {
+        return data[position++];
+    }
+
+    public int readUByte()
+    {
+        return data[position++] & 0xFF;
+    }
+
+    public short readShort()
+    {
+        short val = getShort(data, position);
+        position += 2;
+        return val;
+    }
+
+    public int readUShort()
+    {
+        int val = getUShort(data, position);
+        position += 2;
+        return val;
+    }
+
+    public int readInt()
+    {
+        int val = getInt(data, position);
+        position += 4;
+        return val;
+    }
+
+    public long readLong()
+    {
+        long val = getLong(data, position);
+        position += 8;
+        return val;
+    }
+
+    public float readFloat()
+    {
+        float val = getFloat(data, position);
+        position += 4;
+        return val;
+    }
+
+    public void readBytes(byte[] dst, int offset, int length)
+    {
+        System.arraycopy(data, position, dst, offset, length);
+        position += length;
+    }
+
+    public void readShorts(short[] dst, int offset, int length)
+    {
+        view(length * 2).asShortBuffer().get(dst, offset, length);
+        position += length * 2;
+    }
+
+    /**
+     * Reads unsigned shorts, widening them to ints.
+     */
+    public void readUShorts(int[] dst, int offset, int length)
+    {
+        for (int i = 0; i < length; ++i) {
+            dst[offset + i] = getUShort(data, position + i * 2);
+        }
+        position += length * 2;
+    }
+
+    public void readInts(int[] dst, int offset, int length)
+    {
+        view(length * 4).asIntBuffer().get(dst, offset, length);
+        position += length * 4;
+    }
+
+    public void readFloats(float[] dst, int offset, int length)
+    {
+        view(length * 4).asFloatBuffer().get(dst, offset, length);
+        position += length * 4;
+    }
+
+    private ByteBuffer view(int numBytes)
+    {
+        return ByteBuffer.wrap(data, position, numBytes).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,150 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+/**
+ * Reads a stream of bits, most significant bit first.
+ * <p>
+ * The stream is read 16 bits at a time into a 64 bit accumulator, so most reads are a shift of the
+ * accumulator. Bits past the end of the data read as zero.
+ */
+public class BitReader
+{
+    public enum Order
+    {
+        /** Bytes in order, the top bit of each byte first. */
+        MSB_FIRST,
+
+        /**
+         * Little endian 16 bit words, the top bit of each word first. This is how the RTA animation
+         * and level texture streams are stored, and what DataUtil.getBits reads.
+         */
+        WORD_SWAPPED
+    }
+
+    private final byte[] data;
+    private final int startOffset;
+    private final Order order;
+
+    // Offset of the next byte to load into the accumulator
+    private int pos;
+
+    // The next bits of the stream, left aligned
+    private long acc;
+    private int numBits;
+
+    /**
+     * @param startOffset The byte offset of bit 0 of the stream. For WORD_SWAPPED streams words are
+     *                    counted from here.
+     */
+    public BitReader(byte[] data, int startOffset, Order order)
+    {
+        this.data = data;
+        this.startOffset = startOffset;
+        this.order = order;
+        this.pos = startOffset;
+        refill();
+    }
+
+    /**
+     * Reads an unsigned value of up to 32 bits.
+     */
+    public int readBits(int n)
+    {
+        int val = peekBits(n);
+        consume(n);
+        return val;
+    }
+
+    /**
+     * Reads a two's complement value of up to 32 bits.
+     */
+    public int readSignedBits(int n)
+    {
+        if (n == 0) {
+            return 0;
+        }
+        if (numBits < n) {
+            refill();
+        }
+        int val = (int) (acc >> (64 - n));
+        consume(n);
+        return val;
+    }
+
+    /**
+     * @return The next n bits, up to 32, as an unsigned value without moving past them.
+     */
+    public int peekBits(int n)
+    {
+        if (n == 0) {
+            return 0;
+        }
+        if (numBits < n) {
+            refill();
+        }
+        return (int) (acc >>> (64 - n));
+    }
+
+    public void skip(int n)
+    {
+        if (n <= numBits) {
+            consume(n);
+        } else {
+            setBitPosition(getBitPosition() + n);
+        }
+    }
+
+    /**
+     * @return The number of bits read since the start of the stream.
+     */
+    public int getBitPosition()
+    {
+        return (pos - startOffset) * 8 - numBits;
+    }
+
+    public void setBitPosition(int bitPos)
+    {
+        pos = startOffset + (bitPos >> 4) * 2;
+        acc = 0;
+        numBits = 0;
+        refill();
+        consume(bitPos & 0x0F);
+    }
+
+    private void consume(int n)
+    {
+        acc = n == 64 ? 0 : acc << n;
+        numBits -= n;
+    }
+
+    // Tops the accumulator up to at least 49 bits.
+    private void refill()
+    {
+        while (numBits <= 48) {
+            acc |= (long) nextWord() << (48 - numBits);
+            numBits += 16;
+            pos += 2;
+        }
+    }
+
+    private int nextWord()
+    {
+        int b0 = pos >= 0 && pos < data.length ? data[pos] & 0xFF : 0;
+        int b1 = pos + 1 >= 0 && pos + 1 < data.length ? data[pos + 1] & 0xFF : 0;
+        return order == Order.WORD_SWAPPED ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+}
@@ -15,6 +15,8 @@
 */
 package net.ijbrown.jbgda.loaders;
 
+import java.nio.ByteBuffer;
+
 /**
  * Utilities for reading binary data.
  */
@@ -32,19 +34,35 @@ public class DataUtil {
         return collectString(data, baseOffset + offset);
     }
 
+    /**
+     * Decodes the nul terminated Latin-1 string at an offset. Use a StringTable where the same
+     * strings are read repeatedly.
+     */
     public static String collectString(byte[] fileData, int headerOffset) {
-        StringBuilder s = new StringBuilder();
-        int i = headerOffset;
-        while (fileData[i] != 0) {
-            s.append((char) fileData[i]);
-            ++i;
+        return StringTable.decode(fileData, headerOffset);
+    }
+
+    public static String collectString(ByteBuffer buf, int offset) {
+        return StringTable.decode(buf, offset);
+    }
+
+    /**
+     * Returns the remaining bytes of a buffer as an array. Heap buffers which exactly wrap
+     * an array are returned without copying, anything else (such as a slice of a mapped
+     * archive) is copied into an array of just the slice length.
+     */
+    public static byte[] getBytes(ByteBuffer buf) {
+        if (buf.hasArray() && !buf.isReadOnly() && buf.arrayOffset() == 0 && buf.position() == 0
+                && buf.remaining() == buf.array().length) {
+            return buf.array();
         }
-        return s.toString();
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(buf.position(), bytes);
+        return bytes;
     }
 
     public static float getLEFloat(byte[] data, int offset) {
-        int i = getLEInt(data, offset);
-        return Float.intBitsToFloat(i);
+        return BinaryReader.getFloat(data, offset);
     }
 
     public int getLEInt(int offset){
@@ -52,7 +70,7 @@ public class DataUtil {
     }
 
     public static int getLEInt(byte[] data, int offset) {
-        return data[offset + 3] << 24 | (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff);
+        return BinaryReader.getInt(data, offset);
     }
 
     public static byte getSafeByte(byte[] data, int offset) {
@@ -67,7 +85,7 @@ public class DataUtil {
         return getLEShort(data, baseOffset + offset);
     }
     public static short getLEShort(byte[] data, int offset) {
-        return (short) ((data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff));
+        return BinaryReader.getShort(data, offset);
     }
 
     public int getLEUShort(int offset){
@@ -75,7 +93,7 @@ public class DataUtil {
     }
 
     public static int getLEUShort(byte[] data, int offset) {
-        return ((data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff));
+        return BinaryReader.getUShort(data, offset);
     }
 
     public void setLEUShort(int offset, int val){
@@ -121,8 +139,13 @@ public class DataUtil {
     }
 
     public long getLELong(int i) {
-        long lo = getLEInt(i);
-        long hi = getLEInt(i+4);
-        return hi << 32 | lo;
+        return BinaryReader.getLong(data, baseOffset + i);
+    }
+
+    /**
+     * @return A reader with its cursor at offset, relative to the base offset.
+     */
+    public BinaryReader reader(int offset) {
+        return new BinaryReader(data, baseOffset + offset);
     }
 }
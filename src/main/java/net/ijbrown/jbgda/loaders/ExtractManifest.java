@@ -0,0 +1,199 @@
+package net.ijbrown.jbgda.loaders;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Records what each extraction step produced so that a rerun can skip unchanged work.
+ * <p>
+ * Each record is keyed by the name of the step (such as "unpack" or "tex") and a path relative to the
+ * extracted directory (the unpacked archive entry or the converted file). It holds the hash of the
+ * inputs, the version of the converter and the outputs it wrote. A step is up to date when the hash
+ * and version match and all of its outputs still exist.
+ */
+public class ExtractManifest
+{
+    public static final String FILENAME = "_manifest.json";
+
+    public static final String UNPACK = "unpack";
+
+    private static final int HASH_READ_SIZE = 64 * 1024;
+
+    private final Path rootPath;
+    private Contents contents = new Contents();
+    private boolean dirty;
+
+    private static class Contents
+    {
+        Map<String, Entry> entries = new TreeMap<>();
+    }
+
+    private static class Entry
+    {
+        String hash;
+        int version;
+        List<String> outputs;
+    }
+
+    private ExtractManifest(Path rootPath)
+    {
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * Loads the manifest stored in the given extracted directory, or returns an empty one if there isn't one.
+     */
+    public static ExtractManifest load(Path extractedPath) throws IOException
+    {
+        var manifest = new ExtractManifest(extractedPath);
+        Path manifestPath = extractedPath.resolve(FILENAME);
+        if (Files.exists(manifestPath)) {
+            try (Reader reader = Files.newBufferedReader(manifestPath)) {
+                Contents contents = new Gson().fromJson(reader, Contents.class);
+                if (contents != null && contents.entries != null) {
+                    manifest.contents = contents;
+                }
+            }
+        }
+        return manifest;
+    }
+
+    public synchronized void save() throws IOException
+    {
+        if (!dirty) {
+            return;
+        }
+        Path manifestPath = rootPath.resolve(FILENAME);
+        Path tmpPath = rootPath.resolve(FILENAME + ".tmp");
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = Files.newBufferedWriter(tmpPath)) {
+            gson.toJson(contents, writer);
+        }
+        Files.move(tmpPath, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * @return The key used for a file in the extracted directory.
+     */
+    public String getKey(Path path)
+    {
+        return rootPath.relativize(path).toString().replace('\\', '/');
+    }
+
+    public synchronized boolean isUpToDate(String step, Path keyPath, String hash, int version)
+    {
+        Entry entry = contents.entries.get(step + ":" + getKey(keyPath));
+        if (entry == null || entry.version != version || !entry.hash.equals(hash)) {
+            return false;
+        }
+        for (var output : entry.outputs) {
+            if (!Files.exists(rootPath.resolve(output))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the result of a step. Outputs which were not written are left out of the record.
+     */
+    public synchronized void record(String step, Path keyPath, String hash, int version, Path... outputs)
+    {
+        var entry = new Entry();
+        entry.hash = hash;
+        entry.version = version;
+        entry.outputs = new ArrayList<>();
+        for (var output : outputs) {
+            if (Files.exists(output)) {
+                entry.outputs.add(getKey(output));
+            }
+        }
+        contents.entries.put(step + ":" + getKey(keyPath), entry);
+        dirty = true;
+    }
+
+    public static String hash(ByteBuffer data)
+    {
+        var crc = new CRC32C();
+        int length = data.remaining();
+        crc.update(data.duplicate());
+        return Integer.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Hashes a range of a file in fixed size reads. The result is the same as hashing the range as a buffer.
+     */
+    public static String hash(FileChannel channel, long offset, int length) throws IOException
+    {
+        var crc = new CRC32C();
+        ByteBuffer buf = ByteBuffer.allocate(Math.min(length, HASH_READ_SIZE));
+        long pos = offset;
+        long end = offset + length;
+        while (pos < end) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            if (channel.read(buf, pos) < 0) {
+                throw new EOFException("Unexpected end of file at " + pos);
+            }
+            pos += buf.position();
+            crc.update(buf.flip());
+        }
+        return Integer.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    public static String hash(byte[] data)
+    {
+        return hash(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Hashes the contents of several files. Missing files hash differently from empty ones.
+     */
+    public static String hash(List<Path> files) throws IOException
+    {
+        return hash(null, List.of(), files);
+    }
+
+    /**
+     * Hashes the contents of archive entries followed by files, in the same way as hash(List) so that
+     * an entry hashes the same as the file it is extracted to.
+     */
+    public static String hash(AssetFileSystem assets, List<String> entries, List<Path> files) throws IOException
+    {
+        var crc = new CRC32C();
+        long length = 0;
+        for (var entry : entries) {
+            var name = entry.substring(entry.lastIndexOf('/') + 1);
+            length += update(crc, name, assets.exists(entry) ? assets.read(entry) : null);
+        }
+        for (var file : files) {
+            var data = Files.exists(file) ? ByteBuffer.wrap(Files.readAllBytes(file)) : null;
+            length += update(crc, file.getFileName().toString(), data);
+        }
+        return Long.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    // Adds a named input, or null if it is missing, to the hash and returns its length.
+    private static int update(CRC32C crc, String name, ByteBuffer data)
+    {
+        crc.update(name.getBytes());
+        if (data == null) {
+            crc.update(0xFF);
+            return 0;
+        }
+        crc.update(data.duplicate());
+        return data.remaining();
+    }
+}
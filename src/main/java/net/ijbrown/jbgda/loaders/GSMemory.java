@@ -1,11 +1,117 @@
 package net.ijbrown.jbgda.loaders;
 
-public class GSMemory {
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A model of the GS local memory, used to unswizzle textures.
+ * <p>
+ * Instances are 4 MB so decoders should take one from the pool with acquire and close it when done.
+ * The pool is per thread. Writes record which 8 KB pages they touch and only those pages are cleared
+ * when an instance is closed, so a small texture costs a small clear.
+ */
+public class GSMemory implements AutoCloseable {
+
+    // GS has 4 meg of DRAM. Only written through the transfers, which track the pages they touch.
+    private final byte[] mem = new byte[1024*1024*4];
+
+    // Pixel storage modes, as used in BITBLTBUF and TEX0
+    public static final int PSMCT32 = 0x00;
+    public static final int PSMCT24 = 0x01;
+    public static final int PSMCT16 = 0x02;
+    public static final int PSMCT16S = 0x0A;
+    public static final int PSMT8 = 0x13;
+    public static final int PSMT4 = 0x14;
+    public static final int PSMT8H = 0x1B;
+    public static final int PSMT4HL = 0x24;
+    public static final int PSMT4HH = 0x2C;
+    public static final int PSMZ32 = 0x30;
+    public static final int PSMZ24 = 0x31;
+    public static final int PSMZ16 = 0x32;
+    public static final int PSMZ16S = 0x3A;
+
+    private static final int PAGE_SHIFT = 13;
+    private static final int NUM_PAGES = (1024 * 1024 * 4) >> PAGE_SHIFT;
+
+    // Instances kept for reuse by each thread, more than one in case decodes nest.
+    private static final int MAX_POOLED = 2;
+    private static final ThreadLocal<ArrayDeque<GSMemory>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+
+    // Pages written since the instance was last cleared, one bit each.
+    private final long[] dirtyPages = new long[NUM_PAGES / 64];
+    private boolean pooled;
+
+    /**
+     * @return A cleared instance, to be closed when finished with. It must not be used by another
+     * thread.
+     */
+    public static GSMemory acquire()
+    {
+        GSMemory gsMem = pool.get().poll();
+        if (gsMem == null) {
+            gsMem = new GSMemory();
+        }
+        gsMem.pooled = false;
+        return gsMem;
+    }
+
+    /**
+     * Clears the pages written to and returns the instance to this thread's pool.
+     */
+    @Override
+    public void close()
+    {
+        if (pooled) {
+            return;
+        }
+        clearDirtyPages();
+        var threadPool = pool.get();
+        if (threadPool.size() < MAX_POOLED) {
+            pooled = true;
+            threadPool.push(this);
+        }
+    }
+
+    /**
+     * @return A copy of the whole memory.
+     */
+    byte[] snapshot()
+    {
+        return mem.clone();
+    }
+
+    /**
+     * Replaces the whole memory, as if it had all been written.
+     */
+    void load(byte[] contents)
+    {
+        System.arraycopy(contents, 0, mem, 0, mem.length);
+        markDirty(0, mem.length);
+    }
+
+    private void clearDirtyPages()
+    {
+        for (int i = 0; i < dirtyPages.length; ++i) {
+            long bits = dirtyPages[i];
+            while (bits != 0) {
+                int page = i * 64 + Long.numberOfTrailingZeros(bits);
+                Arrays.fill(mem, page << PAGE_SHIFT, (page + 1) << PAGE_SHIFT, (byte) 0);
+                bits &= bits - 1;
+            }
+            dirtyPages[i] = 0;
+        }
+    }
 
-    // GS has 4 meg of DRAM
-    public byte[] mem = new byte[1024*1024*4];
+    // Marks the pages holding bytes start to end, exclusive, as written.
+    private void markDirty(int start, int end)
+    {
+        int last = Math.min(end - 1, mem.length - 1) >> PAGE_SHIFT;
+        for (int page = Math.max(start, 0) >> PAGE_SHIFT; page <= last; ++page) {
+            dirtyPages[page >> 6] |= 1L << page;
+        }
+    }
 
-    private final int[] block32 =
+    private static final int[] block32 =
     {
         0,  1,  4,  5, 16, 17, 20, 21,
         2,  3,  6,  7, 18, 19, 22, 23,
@@ -14,54 +120,58 @@ public class GSMemory {
     };
 
 
-    private final int[] columnWord32 =
+    private static final int[] columnWord32 =
     {
         0,  1,  4,  5,  8,  9, 12, 13, 2,  3,  6,  7, 10, 11, 14, 15
     };
 
+    // Word offset within a page of each pixel of a PSMCT32 page, 64 x 32 pixels.
+    private static final int[] pageWords32 = new int[64 * 32];
+
+    static {
+        for (int py = 0; py < 32; ++py) {
+            for (int px = 0; px < 64; ++px) {
+                int block = block32[px / 8 + (py / 8) * 8];
+                int by = py % 8;
+                int column = by / 2;
+                int cw = columnWord32[px % 8 + (by % 2) * 8];
+                pageWords32[py * 64 + px] = block * 64 + column * 16 + cw;
+            }
+        }
+    }
+
     // writes to the memory when destination format is set to PSMCT32
     void writeTexPSMCT32(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, byte[] data, int dataIndex)
     {
         int startBlockPos = dbp * 64;
-        for(int y = dsay; y < dsay + rrh; y++)
-        {
-            for(int x = dsax; x < dsax + rrw; x++)
-            {
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int pageRow = (y / 32) * dbw;
+            int tableRow = (y % 32) * 64;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                // copy the run of pixels up to the end of the row or page
                 int pageX = x / 64;
-                int pageY = y / 32;
-                int page  = pageX + pageY * dbw;
-
-                int px = x - (pageX * 64);
-                int py = y - (pageY * 32);
-
-                int blockX = px / 8;
-                int blockY = py / 8;
-                int block  = block32[blockX + blockY * 8];
-
-                int bx = px - blockX * 8;
-                int by = py - blockY * 8;
-
-                int column = by / 2;
-
-                int cx = bx;
-                int cy = by - column * 2;
-                int cw = columnWord32[cx + cy * 8];
-
-                int gsIndex = startBlockPos + page * 2048 + block * 64 + column * 16 + cw;
-                gsIndex *= 4;
-
-                if (dataIndex < data.length) {
-                    mem[gsIndex++] = data[dataIndex];
-                    mem[gsIndex++] = data[dataIndex + 1];
-                    mem[gsIndex++] = data[dataIndex + 2];
-                    mem[gsIndex] = data[dataIndex + 3];
+                int pageBase = startBlockPos + (pageX + pageRow) * 2048;
+                int px = x - pageX * 64;
+                int runEnd = Math.min(dsax + rrw - x, 64 - px) + px;
+                markDirty(pageBase * 4, (pageBase + 2048) * 4);
+                for (; px < runEnd; ++px) {
+                    if (dataIndex >= data.length) {
+                        return;
+                    }
+                    int gsIndex = (pageBase + pageWords32[tableRow + px]) * 4;
+                    mem[gsIndex] = data[dataIndex];
+                    mem[gsIndex + 1] = data[dataIndex + 1];
+                    mem[gsIndex + 2] = data[dataIndex + 2];
+                    mem[gsIndex + 3] = data[dataIndex + 3];
                     dataIndex += 4;
                 }
+                x = pageX * 64 + runEnd;
             }
         }
     }
 
-    int[] block8 =
+    private static final int[] block8 =
     {
         0,  1,  4,  5, 16, 17, 20, 21,
         2,  3,  6,  7, 18, 19, 22, 23,
@@ -69,7 +179,7 @@ public class GSMemory {
         10, 11, 14, 15, 26, 27, 30, 31
     };
 
-    int[][] columnWord8 =
+    private static final int[][] columnWord8 =
     {
         {
             0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,
@@ -87,7 +197,7 @@ public class GSMemory {
         }
     };
 
-    int[] columnByte8 =
+    private static final int[] columnByte8 =
     {
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,
@@ -96,6 +206,22 @@ public class GSMemory {
         1, 1, 1, 1, 1, 1, 1, 1,  3, 3, 3, 3, 3, 3, 3, 3
     };
 
+    // Byte offset within a page of each pixel of a PSMT8 page, 128 x 64 pixels.
+    private static final int[] pageBytes8 = new int[128 * 64];
+
+    static {
+        for (int py = 0; py < 64; ++py) {
+            for (int px = 0; px < 128; ++px) {
+                int block = block8[px / 16 + (py / 16) * 8];
+                int by = py % 16;
+                int column = by / 4;
+                int ci = px % 16 + (by % 4) * 16;
+                int cw = columnWord8[column & 1][ci];
+                pageBytes8[py * 128 + px] = (block * 64 + column * 16 + cw) * 4 + columnByte8[ci];
+            }
+        }
+    }
+
     byte[] readTexPSMT8(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh)
     {
         byte [] data = new byte[rrw*rrh];
@@ -105,41 +231,25 @@ public class GSMemory {
 
         int startBlockPos = dbp * 64;
 
-        for(int y = dsay; y < dsay + rrh; y++)
-        {
-            for(int x = dsax; x < dsax + rrw; x++)
-            {
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int pageRow = (y / 64) * dbw;
+            int tableRow = (y % 64) * 128;
+            int x = dsax;
+            while (x < dsax + rrw) {
                 int pageX = x / 128;
-                int pageY = y / 64;
-                int page  = pageX + pageY * dbw;
-
-                int px = x - (pageX * 128);
-                int py = y - (pageY * 64);
-
-                int blockX = px / 16;
-                int blockY = py / 16;
-                int block  = block8[blockX + blockY * 8];
-
-                int bx = px - blockX * 16;
-                int by = py - blockY * 16;
-
-                int column = by / 4;
-
-                int cx = bx;
-                int cy = by - column * 4;
-                int cw = columnWord8[column & 1][cx + cy * 16];
-                int cb = columnByte8[cx + cy * 16];
-
-                int gsIndex = startBlockPos + page * 2048 + block * 64 + column * 16 + cw;
-                gsIndex *= 4;
-
-                data[dataIndex++] = mem[gsIndex + cb];
+                int pageBase = (startBlockPos + (pageX + pageRow) * 2048) * 4;
+                int px = x - pageX * 128;
+                int runEnd = Math.min(dsax + rrw - x, 128 - px) + px;
+                for (; px < runEnd; ++px) {
+                    data[dataIndex++] = mem[pageBase + pageBytes8[tableRow + px]];
+                }
+                x = pageX * 128 + runEnd;
             }
         }
         return data;
     }
 
-    private final int[] block4 =
+    private static final int[] block4 =
     {
         0,  2,  8, 10,
         1,  3,  9, 11,
@@ -151,7 +261,7 @@ public class GSMemory {
         21, 23, 29, 31
     };
 
-    private final int[][] columnWord4 =
+    private static final int[][] columnWord4 =
     {
         {
             0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,
@@ -169,7 +279,7 @@ public class GSMemory {
         }
     };
 
-    private final int[] columnByte4 =
+    private static final int[] columnByte4 =
     {
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,  4, 4, 4, 4, 4, 4, 4, 4,  6, 6, 6, 6, 6, 6, 6, 6,
         0, 0, 0, 0, 0, 0, 0, 0,  2, 2, 2, 2, 2, 2, 2, 2,  4, 4, 4, 4, 4, 4, 4, 4,  6, 6, 6, 6, 6, 6, 6, 6,
@@ -178,63 +288,335 @@ public class GSMemory {
         1, 1, 1, 1, 1, 1, 1, 1,  3, 3, 3, 3, 3, 3, 3, 3,  5, 5, 5, 5, 5, 5, 5, 5,  7, 7, 7, 7, 7, 7, 7, 7
     };
 
+    // Nibble offset within a page of each pixel of a PSMT4 page, 128 x 128 pixels.
+    private static final int[] pageNibbles4 = new int[128 * 128];
+
+    static {
+        for (int py = 0; py < 128; ++py) {
+            for (int px = 0; px < 128; ++px) {
+                int block = block4[px / 32 + (py / 16) * 4];
+                int by = py % 16;
+                int column = by / 4;
+                int ci = px % 32 + (by % 4) * 32;
+                int cw = columnWord4[column & 1][ci];
+                pageNibbles4[py * 128 + px] = (block * 64 + column * 16 + cw) * 8 + columnByte4[ci];
+            }
+        }
+    }
+
     public byte[] readTexPSMT4(int dbp, int dbw, int dsax, int dsay, int rrw, int rrh) {
 
         int wBytes = rrw/2;
         byte []data = new byte[wBytes*rrh];
 
         dbw >>= 1;
-        int dataIndex = 0;
         int startBlockPos = dbp * 64;
 
-        boolean odd = false;
-
+        // pixels are packed two to a byte, the first in the low nibble
+        int pixelIndex = 0;
         for (int y = dsay; y < dsay + rrh; y++) {
-            for (int x = dsax; x < dsax + rrw; x++) {
+            int pageRow = (y / 128) * dbw;
+            int tableRow = (y % 128) * 128;
+            int x = dsax;
+            while (x < dsax + rrw) {
                 int pageX = x / 128;
-                int pageY = y / 128;
-                int page = pageX + pageY * dbw;
+                int pageBase = (startBlockPos + (pageX + pageRow) * 2048) * 8;
+                int px = x - pageX * 128;
+                int runEnd = Math.min(dsax + rrw - x, 128 - px) + px;
+                for (; px < runEnd; ++px) {
+                    int nibble = pageBase + pageNibbles4[tableRow + px];
+                    int val = (mem[nibble >> 1] >> ((nibble & 1) * 4)) & 0x0f;
+                    data[pixelIndex >> 1] |= (byte) (val << ((pixelIndex & 1) * 4));
+                    ++pixelIndex;
+                }
+                x = pageX * 128 + runEnd;
+            }
+        }
+        return data;
+    }
 
-                int px = x - (pageX * 128);
-                int py = y - (pageY * 128);
+    private static final int[] block16 =
+    {
+        0,  2,  8, 10,
+        1,  3,  9, 11,
+        4,  6, 12, 14,
+        5,  7, 13, 15,
+        16, 18, 24, 26,
+        17, 19, 25, 27,
+        20, 22, 28, 30,
+        21, 23, 29, 31
+    };
 
-                int blockX = px / 32;
-                int blockY = py / 16;
-                int block = block4[blockX + blockY * 4];
+    private static final int[] block16S =
+    {
+        0,  2, 16, 18,
+        1,  3, 17, 19,
+        8, 10, 24, 26,
+        9, 11, 25, 27,
+        4,  6, 20, 22,
+        5,  7, 21, 23,
+        12, 14, 28, 30,
+        13, 15, 29, 31
+    };
 
-                int bx = px - blockX * 32;
-                int by = py - blockY * 16;
+    private static final int[] columnWord16 =
+    {
+        0,  1,  4,  5,  8,  9, 12, 13,   0,  1,  4,  5,  8,  9, 12, 13,
+        2,  3,  6,  7, 10, 11, 14, 15,   2,  3,  6,  7, 10, 11, 14, 15
+    };
 
-                int column = by / 4;
+    private static final int[] columnHalf16 =
+    {
+        0, 0, 0, 0, 0, 0, 0, 0,  1, 1, 1, 1, 1, 1, 1, 1,
+        0, 0, 0, 0, 0, 0, 0, 0,  1, 1, 1, 1, 1, 1, 1, 1
+    };
+
+    // Z buffer formats have the same layout as the colour formats with the blocks of a page reordered.
+    private static final int BLOCK_Z = 0x18;
+
+    private static final int PAGE_NIBBLES = 2048 * 8;
+
+    /**
+     * How a storage mode lays out a page.
+     *
+     * @param hostBits The bits per pixel of the data transferred to or from the host.
+     * @param nibbles  The nibble offset within the page of each pixel, row by row.
+     */
+    private record Layout(int pageWidth, int pageHeight, int hostBits, int[] nibbles)
+    {
+    }
+
+    private static final Layout[] layouts = new Layout[64];
+
+    static {
+        int[] nibbles32 = nibbles32(0, 0);
+        layouts[PSMCT32] = new Layout(64, 32, 32, nibbles32);
+        layouts[PSMCT24] = new Layout(64, 32, 24, nibbles32);
+        layouts[PSMZ32] = new Layout(64, 32, 32, nibbles32(BLOCK_Z, 0));
+        layouts[PSMZ24] = new Layout(64, 32, 24, layouts[PSMZ32].nibbles);
+        // The H formats keep their pixels in the top byte of the 32 bit layout
+        layouts[PSMT8H] = new Layout(64, 32, 8, nibbles32(0, 6));
+        layouts[PSMT4HL] = new Layout(64, 32, 4, layouts[PSMT8H].nibbles);
+        layouts[PSMT4HH] = new Layout(64, 32, 4, nibbles32(0, 7));
+
+        layouts[PSMCT16] = new Layout(64, 64, 16, nibbles16(block16, 0));
+        layouts[PSMCT16S] = new Layout(64, 64, 16, nibbles16(block16S, 0));
+        layouts[PSMZ16] = new Layout(64, 64, 16, nibbles16(block16, BLOCK_Z));
+        layouts[PSMZ16S] = new Layout(64, 64, 16, nibbles16(block16S, BLOCK_Z));
+
+        int[] nibbles8 = new int[pageBytes8.length];
+        for (int i = 0; i < nibbles8.length; ++i) {
+            nibbles8[i] = pageBytes8[i] * 2;
+        }
+        layouts[PSMT8] = new Layout(128, 64, 8, nibbles8);
+        layouts[PSMT4] = new Layout(128, 128, 4, pageNibbles4);
+    }
+
+    private static int[] nibbles32(int blockXor, int nibbleOffset)
+    {
+        int[] nibbles = new int[pageWords32.length];
+        for (int i = 0; i < nibbles.length; ++i) {
+            int block = (pageWords32[i] >> 6) ^ blockXor;
+            nibbles[i] = (block * 64 + (pageWords32[i] & 63)) * 8 + nibbleOffset;
+        }
+        return nibbles;
+    }
+
+    private static int[] nibbles16(int[] blocks, int blockXor)
+    {
+        int[] nibbles = new int[64 * 64];
+        for (int py = 0; py < 64; ++py) {
+            for (int px = 0; px < 64; ++px) {
+                int block = blocks[px / 16 + (py / 8) * 4] ^ blockXor;
+                int by = py % 8;
+                int column = by / 2;
+                int ci = px % 16 + (by % 2) * 16;
+                nibbles[py * 64 + px] = (block * 64 + column * 16 + columnWord16[ci]) * 8 + columnHalf16[ci] * 4;
+            }
+        }
+        return nibbles;
+    }
 
-                int cx = bx;
-                int cy = by - column * 4;
-                int cw = columnWord4[column & 1][cx + cy * 32];
-                int cb = columnByte4[cx + cy * 32];
-
-                int gsIndex = 4 * (startBlockPos + page * 2048 + block * 64 + column * 16 + cw);
-                gsIndex += (cb >> 1);
-
-                int gsVal = mem[gsIndex];
-                int dataVal = data[dataIndex];
-                if ((cb & 1) == 1) {
-                    if (odd) {
-                        dataVal = (dataVal & 0x0f) | (gsVal & 0xf0);
-                    } else {
-                        dataVal = (dataVal & 0xf0) | ((gsVal >> 4) & 0x0f);
+    private static Layout layout(int psm)
+    {
+        if (!isSupported(psm)) {
+            throw new IllegalArgumentException("Unknown pixel storage mode 0x" + Integer.toHexString(psm));
+        }
+        return layouts[psm];
+    }
+
+    public static boolean isSupported(int psm)
+    {
+        return psm >= 0 && psm < layouts.length && layouts[psm] != null;
+    }
+
+    /**
+     * @return The number of bytes a host transfer of a rectangle in the given storage mode takes.
+     */
+    public static int transferSize(int psm, int rrw, int rrh)
+    {
+        return (rrw * rrh * layout(psm).hostBits + 7) / 8;
+    }
+
+    /**
+     * Performs a host to local transfer, as set up by the BITBLTBUF, TRXPOS and TRXREG registers. The
+     * transfer stops early if the data runs out.
+     *
+     * @param dbw The buffer width in units of 64 pixels, as in BITBLTBUF.
+     */
+    public void write(int psm, int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, byte[] data, int dataIndex)
+    {
+        if (psm == PSMCT32) {
+            writeTexPSMCT32(dbp, dbw, dsax, dsay, rrw, rrh, data, dataIndex);
+            return;
+        }
+        Layout layout = layout(psm);
+        int[] nibbles = layout.nibbles;
+        int pageWidth = layout.pageWidth;
+        int pageHeight = layout.pageHeight;
+        int pagesPerRow = dbw * 64 / pageWidth;
+        int startNibble = dbp * 64 * 8;
+        // position in the data, in pixels
+        int pixel = 0;
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int pageRow = (y / pageHeight) * pagesPerRow;
+            int tableRow = (y % pageHeight) * pageWidth;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                int pageX = x / pageWidth;
+                int pageBase = startNibble + (pageX + pageRow) * PAGE_NIBBLES;
+                int px = x - pageX * pageWidth;
+                int runLength = Math.min(dsax + rrw - x, pageWidth - px);
+                int available = (data.length - dataIndex) * 8 / layout.hostBits - pixel;
+                if (available <= 0) {
+                    return;
+                }
+                runLength = Math.min(runLength, available);
+                markDirty(pageBase >> 1, (pageBase + PAGE_NIBBLES) >> 1);
+                int from = tableRow + px;
+                int to = from + runLength;
+                switch (layout.hostBits) {
+                    case 24 -> {
+                        int d = dataIndex + pixel * 3;
+                        for (int i = from; i < to; ++i, d += 3) {
+                            int b = (pageBase + nibbles[i]) >> 1;
+                            mem[b] = data[d];
+                            mem[b + 1] = data[d + 1];
+                            mem[b + 2] = data[d + 2];
+                        }
                     }
-                } else {
-                    if (odd) {
-                        dataVal = (dataVal & 0x0f) | ((gsVal << 4) & 0xf0);
-                    } else {
-                        dataVal = (dataVal & 0xf0) | (gsVal & 0x0f);
+                    case 16 -> {
+                        int d = dataIndex + pixel * 2;
+                        for (int i = from; i < to; ++i, d += 2) {
+                            int b = (pageBase + nibbles[i]) >> 1;
+                            mem[b] = data[d];
+                            mem[b + 1] = data[d + 1];
+                        }
+                    }
+                    case 8 -> {
+                        int d = dataIndex + pixel;
+                        for (int i = from; i < to; ++i, ++d) {
+                            mem[(pageBase + nibbles[i]) >> 1] = data[d];
+                        }
+                    }
+                    case 4 -> {
+                        int p = pixel;
+                        for (int i = from; i < to; ++i, ++p) {
+                            int val = (data[dataIndex + (p >> 1)] >> ((p & 1) * 4)) & 0x0f;
+                            int nibble = pageBase + nibbles[i];
+                            int shift = (nibble & 1) * 4;
+                            int b = nibble >> 1;
+                            mem[b] = (byte) ((mem[b] & ~(0x0f << shift)) | (val << shift));
+                        }
+                    }
+                    default -> {
+                        int d = dataIndex + pixel * 4;
+                        for (int i = from; i < to; ++i, d += 4) {
+                            int b = (pageBase + nibbles[i]) >> 1;
+                            System.arraycopy(data, d, mem, b, 4);
+                        }
                     }
                 }
-                data[dataIndex] = (byte) dataVal;
-                if (odd) {
-                    ++dataIndex;
+                pixel += runLength;
+                x += runLength;
+            }
+        }
+    }
+
+    /**
+     * Performs a local to host transfer of a rectangle.
+     *
+     * @param dbw The buffer width in units of 64 pixels, as in BITBLTBUF.
+     * @return The pixels packed as a host transfer would send them, 4 bit pixels low nibble first.
+     */
+    public byte[] read(int psm, int dbp, int dbw, int dsax, int dsay, int rrw, int rrh)
+    {
+        if (psm == PSMT8) {
+            return readTexPSMT8(dbp, dbw, dsax, dsay, rrw, rrh);
+        }
+        if (psm == PSMT4 && (rrw & 1) == 0) {
+            return readTexPSMT4(dbp, dbw, dsax, dsay, rrw, rrh);
+        }
+        Layout layout = layout(psm);
+        int[] nibbles = layout.nibbles;
+        int pageWidth = layout.pageWidth;
+        int pageHeight = layout.pageHeight;
+        int pagesPerRow = dbw * 64 / pageWidth;
+        int startNibble = dbp * 64 * 8;
+        byte[] data = new byte[transferSize(psm, rrw, rrh)];
+        int pixel = 0;
+        for (int y = dsay; y < dsay + rrh; y++) {
+            int pageRow = (y / pageHeight) * pagesPerRow;
+            int tableRow = (y % pageHeight) * pageWidth;
+            int x = dsax;
+            while (x < dsax + rrw) {
+                int pageX = x / pageWidth;
+                int pageBase = startNibble + (pageX + pageRow) * PAGE_NIBBLES;
+                int px = x - pageX * pageWidth;
+                int runLength = Math.min(dsax + rrw - x, pageWidth - px);
+                int from = tableRow + px;
+                int to = from + runLength;
+                switch (layout.hostBits) {
+                    case 24 -> {
+                        int d = pixel * 3;
+                        for (int i = from; i < to; ++i, d += 3) {
+                            int b = (pageBase + nibbles[i]) >> 1;
+                            data[d] = mem[b];
+                            data[d + 1] = mem[b + 1];
+                            data[d + 2] = mem[b + 2];
+                        }
+                    }
+                    case 16 -> {
+                        int d = pixel * 2;
+                        for (int i = from; i < to; ++i, d += 2) {
+                            int b = (pageBase + nibbles[i]) >> 1;
+                            data[d] = mem[b];
+                            data[d + 1] = mem[b + 1];
+                        }
+                    }
+                    case 8 -> {
+                        int d = pixel;
+                        for (int i = from; i < to; ++i, ++d) {
+                            data[d] = mem[(pageBase + nibbles[i]) >> 1];
+                        }
+                    }
+                    case 4 -> {
+                        int p = pixel;
+                        for (int i = from; i < to; ++i, ++p) {
+                            int nibble = pageBase + nibbles[i];
+                            int val = (mem[nibble >> 1] >> ((nibble & 1) * 4)) & 0x0f;
+                            data[p >> 1] |= (byte) (val << ((p & 1) * 4));
+                        }
+                    }
+                    default -> {
+                        int d = pixel * 4;
+                        for (int i = from; i < to; ++i, d += 4) {
+                            System.arraycopy(mem, (pageBase + nibbles[i]) >> 1, data, d, 4);
+                        }
+                    }
                 }
-                odd = !odd;
+                pixel += runLength;
+                x += runLength;
             }
         }
         return data;
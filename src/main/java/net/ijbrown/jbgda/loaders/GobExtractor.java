@@ -18,40 +18,84 @@ package net.ijbrown.jbgda.loaders;
 import org.tinylog.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
 
 /**
  * Decodes a GOB file.
+ * <p>
+ * A GOB can be close to 2GB so it is streamed. The lmp table and each lmp directory are read with
+ * positioned reads and the entries are copied to the output files by the kernel, so memory use
+ * does not depend on the size of the GOB.
  */
 public class GobExtractor
 {
+    private static final int TABLE_ENTRY_SIZE = 0x28;
+
+    // Number of table entries read at a time.
+    private static final int TABLE_READ_ENTRIES = 64;
+
     private final GameType gameType;
+    private ExtractManifest manifest;
 
     public GobExtractor(GameType gameType)
     {
         this.gameType=gameType;
     }
 
-    public void extract(Path gobFilename, Path gobFile, Path outDirPath) throws IOException
+    public void setManifest(ExtractManifest manifest)
     {
-        byte[] fileData = Files.readAllBytes(gobFile);
+        this.manifest = manifest;
+    }
 
-        var offset=0;
-        String lmpName = DataUtil.collectString(fileData, offset);
+    public void extract(Path gobFilename, Path gobFile, Path outDirPath) throws IOException
+    {
         LmpExtractor lmpExtractor = new LmpExtractor(gameType);
-        while (!lmpName.isEmpty()){
-            Logger.info("Extracting {} from {}",  lmpName , gobFilename);
-            var lmpDirName = lmpName.replace('.', '_');
-            var lmpOutPath = outDirPath.resolve(lmpDirName);
-            Files.createDirectories(lmpOutPath);
-            int lmpDataOffset = DataUtil.getLEInt(fileData, offset + 0x20);
-            lmpExtractor.extractAll(fileData, lmpDataOffset, lmpOutPath);
-
-            offset += 0x28;
-            lmpName = DataUtil.collectString(fileData, offset);
+        lmpExtractor.setManifest(manifest);
+        try (FileChannel gobChannel = FileChannel.open(gobFile, READ)) {
+            for (var gobEntry : readLmpTable(gobChannel)) {
+                Logger.info("Extracting {} from {}", gobEntry.name, gobFilename);
+                var lmpDirName = gobEntry.name.replace('.', '_');
+                var lmpOutPath = outDirPath.resolve(lmpDirName);
+                Files.createDirectories(lmpOutPath);
+                lmpExtractor.extractAll(gobChannel, gobEntry.lmpOffset, lmpOutPath);
+            }
         }
+    }
 
+    public record GobEntry(String name, long lmpOffset)
+    {
     }
 
+    /**
+     * Reads the table at the start of a GOB. This is a list of 0x28 byte entries, each holding the name
+     * of an lmp and its offset in the GOB, terminated by an entry with an empty name. The table is read
+     * in blocks so that the rest of the GOB is never loaded.
+     */
+    public static List<GobEntry> readLmpTable(FileChannel gobChannel) throws IOException
+    {
+        List<GobEntry> entries = new ArrayList<>();
+        long size = gobChannel.size();
+        long pos = 0;
+        while (pos + TABLE_ENTRY_SIZE <= size) {
+            int numEntries = (int) Math.min(TABLE_READ_ENTRIES, (size - pos) / TABLE_ENTRY_SIZE);
+            ByteBuffer block = Lmp.readFully(gobChannel, pos, numEntries * TABLE_ENTRY_SIZE);
+            for (int i = 0; i < numEntries; ++i) {
+                int offset = i * TABLE_ENTRY_SIZE;
+                String lmpName = StringTable.intern(DataUtil.collectString(block, offset));
+                if (lmpName.isEmpty()) {
+                    return entries;
+                }
+                entries.add(new GobEntry(lmpName, Integer.toUnsignedLong(block.getInt(offset + 0x20))));
+            }
+            pos += (long) numEntries * TABLE_ENTRY_SIZE;
+        }
+        return entries;
+    }
 }
@@ -0,0 +1,289 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A *.HDR / *.DAT file pair archive such as EQCACHE or PICCACHE.
+ * <p>
+ * The HDR lists named entries, each with a number of elements whose start and length in the DAT are
+ * given in 2048 byte sectors. The DAT is opened once and elements are read on demand with sector
+ * aligned positioned reads through a small cache of blocks, so pulling out one model does not load
+ * the whole DAT.
+ */
+public class HdrDatArchive implements Closeable
+{
+    public static final int SECTOR_SIZE = 2048;
+
+    private static final int BLOCK_SIZE = 32 * SECTOR_SIZE;
+    private static final int CACHE_BLOCKS = 16;
+
+    private final boolean isPicCache;
+    private final Path datPath;
+    private final FileChannel datChannel;
+
+    // Entry name to entry, in header order
+    private final Map<String, HeaderEntry> entries = new LinkedHashMap<>();
+
+    // Block number to block data, least recently used first
+    private final Map<Long, ByteBuffer> blockCache = new LinkedHashMap<>(CACHE_BLOCKS, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest)
+        {
+            return size() > CACHE_BLOCKS;
+        }
+    };
+
+    public static class HeaderEntry
+    {
+        public String name;
+        public HeaderElement[] headerElements;
+
+        /**
+         * @return The element with the given id or null if there isn't one.
+         */
+        public HeaderElement findElement(int id)
+        {
+            for (var element : headerElements) {
+                if (element.id == id) {
+                    return element;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class HeaderElement
+    {
+        public int id;
+        public int lenBytes;
+        public int startPosBytes;
+
+        public int width;
+        public int height;
+    }
+
+    /**
+     * Opens the archive, the DAT is expected to be next to the HDR with the same base name.
+     */
+    public HdrDatArchive(Path hdrPath) throws IOException
+    {
+        this(hdrPath, hdrPath.resolveSibling(getBaseFilename(hdrPath) + ".DAT"));
+    }
+
+    public HdrDatArchive(Path hdrPath, Path datPath) throws IOException
+    {
+        isPicCache = isPicCache(getBaseFilename(hdrPath));
+        for (var entry : readHeader(hdrPath, isPicCache)) {
+            entries.put(entry.name, entry);
+        }
+        this.datPath = datPath;
+        datChannel = FileChannel.open(datPath, READ);
+    }
+
+    private static String getBaseFilename(Path hdrPath)
+    {
+        return hdrPath.getFileName().toString().split("\\.")[0];
+    }
+
+    public boolean isPicCache()
+    {
+        return isPicCache;
+    }
+
+    public Path getDatPath()
+    {
+        return datPath;
+    }
+
+    /**
+     * @return The entries in header order.
+     */
+    public Collection<HeaderEntry> getEntries()
+    {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public HeaderEntry findEntry(String name)
+    {
+        return entries.get(name);
+    }
+
+    /**
+     * @return The file name that ExtractFiles gives an element, e.g. name-el_0-id_1.tex
+     */
+    public String getElementFilename(HeaderEntry entry, int el)
+    {
+        return getElementFilename(entry, el, isPicCache);
+    }
+
+    /**
+     * Reads the element with the given id from the named entry.
+     *
+     * @return The element data or null if there is no such element.
+     */
+    public ByteBuffer read(String name, int id) throws IOException
+    {
+        var entry = entries.get(name);
+        var element = entry == null ? null : entry.findElement(id);
+        return element == null ? null : read(element);
+    }
+
+    /**
+     * @return A read-only little endian buffer holding the element.
+     */
+    public ByteBuffer read(HeaderElement element) throws IOException
+    {
+        ByteBuffer data = ByteBuffer.allocate(element.lenBytes);
+        long pos = element.startPosBytes;
+        long end = pos + element.lenBytes;
+        if (element.lenBytes > CACHE_BLOCKS / 2 * BLOCK_SIZE) {
+            // Large elements would flush the cache, they are sector aligned so read them directly.
+            readFully(data, pos);
+        } else {
+            while (pos < end) {
+                long blockNo = pos / BLOCK_SIZE;
+                ByteBuffer block = getBlock(blockNo);
+                int blockOffset = (int) (pos - blockNo * BLOCK_SIZE);
+                int n = (int) Math.min(end - pos, block.limit() - blockOffset);
+                if (n <= 0) {
+                    throw new EOFException("Element at " + element.startPosBytes + " extends past the end of " + datPath.getFileName());
+                }
+                data.put(block.slice(blockOffset, n));
+                pos += n;
+            }
+        }
+        return data.flip().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies an element to a file without reading it into the heap.
+     */
+    public void transferTo(HeaderElement element, Path outFilePath) throws IOException
+    {
+        LmpExtractor.transfer(datChannel, element.startPosBytes, element.lenBytes, outFilePath);
+    }
+
+    public String hash(HeaderElement element) throws IOException
+    {
+        return ExtractManifest.hash(datChannel, element.startPosBytes, element.lenBytes);
+    }
+
+    private synchronized ByteBuffer getBlock(long blockNo) throws IOException
+    {
+        ByteBuffer block = blockCache.get(blockNo);
+        if (block == null) {
+            long start = blockNo * BLOCK_SIZE;
+            int length = (int) Math.min(BLOCK_SIZE, datChannel.size() - start);
+            block = ByteBuffer.allocate(Math.max(0, length));
+            readFully(block, start);
+            block.flip();
+            blockCache.put(blockNo, block);
+        }
+        return block;
+    }
+
+    // Fills an empty buffer from the given position of the DAT.
+    private void readFully(ByteBuffer buf, long position) throws IOException
+    {
+        while (buf.hasRemaining()) {
+            if (datChannel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of " + datPath.getFileName() + " at " + (position + buf.position()));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        datChannel.close();
+    }
+
+    static boolean isPicCache(String baseFilename)
+    {
+        return baseFilename.startsWith("PIC");
+    }
+
+    static String getElementFilename(HeaderEntry entry, int el, boolean isPicCache)
+    {
+        var subfileName = entry.name + "-el_" + el + "-id_" + entry.headerElements[el].id;
+        if (isPicCache || (el & 1) == 0) {
+            // elements come in pairs, the first looks like a texture
+            subfileName += ".tex";
+        } else {
+            subfileName += ".vif";
+        }
+        return subfileName;
+    }
+
+    static HeaderEntry[] readHeader(Path hdrPath, boolean isPicCache) throws IOException
+    {
+        byte[] headerFileData = Files.readAllBytes(hdrPath);
+
+        int numEntries = DataUtil.getLEInt(headerFileData,  0);
+        var headerEntries = new HeaderEntry[numEntries];
+
+        var strings = new StringTable(headerFileData, 0);
+        int offset=4;
+        for (int i=0; i<numEntries; ++i) {
+            int elOffset = DataUtil.getLEInt(headerFileData, offset);
+            int stringOffset = DataUtil.getLEInt(headerFileData, offset + 4);
+            int numEls = DataUtil.getLEInt(headerFileData, offset + 8);
+            String name = strings.get(stringOffset);
+
+            var entry = new HeaderEntry();
+            entry.name = name;
+            entry.headerElements = new HeaderElement[numEls];
+            for (int el=0; el < numEls; ++el){
+                var element = new HeaderElement();
+                element.id = DataUtil.getLEShort(headerFileData, elOffset); elOffset += 2;
+                if (isPicCache) {
+                    // Start and len are reversed between EQCACHE and PICCACHE
+                    element.startPosBytes = SECTOR_SIZE * DataUtil.getLEUShort(headerFileData, elOffset);
+                    elOffset += 2;
+                    element.lenBytes = SECTOR_SIZE * DataUtil.getLEUShort(headerFileData, elOffset);
+                    elOffset += 2;
+                    element.width = DataUtil.getLEShort(headerFileData, elOffset);
+                    elOffset += 2;
+                    element.height = DataUtil.getLEShort(headerFileData, elOffset);
+                    elOffset += 2;
+                } else {
+                    element.lenBytes = SECTOR_SIZE * DataUtil.getLEShort(headerFileData, elOffset);
+                    elOffset += 2;
+                    element.startPosBytes = SECTOR_SIZE * DataUtil.getLEInt(headerFileData, elOffset);
+                    elOffset += 4;
+                }
+                entry.headerElements[el] = element;
+            }
+            headerEntries[i] = entry;
+            offset += 12;
+        }
+
+        return headerEntries;
+    }
+}
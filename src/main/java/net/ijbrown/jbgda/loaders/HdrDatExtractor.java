@@ -19,123 +19,71 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
-
 /**
  * Extracts a *.HDR / *.DAT file pair archive
  */
 public class HdrDatExtractor
 {
-    private final GameType gameType;
+    // Bump if the extracted layout changes so that a rerun rewrites the files.
+    private static final int VERSION = 1;
+
+    private ExtractManifest manifest;
 
-    public HdrDatExtractor(GameType gameType)
+    /**
+     * When set, elements which the manifest shows are already extracted are skipped.
+     */
+    public void setManifest(ExtractManifest manifest)
     {
-        this.gameType=gameType;
+        this.manifest = manifest;
     }
 
-    public void extract(String baseFilename, Path hdrPath, Path datPath, Path outDirPath) throws IOException
+    public void extract(Path hdrPath, Path datPath, Path outDirPath) throws IOException
     {
-        boolean isPicCache = baseFilename.startsWith("PIC");
-        var headerEntries = readHeader(hdrPath, isPicCache);
-
-        byte[] datData = Files.readAllBytes(datPath);
+        try (var archive = new HdrDatArchive(hdrPath, datPath)) {
+            extract(archive, outDirPath);
+        }
+    }
 
-        for (var entry : headerEntries) {
+    /**
+     * Writes each element of the archive to its own file. Elements are copied straight from the
+     * DAT channel so the DAT is never loaded.
+     */
+    public void extract(HdrDatArchive archive, Path outDirPath) throws IOException
+    {
+        for (var entry : archive.getEntries()) {
             var entryPath = outDirPath.resolve(entry.name);
             Files.createDirectories(entryPath);
             for (int el=0; el<entry.headerElements.length; ++el) {
                 var element = entry.headerElements[el];
-                var subfileName = entry.name + "-el_" + el + "-id_" + element.id ;
-
-                if (isPicCache || (el & 1) == 0) {
-                    // elements come in pairs, the first looks like a texture
-                    subfileName += ".tex";
-                } else {
-                    subfileName += ".vif";
-                }
+                var subfileName = archive.getElementFilename(entry, el);
                 Path outFilePath = entryPath.resolve(subfileName);
 
                 // The name may contain path separators.
                 Path parentPath = outFilePath.getParent();
                 Files.createDirectories(parentPath);
 
-                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outFilePath, CREATE, APPEND))) {
-                    out.write(datData, element.startPosBytes, element.lenBytes);
+                String hash = null;
+                if (manifest != null) {
+                    hash = archive.hash(element);
+                    if (manifest.isUpToDate(ExtractManifest.UNPACK, outFilePath, hash, VERSION)) {
+                        continue;
+                    }
                 }
-            }
-        }
-    }
-
-    static class HeaderEntry
-    {
-        String name;
-        HeaderElement[] headerElements;
-    }
-
-    static class HeaderElement
-    {
-        int id;
-        int lenBytes;
-        int startPosBytes;
-
-        int width;
-        int height;
-    }
-
-    private HeaderEntry[] readHeader(Path hdrPath, boolean isPicCache) throws IOException
-    {
-        byte[] headerFileData = Files.readAllBytes(hdrPath);
-
-        int numEntries = DataUtil.getLEInt(headerFileData,  0);
-        var headerEntries = new HeaderEntry[numEntries];
-
-        int offset=4;
-        for (int i=0; i<numEntries; ++i) {
-            int elOffset = DataUtil.getLEInt(headerFileData, offset);
-            int stringOffset = DataUtil.getLEInt(headerFileData, offset + 4);
-            int numEls = DataUtil.getLEInt(headerFileData, offset + 8);
-            String name = DataUtil.collectString(headerFileData, stringOffset);
-
-            var entry = new HeaderEntry();
-            entry.name = name;
-            entry.headerElements = new HeaderElement[numEls];
-            for (int el=0; el < numEls; ++el){
-                var element = new HeaderElement();
-                element.id = DataUtil.getLEShort(headerFileData, elOffset); elOffset += 2;
-                if (isPicCache) {
-                    // Start and len are reversed between EQCACHE and PICCACHE
-                    element.startPosBytes = 2048 * DataUtil.getLEUShort(headerFileData, elOffset);
-                    elOffset += 2;
-                    element.lenBytes = 2048 * DataUtil.getLEUShort(headerFileData, elOffset);
-                    elOffset += 2;
-                    element.width = DataUtil.getLEShort(headerFileData, elOffset);
-                    elOffset += 2;
-                    element.height = DataUtil.getLEShort(headerFileData, elOffset);
-                    elOffset += 2;
-                } else {
-                    element.lenBytes = 2048 * DataUtil.getLEShort(headerFileData, elOffset);
-                    elOffset += 2;
-                    element.startPosBytes = 2048 * DataUtil.getLEInt(headerFileData, elOffset);
-                    elOffset += 4;
+                archive.transferTo(element, outFilePath);
+                if (manifest != null) {
+                    manifest.record(ExtractManifest.UNPACK, outFilePath, hash, VERSION, outFilePath);
                 }
-                entry.headerElements[el] = element;
             }
-            headerEntries[i] = entry;
-            offset += 12;
         }
-
-        return headerEntries;
     }
 
-
-    private String disassemble(HeaderEntry[] headerEntries)
+    private String disassemble(HdrDatArchive.HeaderEntry[] headerEntries)
     {
         StringBuilder sb = new StringBuilder();
 
         sb.append("Num entries: ").append(headerEntries.length).append("\r\n");
 
-        for (HeaderEntry entry : headerEntries) {
+        for (HdrDatArchive.HeaderEntry entry : headerEntries) {
             sb.append("\r\n");
             sb.append("Name: ").append(entry.name).append("\r\n");
             sb.append("numEls: ").append(entry.headerElements.length).append("\r\n");
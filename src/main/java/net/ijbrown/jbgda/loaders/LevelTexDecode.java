@@ -17,11 +17,14 @@ package net.ijbrown.jbgda.loaders;
 
 import org.tinylog.Logger;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * Decodes a worldname.tex file.
@@ -47,10 +50,25 @@ public class LevelTexDecode
 
     private final List<TexEntry> texEntries = new ArrayList<>();
 
+    // Huffman code tables by file offset, textures in a chunk can share one
+    private final Map<Integer, CodeTable> codeTables = new ConcurrentHashMap<>();
+
+    private boolean parallel;
+
     public LevelTexDecode(GameType gameType) {
         this.gameType = gameType;
     }
 
+    /**
+     * In parallel mode the textures of extractAll are decoded across the common ForkJoin pool. The blocks of
+     * a texture are always decoded in turn, so callers that already run decoders concurrently should leave
+     * this off.
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
     public void read(String filename, File dir) throws IOException
     {
         File file = new File(dir, filename);
@@ -63,6 +81,8 @@ public class LevelTexDecode
 
         int fileLength = (int) file.length();
         fileData = new byte[fileLength];
+        texEntries.clear();
+        codeTables.clear();
 
         int offset = 0;
         int remaining = fileLength;
@@ -105,22 +125,53 @@ public class LevelTexDecode
         return DataUtil.getLEInt(fileData, offset);
     }
 
-    public void extractAll(File outDirFile) throws IOException
+    /**
+     * Extracts every texture in the file, logging any that fail to decode.
+     *
+     * @param written Has the png files that were written added to it.
+     * @return true if no texture failed to decode.
+     */
+    public boolean extractAll(File outDirFile, Collection<File> written) throws IOException
     {
+        record Job(File outFile, int offset, int directoryOffset) {}
+
+        List<Job> jobs = new ArrayList<>();
         for (var entry : texEntries){
             int numTexturesInEntry = DataUtil.getLEInt(fileData, entry.directoryOffset);
             for (int i=1; i <= numTexturesInEntry; ++i) {
                 int offset = entry.directoryOffset + i * 64;
 
                 File outFile = new File(outDirFile, "leveltex_"+entry.cellOffset + "_" + i + ".png");
+                jobs.add(new Job(outFile, offset, entry.directoryOffset));
+            }
+        }
+        var indices = IntStream.range(0, jobs.size());
+        var stream = parallel ? indices.parallel() : indices;
+        var done = new boolean[jobs.size()];
+        var failures = new AtomicInteger();
+        try {
+            stream.forEach(i -> {
+                var job = jobs.get(i);
                 try {
-                    extract(outFile, offset, entry.directoryOffset);
+                    done[i] = extract(job.outFile, job.offset, job.directoryOffset);
                 } catch (RuntimeException e) {
-                    Logger.warn("Failed to decode {}", outFile);
+                    Logger.warn("Failed to decode {}", job.outFile);
+                    failures.incrementAndGet();
                     //throw new RuntimeException(e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // Reported in file order whichever finished first
+        for (int i = 0; i < jobs.size(); ++i) {
+            if (done[i]) {
+                written.add(jobs.get(i).outFile);
             }
         }
+        return failures.get() == 0;
     }
 
     private int convertOffset(int offIn, int segmentStartOffset, int directoryEntryOffset)
@@ -170,27 +221,41 @@ public class LevelTexDecode
     }
 
 
-    private void extractVQ(int pixelWidth, int pixelHeight, int deltaOffset, int compressedDataOffset)
+    /**
+     * Champions of Norrath textures are VQ compressed, BGDA, RTA and JLH ones are not. The compressed data
+     * points to a header of two shorts, the offset in words from the palette to a Huffman table (see
+     * decodeHuffman) and the length of that table, followed by a 256 colour palette. What comes after the
+     * table is not understood yet so these textures are skipped.
+     */
+    private boolean usesVQCompression(int offset)
     {
-        int vqPaletteOffset = DataUtil.getLEInt(fileData, compressedDataOffset) + deltaOffset;
-        int v1 = DataUtil.getLEUShort(fileData, vqPaletteOffset);
-        int v2 = DataUtil.getLEUShort(fileData, vqPaletteOffset + 2); // huff table len in words
-        int palOffset =  vqPaletteOffset + 4;
-        if (fileData.length <= compressedDataOffset + 256 * 4){
-            Logger.error("not enough bytes to decode image");
-            return;
-        }
-        PalEntry[] palette = PalEntry.readPalette(fileData, palOffset, 16, 16);
-        palette = PalEntry.unswizzlePalette(palette);
-
-        // offset to first huffman table
-        int off1 = palOffset + v1 * 4;
-        decodeHuffman(off1);
-
+        int flags = DataUtil.getLEUShort(fileData, offset + 8);
+        return (flags & 0x1) == 0x01;
+    }
 
+    /**
+     * @return true if a png was written, false if the texture is not one that can be decoded.
+     */
+    public boolean extract(File outputfile, int offset, int chunkStartOffset) throws IOException
+    {
+        if (usesVQCompression(offset)) {
+            Logger.debug("Skipping VQ texture {}, not supported yet", outputfile.getName());
+            return false;
+        }
+        var decoded = decode(offset, chunkStartOffset);
+        if (decoded == null) {
+            return false;
+        }
+        PngWriter.write(decoded.pixels, decoded.pixelsWidth, decoded.pixelsHeight, outputfile.toPath());
+        return true;
     }
 
-    public void extract(File outputfile, int offset, int chunkStartOffset) throws IOException
+    /**
+     * Decodes the texture whose header is at offset, rounded up to whole blocks.
+     *
+     * @return The texture, or null if it is not one that can be decoded.
+     */
+    TexDecode.DecodedTex decode(int offset, int chunkStartOffset)
     {
         var deltaOffset = convertOffset(0, chunkStartOffset, offset);
 
@@ -198,35 +263,31 @@ public class LevelTexDecode
         int pixelHeight = DataUtil.getLEUShort(fileData, offset + 2);
         int header10 = DataUtil.getLEInt(fileData, offset + 0x10);
         int flags = DataUtil.getLEUShort(fileData, offset + 8);
-
-        boolean usesVQCompression = (flags & 0x1) == 0x01;
         boolean flag100 = (flags & 0x100) == 0x0100;
 
         int compressedDataOffset = header10 + deltaOffset;
 
-        // CHAMPIONS OF NORRATH have flag 1 set whilst BGDA, RTA and JLH do not
-        if (usesVQCompression){
-            extractVQ(pixelWidth, pixelHeight, deltaOffset, compressedDataOffset);
-            return;
+        if (usesVQCompression(offset)){
+            return null;
         }
 
         int palOffset = DataUtil.getLEInt(fileData, compressedDataOffset) + deltaOffset;
         if (compressedDataOffset <= 0 || compressedDataOffset >= fileData.length)
         {
-            return;
+            return null;
         }
         int decodeOffset = palOffset + 0xc00;
 
-        PalEntry[] palette = PalEntry.readPalette(fileData, palOffset, 16, 16);
-        palette = PalEntry.unswizzlePalette(palette);
-        HuffVal[] huffVals = decode(decodeOffset);
+        int[] palette = PalEntry.unswizzlePalette(PalEntry.readPalette(fileData, palOffset, 16, 16));
+        CodeTable codes = codeTables.computeIfAbsent(decodeOffset, o -> new CodeTable(fileData, o));
 
         int width = (pixelWidth + 0x0f) & ~0x0f;
         int height = (pixelHeight + 0x0f) & ~0x0f;
 
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] image = new int[width * height];
 
         int p = compressedDataOffset + 4;
+        int table0Start = palOffset + 0x400;
 
         while (fileData[p] >= 0) {
             int x0 = fileData[p];
@@ -238,62 +299,37 @@ public class LevelTexDecode
             for (int yblock = y0; yblock <=y1; ++yblock) {
                 for (int xblock = x0; xblock <=x1; ++xblock) {
                     int blockDataStart = DataUtil.getLEInt(fileData, p) + deltaOffset;
-                    decodeBlock(xblock, yblock, blockDataStart, palOffset + 0x400, image, palette, huffVals);
+                    decodeBlock(xblock, yblock, blockDataStart, table0Start, image, width, palette, codes);
                     p += 4;
                 }
             }
         }
-        ImageIO.write(image, "png", outputfile);
+
+        var decoded = new TexDecode.DecodedTex();
+        decoded.pixels = image;
+        decoded.pixelsWidth = width;
+        decoded.pixelsHeight = height;
+        decoded.targetWidth = pixelWidth;
+        decoded.targetHeight = pixelHeight;
+        return decoded;
     }
 
     private final int[] backJumpTable = new int[]{-1, -16, -17, -15, -2};
 
-    private void decodeBlock(int xblock, int yblock, int blockDataStart, int table0Start, BufferedImage image, PalEntry[] palette, HuffVal[] huffVals)
+    private void decodeBlock(int xblock, int yblock, int blockDataStart, int table0Start, int[] image, int width, int[] palette, CodeTable codes)
     {
-        int tableOffset = table0Start + 0x800;
-        int table1Len = DataUtil.getLEInt(fileData, tableOffset) * 2;
-        int table1Start = tableOffset + 4;
-        int table2Start = table1Start + table1Len;
-        int table3Start = table2Start + 0x48;
-
         int[] pix8s = new int[16 * 16];
         int curpix8 = 0;
-        int startBit = 0;
+        var bits = new BitReader(fileData, blockDataStart, BitReader.Order.WORD_SWAPPED);
         int prevPixel = 0;
         for (int y = 0; y < 16; ++y) {
+            int row = (yblock * 16 + y) * width + xblock * 16;
             for (int x = 0; x < 16; ++x) {
-                int startWordIdx = startBit / 16;
-                int word1 = DataUtil.getLEUShort(fileData, blockDataStart + startWordIdx * 2);
-                int word2 = DataUtil.getLEUShort(fileData, blockDataStart + startWordIdx * 2 + 2);
-                // if startBit is 0, word == word1
-                // if startBit is 1, word is 15 bits of word1 and 1 bit of word2
-                int word = ((word1 << 16 | word2) >> (16 - (startBit & 0x0f))) & 0xFFFF;
-
-                int byte1 = (word >> 8) & 0xff;
-                HuffVal hv = huffVals[byte1];
-                int pixCmd;
-                if (hv.numBits != 0) {
-                    pixCmd = hv.val;
-                    startBit += hv.numBits;
-                } else {
-                    // Must be more than an 8 bit code
-                    int bit = 9;
-                    int a = word >> (16 - bit);
-                    int v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
-                    while (v < a) {
-                        ++bit;
-                        if (bit > 16) {
-                            throw new RuntimeException("A decoding error occured");
-                        }
-                        a = word >> (16 - bit);
-                        v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
-                    }
-                    startBit += bit;
-                    int val = DataUtil.getLEInt(fileData, table2Start + bit * 4);
-                    int table1Index = a + val;
+                int word = bits.peekBits(16);
+                int code = codes.lookup(word);
+                bits.skip(code & 0xFF);
+                int pixCmd = code >> 8;
 
-                    pixCmd = DataUtil.getLEShort(fileData, table1Start + table1Index * 2);
-                }
                 int pix8 = 0;
                 if (pixCmd < 0x100) {
                     pix8 = pixCmd;
@@ -312,50 +348,94 @@ public class LevelTexDecode
                 pix8s[curpix8++] = pix8;
 
                 prevPixel = pix8 & 0xFF;
-                PalEntry pixel = palette[pix8 & 0xFF];
                 // Ignore alpha channel for now
-                image.setRGB(xblock * 16 + x, yblock * 16 + y, pixel.rgb());
+                image[row + x] = PalEntry.rgb(palette[pix8 & 0xFF]);
             }
         }
     }
 
-    static class HuffVal
+    /**
+     * The Huffman codes of a level texture, as a two level lookup on the next 16 bits of the stream.
+     * <p>
+     * In the file the codes are described by three tables: table3 holds the largest code of each length,
+     * table2 the index in table1 of the codes of each length, and table1 the decoded values. Codes of up
+     * to 8 bits are resolved from the top byte of the stream, longer codes from a second table for that
+     * byte indexed by the following byte.
+     */
+    static class CodeTable
     {
-        public short val;
-        public short numBits;
-    }
+        // Entries are the decoded value shifted left by 8 with the code length in the low byte. A length
+        // of 0 at the first level means a longer code and at the second level means no code.
+        // MISSING marks a code whose value lies outside the file, an error only if the code is used.
+        private static final int MISSING = -1;
 
-    private HuffVal[] decode(int tableOffset)
-    {
-        HuffVal[] out = new HuffVal[256];
-
-        int table1Len = DataUtil.getLEInt(fileData, tableOffset) * 2;
-        int table1Start = tableOffset + 4;
-        int table2Start = table1Start + table1Len;
-        int table3Start = table2Start + 0x48;
-
-        for (int i = 0; i < 256; ++i) {
-            int bit = 1;
-            int a = i >> (8 - bit);
-            int v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
-            while (v < a) {
-                ++bit;
-                if (bit > 8) {
-                    break;
+        private final int[] first = new int[256];
+        private final int[][] second = new int[256][];
+
+        CodeTable(byte[] fileData, int tableOffset)
+        {
+            int table1Len = DataUtil.getLEInt(fileData, tableOffset) * 2;
+            int table1Start = tableOffset + 4;
+            int table2Start = table1Start + table1Len;
+            int table3Start = table2Start + 0x48;
+
+            int[] maxCode = new int[17];
+            int[] firstIndex = new int[17];
+            for (int bit = 1; bit <= 16; ++bit) {
+                maxCode[bit] = DataUtil.getLEInt(fileData, table3Start + bit * 4);
+                firstIndex[bit] = DataUtil.getLEInt(fileData, table2Start + bit * 4);
+            }
+
+            for (int i = 0; i < 256; ++i) {
+                int bit = 1;
+                while (bit <= 8 && maxCode[bit] < i >> (8 - bit)) {
+                    ++bit;
+                }
+                if (bit <= 8) {
+                    first[i] = entry(fileData, table1Start, (i >> (8 - bit)) + firstIndex[bit], bit);
+                } else {
+                    int[] longCodes = new int[256];
+                    for (int j = 0; j < 256; ++j) {
+                        int word = i << 8 | j;
+                        bit = 9;
+                        while (bit <= 16 && maxCode[bit] < word >> (16 - bit)) {
+                            ++bit;
+                        }
+                        if (bit <= 16) {
+                            longCodes[j] = entry(fileData, table1Start, (word >> (16 - bit)) + firstIndex[bit], bit);
+                        }
+                    }
+                    second[i] = longCodes;
                 }
-                a = i >> (8 - bit);
-                v = DataUtil.getLEInt(fileData, table3Start + bit * 4);
             }
-            out[i] = new HuffVal();
-            if (bit <= 8) {
-                int val = DataUtil.getLEInt(fileData, table2Start + bit * 4);
-                int table1Index = a + val;
-                out[i].val = DataUtil.getLEShort(fileData, table1Start + table1Index * 2);
-                out[i].numBits = (short) bit;
+        }
+
+        private static int entry(byte[] fileData, int table1Start, int index, int numBits)
+        {
+            int offset = table1Start + index * 2;
+            if (offset < 0 || offset + 2 > fileData.length) {
+                return MISSING;
             }
+            return DataUtil.getLEShort(fileData, offset) << 8 | numBits;
         }
 
-        return out;
+        /**
+         * @return The decoded value shifted left by 8 with the number of bits in the code in the low byte.
+         */
+        int lookup(int word)
+        {
+            int code = first[word >> 8];
+            if ((code & 0xFF) == 0) {
+                code = second[word >> 8][word & 0xFF];
+                if ((code & 0xFF) == 0) {
+                    throw new RuntimeException("A decoding error occured");
+                }
+            }
+            if (code == MISSING) {
+                throw new RuntimeException("Huffman table runs past the end of the file");
+            }
+            return code;
+        }
     }
 
 }
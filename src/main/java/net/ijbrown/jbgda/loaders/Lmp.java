@@ -1,76 +1,198 @@
 package net.ijbrown.jbgda.loaders;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.IntFunction;
 
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A .lmp archive. The archive is memory mapped rather than read onto the heap and entries are
+ * read-only slices of the mapped region. An lmp embedded in a large file such as a GOB can also be
+ * read from a channel, in which case only the directory is read and entries are read on demand.
+ */
 public class Lmp {
 
-    private byte[] fileData = null;
-    private int fileStartOffset = 0;
+    private ByteBuffer fileData = null;
+    private FileChannel channel = null;
+    private long lmpOffset;
     private final GameType gameType;
 
+    // Size of the positioned reads used to find names when reading from a channel.
+    private static final int NAME_READ_SIZE = 64;
+
     public Lmp(GameType gameType)
     {
         this.gameType = gameType;
     }
 
     public void readLmpFile(Path path) throws IOException {
-        fileData = Files.readAllBytes(path);
-        fileStartOffset = 0;
-        readDirectory();
+        readLmp(map(path));
+    }
+
+    /**
+     * Reads the directory of an lmp which starts at position 0 of the given buffer.
+     * The buffer may be a slice of a larger file such as a GOB.
+     */
+    public void readLmp(ByteBuffer data)
+    {
+        fileData = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        channel = null;
+        lmpOffset = 0;
+        directory.clear();
+        readDirectory(fileData, new StringTable(fileData, 0)::get);
     }
 
-    private void readDirectory()
+    /**
+     * Reads the directory of an lmp which starts at lmpOffset in a channel using positioned reads.
+     * Only the directory is held in memory so this works for lmps in files too large to map or
+     * read whole. The channel must stay open while the entries are used.
+     */
+    public void readLmp(FileChannel channel, long lmpOffset) throws IOException
     {
-        int numFiles = DataUtil.getLEInt(fileData, fileStartOffset);
-        int headerOffset = fileStartOffset+4;
+        fileData = null;
+        this.channel = channel;
+        this.lmpOffset = lmpOffset;
+        directory.clear();
+
+        int numFiles = readFully(channel, lmpOffset, 4).getInt(0);
+        int entrySize = gameType == GameType.DARK_ALLIANCE ? 0x40 : 0x0C;
+        ByteBuffer header = readFully(channel, lmpOffset, 4 + numFiles * entrySize);
+        try {
+            readDirectory(header, offset -> readString(channel, lmpOffset + offset));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Maps a whole file read-only. The mapping remains valid after the channel is closed.
+     *
+     * @throws IOException if the file is too large for a single mapping.
+     */
+    public static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path.getFileName() + " is too large to map, " + channel.size() + " bytes");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void readDirectory(ByteBuffer header, IntFunction<String> stringAt)
+    {
+        int numFiles = header.getInt(0);
+        int headerOffset = 4;
         for (int fileNo=0; fileNo < numFiles; ++fileNo) {
-            int stringOffset = 0;
-            int subOffset = 0;
-            int subLen = 0;
+            int stringOffset;
+            int subOffset;
+            int subLen;
             String subfileName;
             if (gameType == GameType.DARK_ALLIANCE) {
                 // Name inline with header
-                subfileName = DataUtil.collectString(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset + 0x38);
-                subLen = DataUtil.getLEInt(fileData, headerOffset + 0x3C);
+                subfileName = StringTable.intern(DataUtil.collectString(header, headerOffset));
+                subOffset = header.getInt(headerOffset + 0x38);
+                subLen = header.getInt(headerOffset + 0x3C);
                 headerOffset += 0x40;
             } else {
                 // name referenced from header
-                stringOffset = DataUtil.getLEInt(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset + 4);
-                subLen = DataUtil.getLEInt(fileData, headerOffset + 8);
-                subfileName = DataUtil.collectString(fileData, fileStartOffset + stringOffset);
+                stringOffset = header.getInt(headerOffset);
+                subOffset = header.getInt(headerOffset + 4);
+                subLen = header.getInt(headerOffset + 8);
+                subfileName = stringAt.apply(stringOffset);
                 headerOffset += 0x0C;
             }
-            Entry entry = new Entry(subOffset + fileStartOffset, subLen, subfileName, fileData);
+            Entry entry = new Entry(subOffset, subLen, subfileName, this);
             directory.put(subfileName, entry);
         }
     }
 
+    /**
+     * Reads length bytes at the given position of a channel into a little endian heap buffer.
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buf.position()));
+            }
+        }
+        return buf.flip();
+    }
+
+    private static String readString(FileChannel channel, long position)
+    {
+        var s = new ByteArrayOutputStream(NAME_READ_SIZE);
+        ByteBuffer buf = ByteBuffer.allocate(NAME_READ_SIZE);
+        try {
+            while (true) {
+                buf.clear();
+                long pos = position + s.size();
+                if (channel.read(buf, pos) <= 0) {
+                    throw new EOFException("Unterminated string at " + position);
+                }
+                for (int i = 0; i < buf.position(); ++i) {
+                    if (buf.get(i) == 0) {
+                        s.write(buf.array(), 0, i);
+                        return StringTable.intern(s.toString(StandardCharsets.ISO_8859_1));
+                    }
+                }
+                s.write(buf.array(), 0, buf.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public Entry findEntry(String name)
     {
         return directory.get(name);
     }
 
+    /**
+     * @return The entries in directory order.
+     */
+    public Collection<Entry> getEntries()
+    {
+        return directory.values();
+    }
 
-    private final Map<String, Entry> directory = new HashMap<>();
+    private final Map<String, Entry> directory = new LinkedHashMap<>();
 
     public static class Entry
     {
         public String name;
+
+        /** The offset of the entry from the start of the lmp. */
         public int offset;
         public int length;
-        public byte[] data;
+        private final Lmp lmp;
 
-        public Entry(int offset, int length, String name, byte[] data) {
+        private Entry(int offset, int length, String name, Lmp lmp) {
             this.offset = offset;
             this.length = length;
             this.name = name;
-            this.data = data;
+            this.lmp = lmp;
+        }
+
+        /**
+         * @return A read-only little endian view of the entry. No data is copied from a mapped lmp,
+         *         an lmp read from a channel reads just this entry.
+         */
+        public ByteBuffer getData() throws IOException
+        {
+            if (lmp.fileData == null) {
+                return readFully(lmp.channel, lmp.lmpOffset + offset, length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return lmp.fileData.slice(offset, length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
         }
     }
 }
@@ -18,63 +18,121 @@ package net.ijbrown.jbgda.loaders;
 import org.tinylog.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
-import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * extracts files from a .lmp file.
  */
 public class LmpExtractor {
 
+    // Bump if the extracted layout changes so that a rerun rewrites the files.
+    private static final int VERSION = 1;
+
     private final GameType gameType;
+    private ExtractManifest manifest;
 
     public LmpExtractor(GameType gameType) {
         this.gameType=gameType;
     }
 
+    /**
+     * When set, entries which the manifest shows are already extracted are skipped.
+     */
+    public void setManifest(ExtractManifest manifest) {
+        this.manifest = manifest;
+    }
+
 
     public void extractAll(Path lmpFilename, Path lmpFile, Path lmpOutPath) throws IOException
     {
         Logger.info("Extracting {}", lmpFilename);
-        byte[] fileData = Files.readAllBytes(lmpFile);
+        try (FileChannel source = FileChannel.open(lmpFile, READ)) {
+            extractAll(source, 0, lmpOutPath);
+        }
+    }
 
-        extractAll(fileData, 0, lmpOutPath);
+    /**
+     * Extracts the lmp which starts at lmpOffset in the source file. Only the lmp directory is read,
+     * entries are copied from the source channel to the output files with transferTo so that their
+     * data never passes through the Java heap.
+     */
+    public void extractAll(FileChannel source, long lmpOffset, Path outDir) throws IOException
+    {
+        var lmp = new Lmp(gameType);
+        lmp.readLmp(source, lmpOffset);
+        extractAll(lmp, source, lmpOffset, outDir);
     }
 
     public void extractAll(byte[] fileData, int fileStartOffset, Path outDir) throws IOException
     {
-        int numFiles = DataUtil.getLEInt(fileData, fileStartOffset);
-        Logger.info("LMP contains {} Files", numFiles);
-
-        int headerOffset = fileStartOffset+4;
-        for (int fileNo=0; fileNo < numFiles; ++fileNo){
-            int stringOffset;
-            int subOffset;
-            int subLen;
-            String subfileName;
-            if (gameType == GameType.DARK_ALLIANCE) {
-                // Name inline with header
-                subfileName = DataUtil.collectString(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset + 0x38);
-                subLen = DataUtil.getLEInt(fileData, headerOffset + 0x3C);
-                headerOffset += 0x40;
+        var lmpData = ByteBuffer.wrap(fileData, fileStartOffset, fileData.length - fileStartOffset);
+        extractAll(lmpData, outDir);
+    }
+
+    /**
+     * Extracts the lmp which starts at the current position of the buffer.
+     */
+    public void extractAll(ByteBuffer lmpData, Path outDir) throws IOException
+    {
+        var lmp = new Lmp(gameType);
+        lmp.readLmp(lmpData);
+        extractAll(lmp, null, 0, outDir);
+    }
+
+    private void extractAll(Lmp lmp, FileChannel source, long lmpOffset, Path outDir) throws IOException
+    {
+        Logger.info("LMP contains {} Files", lmp.getEntries().size());
+
+        for (var entry : lmp.getEntries()) {
+            Path outFilePath = outDir.resolve(entry.name);
+            String hash = null;
+            if (manifest != null) {
+                hash = source != null ? ExtractManifest.hash(source, lmpOffset + entry.offset, entry.length)
+                                      : ExtractManifest.hash(entry.getData());
+                if (manifest.isUpToDate(ExtractManifest.UNPACK, outFilePath, hash, VERSION)) {
+                    continue;
+                }
+            }
+            Logger.info("Extracting: {}, offset={}, length={}", entry.name, entry.offset, entry.length);
+
+            if (source != null) {
+                transfer(source, lmpOffset + entry.offset, entry.length, outFilePath);
             } else {
-                // name referenced from header
-                stringOffset = DataUtil.getLEInt(fileData, headerOffset);
-                subOffset = DataUtil.getLEInt(fileData, headerOffset+4);
-                subLen = DataUtil.getLEInt(fileData, headerOffset+8);
-                subfileName = DataUtil.collectString(fileData, fileStartOffset+stringOffset);
-                headerOffset += 0x0C;
+                ByteBuffer data = entry.getData();
+                try (var out = Files.newByteChannel(outFilePath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                }
             }
-            Logger.info("Extracting: {}, offset={}, length={}", subfileName, subOffset, subLen);
+            if (manifest != null) {
+                manifest.record(ExtractManifest.UNPACK, outFilePath, hash, VERSION, outFilePath);
+            }
+        }
+    }
 
-            Path outFilePath = outDir.resolve(subfileName);
-            try (OutputStream out = new BufferedOutputStream(
-                    Files.newOutputStream(outFilePath, CREATE, APPEND))) {
-                out.write(fileData, fileStartOffset + subOffset, subLen);
+    /**
+     * Copies a range of the source file to a new file. On Linux transferTo lets the kernel do
+     * the copy (copy_file_range or sendfile) without the data being read into the Java heap.
+     */
+    static void transfer(FileChannel source, long offset, long length, Path outFilePath) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(outFilePath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            long done = 0;
+            while (done < length) {
+                long n = source.transferTo(offset + done, length - done, out);
+                if (n <= 0) {
+                    throw new EOFException("Unexpected end of " + outFilePath.getFileName() + " source data at " + (offset + done));
+                }
+                done += n;
             }
         }
     }
@@ -15,17 +15,25 @@
 */
 package net.ijbrown.jbgda.loaders;
 
+import java.nio.ByteBuffer;
+
 /**
  * Decodes an Objects.ob file.
  */
 public class ObLogger
 {
+    public static String log(ByteBuffer obData)
+    {
+        return log(DataUtil.getBytes(obData));
+    }
+
     public static String log(byte[] fileData)
     {
         StringBuilder sb = new StringBuilder();
         int numObjs = DataUtil.getLEShort(fileData, 0);
         int flags = DataUtil.getLEUShort(fileData, 2);
         int stringOffset = DataUtil.getLEInt(fileData, 4);
+        var strings = new StringTable(fileData, stringOffset);
 
         sb.append("Flags: ").append(flags);
         sb.append("\r\n");
@@ -39,7 +47,7 @@ public class ObLogger
             int strIdx = DataUtil.getLEInt(fileData, objOffset);
             String name = Integer.toString(strIdx);
             if (strIdx >= 0) {
-                name = DataUtil.collectString(fileData, stringOffset + strIdx);
+                name = strings.get(strIdx);
             }
             sb.append("    name: ").append(name).append("\r\n");
 
@@ -64,7 +72,7 @@ public class ObLogger
             while (!done && lenSoFar < objLen) {
                 int i = DataUtil.getLEInt(fileData, objOffset + lenSoFar);
                 if (i > 0) {
-                    sb.append("    prop: ").append(DataUtil.collectString(fileData, stringOffset + i)).append("\r\n");
+                    sb.append("    prop: ").append(strings.get(i)).append("\r\n");
                 } else {
                     done=true;
                 }
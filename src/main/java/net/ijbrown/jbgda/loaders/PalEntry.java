@@ -1,47 +1,41 @@
 package net.ijbrown.jbgda.loaders;
 
+/**
+ * Palette helpers. Palettes and decoded pixels are held as ARGB ints, with alpha as stored by the GS
+ * where 0x80 is opaque.
+ */
 public class PalEntry
 {
-    public byte r;
-    public byte g;
-    public byte b;
-    public byte a;
-
-    public int argb()
+    /**
+     * Converts a little endian RGBA word, as read from GS memory, to ARGB.
+     */
+    public static int rgbaToArgb(int rgba)
     {
-        return (a << 24) |
-                ((r << 16) & 0xFF0000) |
-                ((g << 8) & 0xFF00) |
-                (b & 0xFF);
+        return (rgba & 0xFF00FF00) | ((rgba >> 16) & 0xFF) | ((rgba & 0xFF) << 16);
     }
 
-    public int rgb()
+    /**
+     * @return The pixel with alpha forced to opaque.
+     */
+    public static int rgb(int argb)
     {
-        return  0xFF000000 | ((r << 16) & 0xFF0000) |
-                ((g << 8) & 0xFF00) |
-                (b & 0xFF);
+        return 0xFF000000 | argb;
     }
 
-    public static PalEntry[] readPalette(byte[] fileData, int startOffset, int palw, int palh)
+    public static int[] readPalette(byte[] fileData, int startOffset, int palw, int palh)
     {
         int numEntries = palw * palh;
-        PalEntry[] palette = new PalEntry[numEntries];
+        int[] palette = new int[numEntries];
         for (int i = 0; i < numEntries; ++i) {
-            PalEntry pe = new PalEntry();
-            pe.r = fileData[startOffset + i * 4];
-            pe.g = fileData[startOffset + i * 4 + 1];
-            pe.b = fileData[startOffset + i * 4 + 2];
-            pe.a = fileData[startOffset + i * 4 + 3];
-
-            palette[i] = pe;
+            palette[i] = rgbaToArgb(BinaryReader.getInt(fileData, startOffset + i * 4));
         }
         return palette;
     }
 
-    public static PalEntry[] unswizzlePalette(PalEntry[] palette)
+    public static int[] unswizzlePalette(int[] palette)
     {
         if (palette.length == 256) {
-            PalEntry[] unswizzled = new PalEntry[palette.length];
+            int[] unswizzled = new int[palette.length];
 
             int j = 0;
             for (int i = 0; i < 256; i += 32, j += 32) {
@@ -56,8 +50,8 @@ public class PalEntry
         }
     }
 
-    private static void copy(PalEntry[] unswizzled, int i, PalEntry[] swizzled, int j)
+    private static void copy(int[] unswizzled, int i, int[] swizzled, int j)
     {
         System.arraycopy(swizzled, j, unswizzled, i, 8);
     }
-}
\ No newline at end of file
+}
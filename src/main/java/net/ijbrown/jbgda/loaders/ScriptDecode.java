@@ -16,6 +16,7 @@
 package net.ijbrown.jbgda.loaders;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -29,10 +30,22 @@ import java.util.Map;
 public class ScriptDecode
 {
     private byte[] fileData;
+    private StringTable labels;
 
     public void read(Path scrPath) throws IOException
     {
-        fileData = Files.readAllBytes(scrPath);
+        read(Files.readAllBytes(scrPath));
+    }
+
+    public void read(ByteBuffer scrData)
+    {
+        read(DataUtil.getBytes(scrData));
+    }
+
+    private void read(byte[] data)
+    {
+        fileData = data;
+        labels = new StringTable(fileData, bodyOffset);
 
         externalsMap.clear();
         internalsMap.clear();
@@ -593,7 +606,7 @@ public class ScriptDecode
         sb.append(HexUtil.formatHexUShort(offset)).append(": ");
         int address = DataUtil.getLEInt(fileData, offset + bodyOffset);
         sb.append(HexUtil.formatHex(address)).append(" - ");
-        String label = DataUtil.collectString(fileData, offset + bodyOffset + 4);
+        String label = labels.get(offset + 4);
         sb.append(label).append("\r\n");
         internalsMap.put(address, label);
     }
@@ -606,7 +619,7 @@ public class ScriptDecode
     private void printExternal(StringBuilder sb, int id, int offset)
     {
         sb.append(HexUtil.formatHexUShort(id)).append(": ");
-        String label = DataUtil.collectString(fileData, offset + bodyOffset + 4);
+        String label = labels.get(offset + 4);
         sb.append(label).append("\r\n");
         externalsMap.put(id, label);
     }
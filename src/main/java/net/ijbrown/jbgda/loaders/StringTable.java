@@ -0,0 +1,178 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Nul terminated Latin-1 strings read from a block of data, such as the string table of a script or
+ * the names in an lmp directory.
+ * <p>
+ * Each string is decoded in one go from the backing bytes the first time its offset is asked for, then
+ * remembered by offset. Strings are interned in a pool shared by all tables so that a name seen in
+ * many archives is only held once. The pool is bounded, when full it is emptied and starts again,
+ * and can be emptied with clearPool once the archives are done with. A table is not thread safe,
+ * the pool is.
+ */
+public class StringTable
+{
+    // The names in all the archives of a game number in the tens of thousands.
+    static final int MAX_POOL_SIZE = 1 << 16;
+
+    private static final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    private final byte[] array;
+    private final ByteBuffer buffer;
+    private final int baseOffset;
+
+    // Open addressed map of offset to string, offsets are stored plus one so that 0 is empty.
+    private int[] keys = new int[64];
+    private String[] values = new String[64];
+    private int size;
+
+    public StringTable(byte[] data, int baseOffset)
+    {
+        this.array = data;
+        this.buffer = null;
+        this.baseOffset = baseOffset;
+    }
+
+    public StringTable(ByteBuffer data, int baseOffset)
+    {
+        this.array = null;
+        this.buffer = data;
+        this.baseOffset = baseOffset;
+    }
+
+    /**
+     * @return The string starting at offset from the start of the table.
+     */
+    public String get(int offset)
+    {
+        int mask = keys.length - 1;
+        int slot = hash(offset) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == offset + 1) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        String s = intern(array != null ? decode(array, baseOffset + offset) : decode(buffer, baseOffset + offset));
+        keys[slot] = offset + 1;
+        values[slot] = s;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return s;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private void grow()
+    {
+        int[] oldKeys = keys;
+        String[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new String[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0) {
+                int slot = hash(oldKeys[i] - 1) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int offset)
+    {
+        return offset * 0x9E3779B9 >>> 7;
+    }
+
+    /**
+     * @return The shared copy of a string.
+     */
+    public static String intern(String s)
+    {
+        String existing = pool.get(s);
+        if (existing != null) {
+            return existing;
+        }
+        if (pool.size() >= MAX_POOL_SIZE) {
+            // Interning only saves memory, so dropping the pool is safe
+            pool.clear();
+        }
+        existing = pool.putIfAbsent(s, s);
+        return existing == null ? s : existing;
+    }
+
+    /**
+     * Empties the pool of interned strings. Strings already handed out are unaffected.
+     */
+    public static void clearPool()
+    {
+        pool.clear();
+    }
+
+    static int getPoolSize()
+    {
+        return pool.size();
+    }
+
+    /**
+     * Decodes the nul terminated string at offset without caching it. A string that runs to the end of
+     * the data ends there.
+     */
+    public static String decode(byte[] data, int offset)
+    {
+        int end = offset;
+        while (end < data.length && data[end] != 0) {
+            ++end;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.ISO_8859_1);
+    }
+
+    public static String decode(ByteBuffer data, int offset)
+    {
+        if (data.hasArray()) {
+            int arrayOffset = data.arrayOffset();
+            int limit = arrayOffset + data.limit();
+            byte[] bytes = data.array();
+            int start = arrayOffset + offset;
+            int end = start;
+            while (end < limit && bytes[end] != 0) {
+                ++end;
+            }
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        int end = offset;
+        int limit = data.limit();
+        while (end < limit && data.get(end) != 0) {
+            ++end;
+        }
+        byte[] bytes = new byte[end - offset];
+        data.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -15,12 +15,17 @@
 */
 package net.ijbrown.jbgda.loaders;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Decodes a Texture.
@@ -36,32 +41,60 @@ public class TexDecode
     // Then starting offset stored at address 0x10
     // GS Packet
 
-    public void extract(Path texPath) throws IOException
+    /**
+     * @return true if a png was written, false if the texture has no image.
+     */
+    public boolean extract(Path texPath) throws IOException
     {
         var texFilename = texPath.getFileName().toString();
         var outDir = texPath.getParent();
 
         byte[] fileData = Files.readAllBytes(texPath);
 
-        extract(outDir, fileData, 0, texFilename, fileData.length);
+        return extract(outDir, fileData, 0, texFilename, fileData.length);
     }
 
     private static final int BITBLTBUF = 0x50;
     private static final int TRXPOS = 0x51;
     private static final int TRXREG = 0x52;
 
-    private static final int PSMCT32 = 0x00;
-    private static final int PSMT4 = 0x14;
+    private static final int TEX0_1 = 0x06;
+    private static final int TEX0_2 = 0x07;
+
+    private static final int PSMCT32 = GSMemory.PSMCT32;
+    private static final int PSMT8 = GSMemory.PSMT8;
+    private static final int PSMT4 = GSMemory.PSMT4;
+    private static final int PSMT8H = GSMemory.PSMT8H;
+    private static final int PSMT4HL = GSMemory.PSMT4HL;
+    private static final int PSMT4HH = GSMemory.PSMT4HH;
+
+    /**
+     * @return true if a png was written, false if the texture has no image.
+     */
+    public boolean extract(Path outDir, byte[] fileData, int startOffset, String texFilename, int length) throws IOException {
+        return writePng(outDir, decodeTex(fileData, startOffset, length), texFilename);
+    }
+
+    /**
+     * Extracts a texture held in a buffer, such as an entry of an archive.
+     *
+     * @return true if a png was written, false if the texture has no image.
+     */
+    public boolean extract(Path outDir, ByteBuffer texData, String texFilename) throws IOException {
+        return writePng(outDir, decodeTex(texData), texFilename);
+    }
 
-    public void extract(Path outDir, byte[] fileData, int startOffset, String texFilename, int length) throws IOException {
-        RenderedImage image = getImage(fileData, startOffset, length);
-        if (image == null){
-            return;
+    private static boolean writePng(Path outDir, DecodedTex tex, String texFilename) throws IOException {
+        if (tex.targetWidth == 0 || tex.pixels == null){
+            return false;
         }
         var pngFilename = texFilename.replace(".tex", ".png");
         var outPath = outDir.resolve(pngFilename);
 
-        ImageIO.write(image, "png", outPath.toFile());
+        int[] argb = new int[tex.targetWidth * tex.targetHeight];
+        copyOpaque(tex, argb);
+        PngWriter.write(argb, tex.targetWidth, tex.targetHeight, outPath);
+        return true;
     }
 
     public RenderedImage getImage(byte[] fileData, int startOffset, int length) {
@@ -73,179 +106,282 @@ public class TexDecode
         BufferedImage image = null;
         if (tex.targetWidth != 0 && tex.pixels != null) {
             image = new BufferedImage(tex.targetWidth, tex.targetHeight, BufferedImage.TYPE_INT_ARGB);
-            for (int y = 0; y < tex.pixelsHeight && y < tex.targetHeight; ++y) {
-                for (int x = 0; x < tex.pixelsWidth && x < tex.targetWidth; ++x) {
-                    PalEntry pixel = tex.pixels[y * tex.pixelsWidth + x];
-                    if (pixel != null) {
-                        image.setRGB(x, y, pixel.rgb());
-                    }
-                }
-            }
+            copyOpaque(tex, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
         }
         return image;
     }
 
+    // Copies the decoded pixels that fall within the target size, ignoring alpha.
+    private static void copyOpaque(DecodedTex tex, int[] argb)
+    {
+        int w = Math.min(tex.pixelsWidth, tex.targetWidth);
+        for (int y = 0; y < tex.pixelsHeight && y < tex.targetHeight; ++y) {
+            int src = y * tex.pixelsWidth;
+            int dest = y * tex.targetWidth;
+            for (int x = 0; x < w; ++x) {
+                argb[dest + x] = PalEntry.rgb(tex.pixels[src + x]);
+            }
+        }
+    }
+
+    /** The size of the texture header, which is enough to work out the size of the whole texture. */
+    public static final int HEADER_SIZE = 0x20;
+
+    /**
+     * @return The number of bytes the texture whose header is at offset covers: the header, the GIF
+     * packets holding the palette and image, and for 32 bit textures the pixels that follow them.
+     */
+    public static int getTexSize(byte[] header, int offset)
+    {
+        int width = DataUtil.getLEUShort(header, offset);
+        int height = DataUtil.getLEUShort(header, offset + 2);
+        int offsetToGIF = DataUtil.getLEInt(header, offset + 0x10);
+        int gifEnd = offsetToGIF + DataUtil.getLEUShort(header, offset + 0x06) * 16;
+        return Math.max(Math.max(gifEnd, HEADER_SIZE), 0xD0 + width * height * 4);
+    }
+
+    /**
+     * Decodes a texture held in a buffer, such as a slice of a mapped lmp.
+     */
+    public static DecodedTex decodeTex(ByteBuffer texData) {
+        byte[] fileData = DataUtil.getBytes(texData);
+        return decodeTex(fileData, 0, fileData.length);
+    }
+
     public static DecodedTex decodeTex(byte[] fileData, int startOffset, int length) {
-        GSMemory gsMem = new GSMemory();
+        try (GSMemory gsMem = GSMemory.acquire()) {
+            return decodeTex(gsMem, fileData, startOffset, length);
+        }
+    }
 
-        int finalw = DataUtil.getLEShort(fileData, startOffset);
-        int finalh = DataUtil.getLEShort(fileData, startOffset + 2);
+    /** The registers of a host to local transfer and the data sent. */
+    private record Transfer(int psm, int dbp, int dbw, int dsax, int dsay, int rrw, int rrh, byte[] data, int dataIndex)
+    {
+    }
 
-        int sourcew = finalw;
-        int sourceh = finalh;
+    private static DecodedTex decodeTex(GSMemory gsMem, byte[] fileData, int startOffset, int length) {
 
-        PalEntry[] pixels = null;
-        byte[] bytes = null;
+        int finalw = DataUtil.getLEShort(fileData, startOffset);
+        int finalh = DataUtil.getLEShort(fileData, startOffset + 2);
 
         int offsetToGIF = DataUtil.getLEInt(fileData, startOffset + 16);
 
         int dataLen = DataUtil.getLEShort(fileData, startOffset + 0x06) * 16;
         int endIndex = startOffset + offsetToGIF + dataLen;
-
-        int curIdx = offsetToGIF + startOffset;
+        // A length of 0, as the textures found in the elf are given, runs to the end of the data
+        int limit = length > 0 ? Math.min(startOffset + length, fileData.length) : fileData.length;
+
+        // Replay the GIF packets into GS memory, keeping the registers of each transfer.
+        List<Transfer> transfers = new ArrayList<>();
+        long tex0 = -1;
+        int dpsm = PSMCT32;
+        int dbw = 0;
+        int dbp = 0;
+        int rrw = 0;
+        int rrh = 0;
+        int startx = 0;
+        int starty = 0;
+
+        int curIdx = startOffset + offsetToGIF;
         GIFTag gifTag = new GIFTag();
-        gifTag.parse(fileData, curIdx);
-
-        // This is basically heuristics
-        if (gifTag.nloop == 4) {
-            // should look for TRXREG really
-            int palw = DataUtil.getLEShort(fileData, curIdx + 0x30);
-            int palh = DataUtil.getLEShort(fileData, curIdx + 0x34);
-
-            curIdx += gifTag.getLength();
-            GIFTag gifTag2 = new GIFTag();
-            gifTag2.parse(fileData, curIdx);
-
-            // 8 bit palletised
-            PalEntry[] palette = PalEntry.readPalette(fileData, curIdx + 0x10, palw, palh);
-
-            palette = PalEntry.unswizzlePalette(palette);
-
-            curIdx += gifTag2.getLength();
-
-            int destWBytes = (finalw + 0x0f) & ~0x0f;
-            int destHBytes = (finalh + 0x0f) & ~0x0f;
-
-            int dpsm = PSMCT32;
-            int dbw = 0;
-            int dbp = 0;
-            int rrw = 0;
-            int rrh = 0;
-            int startx = 0;
-            int starty = 0;
-
-            while (curIdx < endIndex - 0x10) {
-                GIFTag gifTag3 = new GIFTag();
-                gifTag3.parse(fileData, curIdx);
-                while (!gifTag3.isImage() && curIdx < endIndex - 0x10) {
-                    int trxregOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, TRXREG);
-                    if (trxregOffset != 0) {
-                        rrw = DataUtil.getLEShort(fileData, trxregOffset) & 0xFFF;
-                        rrh = DataUtil.getLEShort(fileData, trxregOffset + 4) & 0xFFF;
-                    }
-                    int trxposOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, TRXPOS);
-                    if (trxposOffset != 0) {
-                        startx = DataUtil.getLEShort(fileData, trxposOffset + 0x04) & 0x07FF;
-                        starty = DataUtil.getLEShort(fileData, trxposOffset + 0x06) & 0x07FF;
+        while (curIdx <= limit - 0x10) {
+            gifTag.parse(fileData, curIdx);
+            if (curIdx >= endIndex - 0x10 && !(gifTag.isImage() && transfers.isEmpty())) {
+                // 32 bit textures have their image after the packets counted in the header
+                break;
+            }
+            if (gifTag.isImage()) {
+                byte[] imageData = fileData;
+                int imageDataIdx = curIdx + 0x10;
+                int imageEnd = Math.min(curIdx + gifTag.getLength(), limit);
+                curIdx = imageEnd;
+
+                // A transfer split over several IMAGE packets carries on where the last one stopped.
+                ByteArrayOutputStream joined = null;
+                GIFTag nextTag = new GIFTag();
+                while (curIdx < endIndex - 0x10) {
+                    nextTag.parse(fileData, curIdx);
+                    if (!nextTag.isImage()) {
+                        break;
                     }
-                    int bitbltOffset = findADEntry(fileData, curIdx + 0x10, gifTag3.nloop, BITBLTBUF);
-                    if (bitbltOffset != 0) {
-                        //int sbw = fileData[bitbltOffset + 0x02] & 0x3F;
-                        dbp = fileData[bitbltOffset + 0x04] & 0x3FFF;
-                        dbw = fileData[bitbltOffset + 0x06] & 0x3F;
-                        dpsm = fileData[bitbltOffset + 0x07] & 0x3F;
+                    if (joined == null) {
+                        joined = new ByteArrayOutputStream();
+                        joined.write(fileData, imageDataIdx, imageEnd - imageDataIdx);
                     }
+                    int nextEnd = Math.min(curIdx + nextTag.getLength(), limit);
+                    joined.write(fileData, curIdx + 0x10, nextEnd - curIdx - 0x10);
+                    curIdx = nextEnd;
+                }
+                if (joined != null) {
+                    imageData = joined.toByteArray();
+                    imageDataIdx = 0;
+                }
 
-                    // TODO: look at the EOP in the giftag
-
-                    curIdx += gifTag3.getLength();
-                    if (curIdx < endIndex - 0x10) {
-                        gifTag3.parse(fileData, curIdx);
+                // A zero buffer width would put every row of pages on top of the first.
+                int bw = dbw != 0 ? dbw : Math.max(1, (rrw + 0x3f) / 0x40);
+                gsMem.write(dpsm, dbp, bw, startx, starty, rrw, rrh, imageData, imageDataIdx);
+                transfers.add(new Transfer(dpsm, dbp, bw, startx, starty, rrw, rrh, imageData, imageDataIdx));
+            } else {
+                int trxregOffset = findADEntry(fileData, curIdx + 0x10, gifTag.nloop, TRXREG);
+                if (trxregOffset != 0) {
+                    rrw = DataUtil.getLEShort(fileData, trxregOffset) & 0xFFF;
+                    rrh = DataUtil.getLEShort(fileData, trxregOffset + 4) & 0xFFF;
+                }
+                int trxposOffset = findADEntry(fileData, curIdx + 0x10, gifTag.nloop, TRXPOS);
+                if (trxposOffset != 0) {
+                    startx = DataUtil.getLEShort(fileData, trxposOffset + 0x04) & 0x07FF;
+                    starty = DataUtil.getLEShort(fileData, trxposOffset + 0x06) & 0x07FF;
+                }
+                int bitbltOffset = findADEntry(fileData, curIdx + 0x10, gifTag.nloop, BITBLTBUF);
+                if (bitbltOffset != 0) {
+                    //int sbw = fileData[bitbltOffset + 0x02] & 0x3F;
+                    dbp = DataUtil.getLEShort(fileData, bitbltOffset + 0x04) & 0x3FFF;
+                    dbw = fileData[bitbltOffset + 0x06] & 0x3F;
+                    dpsm = fileData[bitbltOffset + 0x07] & 0x3F;
+                    if (!GSMemory.isSupported(dpsm)) {
+                        dpsm = PSMCT32;
                     }
                 }
+                int tex0Offset = findADEntry(fileData, curIdx + 0x10, gifTag.nloop, TEX0_1);
+                if (tex0Offset == 0) {
+                    tex0Offset = findADEntry(fileData, curIdx + 0x10, gifTag.nloop, TEX0_2);
+                }
+                if (tex0Offset != 0) {
+                    tex0 = BinaryReader.getLong(fileData, tex0Offset);
+                }
+                curIdx += gifTag.getLength();
+            }
+        }
 
-                if (gifTag3.isImage()) {
-                    curIdx += 0x10;     // image gif tag
-                    int bytesToTransfer = gifTag3.nloop * 16;
-                    if (palette.length == 16) {
-                        // source is PSMT4. Dest can be PSMT4 or PSMCT32
-                        if (dpsm == PSMCT32) {
-                            byte[] imageData = fileData;
-                            int imageDataIdx = curIdx;
-                            // check for multiple IMAGE entries.
-                            int nextTagInd = bytesToTransfer + curIdx;
-                            if (nextTagInd < endIndex - 0x10) {
-                                GIFTag imageTag2 = new GIFTag();
-                                imageTag2.parse(fileData, nextTagInd);
-                                if (imageTag2.flg == 2) {
-                                    // IMAGE
-                                    int bytesToTransfer2 = imageTag2.nloop * 16;
-                                    imageDataIdx = 0;
-                                    imageData = new byte[bytesToTransfer + bytesToTransfer2];
-                                    int j = curIdx;
-                                    for (int i = 0; i < bytesToTransfer; ++i) {
-                                        imageData[i] = fileData[j];
-                                    }
-                                    j = nextTagInd + 0x10;
-                                    for (int i = bytesToTransfer; i < bytesToTransfer + bytesToTransfer2; ++i) {
-                                        imageData[i] = fileData[j];
-                                    }
-                                    bytesToTransfer += imageTag2.getLength();
-                                }
-                            }
-
-                            gsMem.writeTexPSMCT32(dbp, dbw, startx, starty, rrw, rrh, imageData, imageDataIdx);
-
-                            destWBytes = (finalw + 0x3f) & ~0x3f;
-                            bytes = gsMem.readTexPSMT4(dbp, destWBytes / 0x40, startx, starty, destWBytes, destHBytes);
-                            bytes = expand4bit(bytes);
-
-                        } else {
-                            // dest and source are the same and so image isn't swizzled
-                            bytes = transferPSMT4(bytes, fileData, curIdx, startx, starty, rrw, rrh, destWBytes, destHBytes);
-                        }
-
-                    } else {
-                        // source is PSMT8. Dest is always PSMCT32.
-                        gsMem.writeTexPSMCT32(dbp, dbw, startx, starty, rrw, rrh, fileData, curIdx);
-                    }
-                    curIdx += bytesToTransfer;
+        DecodedTex decodedTex = new DecodedTex();
+        decodedTex.pixelsWidth = finalw;
+        decodedTex.pixelsHeight = finalh;
+        decodedTex.targetWidth = finalw;
+        decodedTex.targetHeight = finalh;
+        if (transfers.isEmpty()) {
+            return decodedTex;
+        }
+
+        // Work out how the texture is read back, as TEX0 would give it.
+        Transfer image = transfers.get(transfers.size() - 1);
+        Transfer clut = null;
+        int psm;
+        int tbp;
+        int tbw;
+        if (tex0 != -1 && GSMemory.isSupported((int) (tex0 >> 20) & 0x3F)) {
+            psm = (int) (tex0 >> 20) & 0x3F;
+            tbp = (int) tex0 & 0x3FFF;
+            tbw = (int) (tex0 >> 14) & 0x3F;
+            int cbp = (int) (tex0 >> 37) & 0x3FFF;
+            for (var transfer : transfers) {
+                if (transfer.dbp == cbp && isIndexed(psm)) {
+                    clut = transfer;
+                    break;
                 }
             }
+        } else if (transfers.size() > 1) {
+            // The palette is sent first. A 16 colour palette goes with 4 bit pixels and 256 with 8 bit.
+            clut = transfers.get(0);
+            psm = clut.rrw * clut.rrh == 16 ? PSMT4 : PSMT8;
+            tbp = image.dbp;
+            tbw = image.dbw;
+        } else {
+            psm = image.psm;
+            tbp = image.dbp;
+            tbw = image.dbw;
+        }
 
-            if (palette.length == 256) {
-                destWBytes = (finalw + 0x7f) & ~0x7f;
-                destHBytes = finalh;
-                dbw = destWBytes / 0x40;
-                bytes = gsMem.readTexPSMT8(dbp, dbw, 0, 0, destWBytes, finalh);
+        int readw = finalw;
+        int readh = finalh;
+        if (psm == PSMT4 || psm == PSMT4HL || psm == PSMT4HH) {
+            readw = (finalw + 0x0f) & ~0x0f;
+            readh = (finalh + 0x0f) & ~0x0f;
+            if (tex0 == -1 && image.psm != psm) {
+                // Uploaded in another format, the buffer width is that of the texture.
+                readw = (finalw + 0x3f) & ~0x3f;
+                tbw = readw / 0x40;
             }
-            pixels = applyPalette(palette, bytes);
-            sourcew = destWBytes;
-            sourceh = destHBytes;
-
-        } else if (gifTag.nloop == 3) {
-            GIFTag gifTag2 = new GIFTag();
-            gifTag2.parse(fileData, startOffset + 0xC0);
-            System.out.println(gifTag2.toString());
-
-            if (gifTag2.flg == 2) {
-                // image mode
-                pixels = readPixels32(fileData, startOffset + 0xD0, finalw, finalh);
+        } else if (psm == PSMT8 || psm == PSMT8H) {
+            readw = (finalw + 0x7f) & ~0x7f;
+            if (tex0 == -1 && image.psm != psm) {
+                tbw = readw / 0x40;
             }
         }
-        DecodedTex decodedTex = new DecodedTex();
-        decodedTex.pixels = pixels;
-        decodedTex.pixelsWidth = sourcew;
-        decodedTex.pixelsHeight = sourceh;
-        decodedTex.targetWidth = finalw;
-        decodedTex.targetHeight = finalh;
 
+        int readx = 0;
+        int ready = 0;
+        if (tex0 == -1 && clut == null) {
+            // Read back where it was written.
+            readx = image.dsax;
+            ready = image.dsay;
+        }
+        byte[] bytes = gsMem.read(psm, tbp, tbw, readx, ready, readw, readh);
+
+        int[] palette = null;
+        if (clut != null) {
+            palette = PalEntry.unswizzlePalette(PalEntry.readPalette(clut.data, clut.dataIndex, clut.rrw, clut.rrh));
+        }
+        decodedTex.pixels = toArgb(psm, bytes, palette);
+        decodedTex.pixelsWidth = readw;
+        decodedTex.pixelsHeight = readh;
         return decodedTex;
     }
 
+    private static boolean isIndexed(int psm)
+    {
+        return psm == PSMT4 || psm == PSMT4HL || psm == PSMT4HH || psm == PSMT8 || psm == PSMT8H;
+    }
+
+    /**
+     * Converts pixels read from GS memory to ARGB, with the alpha as stored.
+     *
+     * @return The pixels, or null for indexed pixels without a palette.
+     */
+    private static int[] toArgb(int psm, byte[] bytes, int[] palette)
+    {
+        switch (psm) {
+            case PSMT4, PSMT4HL, PSMT4HH, PSMT8, PSMT8H -> {
+                if (palette == null) {
+                    return null;
+                }
+                boolean is4Bit = psm == PSMT4 || psm == PSMT4HL || psm == PSMT4HH;
+                return applyPalette(palette, is4Bit ? expand4bit(bytes) : bytes);
+            }
+            case GSMemory.PSMCT24, GSMemory.PSMZ24 -> {
+                int[] pixels = new int[bytes.length / 3];
+                for (int i = 0; i < pixels.length; ++i) {
+                    int rgb = (bytes[i * 3] & 0xFF) | (bytes[i * 3 + 1] & 0xFF) << 8 | (bytes[i * 3 + 2] & 0xFF) << 16;
+                    pixels[i] = PalEntry.rgbaToArgb(0x80000000 | rgb);
+                }
+                return pixels;
+            }
+            case GSMemory.PSMCT16, GSMemory.PSMCT16S, GSMemory.PSMZ16, GSMemory.PSMZ16S -> {
+                int[] pixels = new int[bytes.length / 2];
+                for (int i = 0; i < pixels.length; ++i) {
+                    int val = DataUtil.getLEUShort(bytes, i * 2);
+                    int r = (val & 0x1F) << 3;
+                    int g = ((val >> 5) & 0x1F) << 3;
+                    int b = ((val >> 10) & 0x1F) << 3;
+                    int a = (val & 0x8000) != 0 ? 0x80 : 0;
+                    pixels[i] = a << 24 | r << 16 | g << 8 | b;
+                }
+                return pixels;
+            }
+            default -> {
+                int[] pixels = new int[bytes.length / 4];
+                new BinaryReader(bytes, 0).readInts(pixels, 0, pixels.length);
+                for (int i = 0; i < pixels.length; ++i) {
+                    pixels[i] = PalEntry.rgbaToArgb(pixels[i]);
+                }
+                return pixels;
+            }
+        }
+    }
+
     public static class DecodedTex
     {
-        public PalEntry[] pixels;
+        /** ARGB pixels with the alpha as stored, where 0x80 is opaque. */
+        public int[] pixels;
 
         /** The width of the pixels array. */
         public int pixelsWidth;
@@ -258,6 +394,20 @@ public class TexDecode
 
         /** The height specified in the tex file. */
         public int targetHeight;
+
+        /**
+         * @return The pixels as opaque RGBA bytes, ready to upload.
+         */
+        public ByteBuffer getRgba()
+        {
+            var buf = ByteBuffer.allocate(pixels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < pixels.length; ++i) {
+                // ARGB to the little endian word of bytes r, g, b, a
+                int argb = pixels[i];
+                buf.putInt(i * 4, 0xFF000000 | ((argb >> 16) & 0xFF) | (argb & 0xFF00) | ((argb & 0xFF) << 16));
+            }
+            return buf;
+        }
     }
 
     // Take an image where the pixels are packed and expand them to one byte per pixel.
@@ -271,9 +421,9 @@ public class TexDecode
         return out;
     }
 
-    private static PalEntry[] applyPalette(PalEntry[] palette, byte[] bytes)
+    private static int[] applyPalette(int[] palette, byte[] bytes)
     {
-        PalEntry[] pixels = new PalEntry[bytes.length];
+        int[] pixels = new int[bytes.length];
         for (int i=0; i<bytes.length; ++i){
             pixels[i] = palette[bytes[i] & 0xFF];
         }
@@ -292,52 +442,4 @@ public class TexDecode
         }
         return retval;
     }
-
-    private static byte[] transferPSMT4(byte[] pixels, byte[] fileData, int startOffset, int startx, int starty,
-                                 int rrw, int rrh, int destWBytes, int destHBytes)
-    {
-        if (pixels == null) {
-            pixels = new byte[destWBytes * destHBytes];
-        }
-
-        int nybble=2;
-        byte[] nybbles = new byte[2];
-        int idx = startOffset;
-        for (int y = 0; y < rrh && (y+starty) < destHBytes; ++y) {
-            for (int x = 0; x < rrw; ++x) {
-                if (nybble > 1){
-                    byte twoPix = fileData[idx++];
-                    nybbles[0] = (byte)((twoPix) & 0x0f);
-                    nybbles[1] = (byte)((twoPix >> 4) & 0x0f);
-                    nybble = 0;
-                }
-                int destIdx = (y+starty) * destWBytes + (x + startx);
-                pixels[destIdx] = nybbles[nybble];
-                ++nybble;
-            }
-        }
-        return pixels;
-    }
-
-    private static PalEntry[] readPixels32(byte[] fileData, int startOffset, int w, int h)
-    {
-        int numPixels = w * h;
-        PalEntry[] pixels = new PalEntry[numPixels];
-        int destIdx = 0;
-        int endOffset = startOffset + numPixels * 4;
-        for (int idx = startOffset; idx < endOffset; ) {
-            PalEntry pe = new PalEntry();
-            pe.r = fileData[idx++];
-            pe.g = fileData[idx++];
-            pe.b = fileData[idx++];
-            pe.a = fileData[idx++];
-
-            pixels[destIdx++] = pe;
-        }
-
-        return pixels;
-    }
-
-
-
 }
@@ -2,6 +2,7 @@ package net.ijbrown.jbgda.loaders;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -17,6 +18,13 @@ public class TexLogger {
         log(fileData, fileData.length, writer);
     }
 
+    public void log(ByteBuffer texData, Writer writer) throws IOException
+    {
+        byte[] fileData = DataUtil.getBytes(texData);
+
+        log(fileData, fileData.length, writer);
+    }
+
     private void log(byte[] fileData, int length, Writer writer) throws IOException
     {
         int finalw = DataUtil.getLEShort(fileData, 0);
@@ -0,0 +1,249 @@
+/*  Copyright (C) 2011-2022 Ian Brown
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package net.ijbrown.jbgda.loaders;
+
+import net.ijbrown.elf.Memory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Finds textures and fonts embedded in an executable once it has been loaded into memory.
+ * <p>
+ * Every 16 byte aligned address is tested against the header that TexDecode reads: a plausible size,
+ * an offset to a GS packet and a packet that starts with an A+D tag setting up the transfer registers.
+ * Candidates that pass are confirmed by walking the GIF tags of the packet without decoding any pixels.
+ * A font is a header whose word at 0x10 is the offset to a texture.
+ * <p>
+ * Memory is scanned in chunks in parallel, pages that were never loaded are skipped.
+ */
+public class TexScanner
+{
+    public enum Kind
+    {
+        TEX, FONT
+    }
+
+    /**
+     * @param address    Where the texture or font header is.
+     * @param texAddress Where the texture is, the same as address for a TEX.
+     * @param score      How many of the optional checks passed, higher is more certain.
+     */
+    public record Candidate(Kind kind, int address, int texAddress, int width, int height, int score)
+    {
+    }
+
+    /** Candidates scoring less than this are not reported. */
+    public static final int MIN_SCORE = 2;
+
+    private static final int ALIGNMENT = 16;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int PAGE_SIZE = 4096;
+
+    private static final int MAX_DIMENSION = 1024;
+    private static final int MAX_GIF_OFFSET = 0x10000;
+    private static final int MAX_FONT_OFFSET = 0x100000;
+    private static final int MAX_TAGS = 64;
+
+    private static final int GIF_PACKED = 0;
+    private static final int GIF_IMAGE = 2;
+    private static final int REG_AD = 0x0E;
+
+    private static final int TEXFLUSH = 0x3F;
+    private static final int BITBLTBUF = 0x50;
+    private static final int TRXDIR = 0x53;
+
+    private final Memory memory;
+    private final int size;
+
+    public TexScanner(Memory memory)
+    {
+        this.memory = memory;
+        this.size = memory.getSize();
+    }
+
+    /**
+     * @return The textures and fonts found, best first. A texture used by a font is only reported as
+     *         part of the font.
+     */
+    public List<Candidate> scan()
+    {
+        int numChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<Candidate> found = IntStream.range(0, numChunks).parallel()
+                .mapToObj(chunk -> scanChunk(chunk * CHUNK_SIZE, Math.min(size, (chunk + 1) * CHUNK_SIZE)))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+
+        Set<Integer> fontTextures = new HashSet<>();
+        for (var candidate : found) {
+            if (candidate.kind() == Kind.FONT) {
+                fontTextures.add(candidate.texAddress());
+            }
+        }
+        found.removeIf(c -> c.kind() == Kind.TEX && fontTextures.contains(c.address()));
+        found.sort(Comparator.comparingInt(Candidate::score).reversed().thenComparingInt(Candidate::address));
+        return found;
+    }
+
+    private List<Candidate> scanChunk(int start, int end)
+    {
+        var found = new ArrayList<Candidate>();
+        int address = start;
+        while (address < end) {
+            if (!memory.hasPage(address)) {
+                address = (address + PAGE_SIZE) & -PAGE_SIZE;
+                continue;
+            }
+            int score = scoreTex(address);
+            if (score >= MIN_SCORE) {
+                found.add(new Candidate(Kind.TEX, address, address, memory.get16U(address), memory.get16U(address + 2), score));
+            } else if (score < 0) {
+                int texAddress = getFontTexAddress(address);
+                if (texAddress != 0) {
+                    score = scoreTex(texAddress);
+                    if (score >= MIN_SCORE) {
+                        found.add(new Candidate(Kind.FONT, address, texAddress, memory.get16U(texAddress),
+                                memory.get16U(texAddress + 2), score));
+                    }
+                }
+            }
+            address += ALIGNMENT;
+        }
+        return found;
+    }
+
+    // The texture that a font header at address points to, or 0 if it doesn't look like one.
+    private int getFontTexAddress(int address)
+    {
+        if (address + 0x14 > size) {
+            return 0;
+        }
+        int offset = memory.get32(address + 0x10);
+        if (offset < 0x20 || offset > MAX_FONT_OFFSET || (offset & (ALIGNMENT - 1)) != 0) {
+            return 0;
+        }
+        int texAddress = address + offset;
+        return texAddress < size && memory.hasPage(texAddress) ? texAddress : 0;
+    }
+
+    /**
+     * Checks for a texture at address.
+     *
+     * @return -1 if the header or first GIF tag is wrong, otherwise the number of optional checks that
+     *         passed.
+     */
+    int scoreTex(int address)
+    {
+        if (address + 0x14 > size) {
+            return -1;
+        }
+        int width = memory.get16U(address);
+        int height = memory.get16U(address + 2);
+        int dataQwords = memory.get16U(address + 6);
+        int gifOffset = memory.get32(address + 0x10);
+        if (width == 0 || height == 0 || width > MAX_DIMENSION || height > MAX_DIMENSION || dataQwords == 0
+                || gifOffset < 0x20 || gifOffset > MAX_GIF_OFFSET || (gifOffset & (ALIGNMENT - 1)) != 0) {
+            return -1;
+        }
+        int gifAddress = address + gifOffset;
+        int endAddress = gifAddress + dataQwords * 16;
+        if (endAddress > size) {
+            return -1;
+        }
+
+        // The decoder expects an A+D tag setting up the transfer first.
+        int low32 = memory.get32(gifAddress);
+        int next32 = memory.get32(gifAddress + 4);
+        int nloop = low32 & 0x7FFF;
+        if (getFlg(next32) != GIF_PACKED || getNreg(next32) != 1 || (memory.get32(gifAddress + 8) & 0xF) != REG_AD) {
+            return -1;
+        }
+        if (nloop != 3 && nloop != 4) {
+            return -1;
+        }
+        boolean hasBitBlt = false;
+        for (int i = 0; i < nloop; ++i) {
+            int reg = memory.get32(gifAddress + 0x10 + i * 0x10 + 8);
+            if (reg != TEXFLUSH && (reg < BITBLTBUF || reg > TRXDIR)) {
+                return -1;
+            }
+            hasBitBlt |= reg == BITBLTBUF;
+        }
+        if (!hasBitBlt) {
+            return -1;
+        }
+
+        int score = 0;
+        if (nloop == 4) {
+            // Palettised, the first transfer is the palette.
+            int palw = memory.get16U(gifAddress + 0x30);
+            int palh = memory.get16U(gifAddress + 0x34);
+            if ((palw == 8 && palh == 2) || (palw == 16 && palh == 16)) {
+                ++score;
+                int paletteTag = gifAddress + 0x50;
+                int paletteTagNext32 = memory.get32(paletteTag + 4);
+                if (getFlg(paletteTagNext32) == GIF_IMAGE && (memory.get32(paletteTag) & 0x7FFF) * 16 == palw * palh * 4) {
+                    ++score;
+                }
+            }
+        } else {
+            // Unpalettised, 32 bit pixels follow an image tag at a fixed place.
+            int imageTag = address + 0xC0;
+            if (imageTag + 0x10 <= size && getFlg(memory.get32(imageTag + 4)) == GIF_IMAGE) {
+                ++score;
+                if ((memory.get32(imageTag) & 0x7FFF) * 16 >= width * height * 4) {
+                    ++score;
+                }
+            }
+        }
+        return score + scoreTagChain(gifAddress, endAddress);
+    }
+
+    // Follows the GIF tags from start, scoring whether they hold an image and end where the header says.
+    private int scoreTagChain(int start, int end)
+    {
+        boolean hasImage = false;
+        int tagAddress = start;
+        for (int i = 0; i < MAX_TAGS && tagAddress + 0x10 <= end; ++i) {
+            int nloop = memory.get32(tagAddress) & 0x7FFF;
+            int next32 = memory.get32(tagAddress + 4);
+            int flg = getFlg(next32);
+            if (flg == 3 || nloop == 0) {
+                return 0;
+            }
+            int length = flg == GIF_IMAGE ? (nloop + 1) * 0x10 : (nloop * getNreg(next32) + 1) * 0x10;
+            hasImage |= flg == GIF_IMAGE;
+            tagAddress += length;
+        }
+        int score = hasImage ? 1 : 0;
+        if (tagAddress == end) {
+            ++score;
+        }
+        return score;
+    }
+
+    private static int getFlg(int next32)
+    {
+        return (next32 >> (58 - 32)) & 0x3;
+    }
+
+    private static int getNreg(int next32)
+    {
+        int nreg = (next32 >> (60 - 32)) & 0xF;
+        return nreg == 0 ? 16 : nreg;
+    }
+}
@@ -18,6 +18,7 @@ package net.ijbrown.jbgda.loaders;
 import org.joml.Vector3f;
 import org.tinylog.Logger;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -27,6 +28,11 @@ import java.util.Objects;
  */
 public class VifDecode
 {
+    public List<Mesh> decode(ByteBuffer vifData)
+    {
+        return decode(DataUtil.getBytes(vifData), 0);
+    }
+
     public List<Mesh> decode(byte[] data, int startOffset)
     {
         int sig = DataUtil.getLEInt(data, startOffset);
@@ -497,12 +503,12 @@ public class VifDecode
                             // v2-16
                             // I don't know why but the UVs come after the MSCAL instruction.
                             if (previousChunk != null) {
+                                short[] uvs = new short[numCommand * 2];
+                                new BinaryReader(fileData, offset).readShorts(uvs, 0, uvs.length);
                                 for (int uvnum = 0; uvnum < numCommand; ++uvnum) {
-                                    short u = DataUtil.getLEShort(fileData, offset);
-                                    short v = DataUtil.getLEShort(fileData, offset + 2);
-                                    previousChunk.uvs.add(new UV(u, v));
-                                    offset += 4;
+                                    previousChunk.uvs.add(new UV(uvs[uvnum * 2], uvs[uvnum * 2 + 1]));
                                 }
+                                offset += numCommand * 4;
                             } else {
                                 int numBytes = numCommand * 4;
                                 offset += numBytes;
@@ -510,32 +516,29 @@ public class VifDecode
                         } else if (vn == 2 && vl == 1) {
                             // v3-16
                             // each vertex is 128 bits, so num is the number of vertices
-                            for (int vnum = 0; vnum < numCommand; ++vnum) {
-                                if (!usn) {
-                                    short x = DataUtil.getLEShort(fileData, offset);
-                                    short y = DataUtil.getLEShort(fileData, offset + 2);
-                                    short z = DataUtil.getLEShort(fileData, offset + 4);
-                                    offset += 6;
-
+                            var reader = new BinaryReader(fileData, offset);
+                            if (!usn) {
+                                short[] xyz = new short[numCommand * 3];
+                                reader.readShorts(xyz, 0, xyz.length);
+                                for (int vnum = 0; vnum < numCommand; ++vnum) {
                                     Vertex vertex = new Vertex();
-                                    vertex.x = x;
-                                    vertex.y = y;
-                                    vertex.z = z;
+                                    vertex.x = xyz[vnum * 3];
+                                    vertex.y = xyz[vnum * 3 + 1];
+                                    vertex.z = xyz[vnum * 3 + 2];
                                     currentChunk.vertices.add(vertex);
-                                } else {
-                                    int x = DataUtil.getLEUShort(fileData, offset);
-                                    int y = DataUtil.getLEUShort(fileData, offset + 2);
-                                    int z = DataUtil.getLEUShort(fileData, offset + 4);
-                                    offset += 6;
-
+                                }
+                            } else {
+                                int[] xyz = new int[numCommand * 3];
+                                reader.readUShorts(xyz, 0, xyz.length);
+                                for (int vnum = 0; vnum < numCommand; ++vnum) {
                                     VLoc vloc = new VLoc();
-                                    vloc.v1 = x;
-                                    vloc.v2 = y;
-                                    vloc.v3 = z;
+                                    vloc.v1 = xyz[vnum * 3];
+                                    vloc.v2 = xyz[vnum * 3 + 1];
+                                    vloc.v3 = xyz[vnum * 3 + 2];
                                     currentChunk.vlocs.add(vloc);
                                 }
                             }
-                            offset = (offset + 3) & ~3;
+                            offset = reader.align(4).getPosition();
                         } else if (vn == 2 && vl == 2) {
                             // v3-8
                             int idx = offset;
@@ -569,9 +572,7 @@ public class VifDecode
                             int numShorts = numCommand * 4;
                             if (usn) {
                                 currentChunk.extraVlocs = new int[numShorts];
-                                for (int i = 0; i < numShorts; ++i) {
-                                    currentChunk.extraVlocs[i] = DataUtil.getLEUShort(fileData, offset + i * 2);
-                                }
+                                new BinaryReader(fileData, offset).readUShorts(currentChunk.extraVlocs, 0, numShorts);
                             }
                             offset += numBytes;
                         } else if (vn == 3 && vl == 2) {
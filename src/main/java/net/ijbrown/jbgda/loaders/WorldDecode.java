@@ -16,10 +16,14 @@
 package net.ijbrown.jbgda.loaders;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Decodes an xxx.world file.
@@ -28,10 +32,40 @@ public class WorldDecode
 {
     private final GameType gameType;
 
+    private boolean parallel;
+
+    // The files written by decode, and whether everything in the world decoded.
+    private final List<Path> outputs = Collections.synchronizedList(new ArrayList<>());
+    private boolean complete = true;
+
     public WorldDecode(GameType gameType) {
         this.gameType = gameType;
     }
 
+    /**
+     * Decodes the level textures in parallel, see LevelTexDecode.setParallel.
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    /**
+     * The files written by the last decode, the world text and the textures.
+     */
+    public List<Path> getOutputs()
+    {
+        return outputs;
+    }
+
+    /**
+     * @return false if the minimap or any of the level textures failed to decode.
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
     public static void main(String[] args) throws IOException
     {
         GameType gameType = GameType.DARK_ALLIANCE;
@@ -41,6 +75,7 @@ public class WorldDecode
         String extractedDataDir = dataDir+"../DATA_extracted/";
 
         WorldDecode obj = new WorldDecode(gameType);
+        obj.setParallel(true);
         obj.decodeWorld(extractedDataDir, dataDir, "cellar1", "cellar1", true);
         obj.decodeWorld(extractedDataDir, dataDir, "burneye1", "burneye1", true);
         obj.decodeWorld(extractedDataDir, dataDir, "tavern", "pub", true);
@@ -69,13 +104,20 @@ public class WorldDecode
         }
     }
 
+    public void decode(ByteBuffer data, Path outDir, Path levelTexPath, String worldName) throws IOException {
+        decode(DataUtil.getBytes(data), outDir, levelTexPath, worldName);
+    }
+
     public void decode(byte[] data, Path outDir, Path levelTexPath, String worldName) throws IOException {
         fileData = data;
+        outputs.clear();
+        complete = true;
         extractMiniMap(worldName + "_minimap", outDir);
 
         String txt;
         txt = disassemble(outDir.toFile(), levelTexPath.toFile());
         writeFile(worldName + ".world.txt", outDir, txt);
+        outputs.add(outDir.resolve(worldName + ".world.txt"));
     }
 
     private void writeFile(String filename, Path outDirFile, String txt) throws IOException
@@ -114,9 +156,12 @@ public class WorldDecode
         if (miniMapOffset != 0) {
             TexDecode texDecode = new TexDecode();
             try {
-                texDecode.extract(outDir, fileData, miniMapOffset, outputFilename, 0);
+                if (texDecode.extract(outDir, fileData, miniMapOffset, outputFilename, 0)) {
+                    outputs.add(outDir.resolve(outputFilename));
+                }
             } catch (RuntimeException e) {
                 e.printStackTrace();
+                complete = false;
             }
         }
     }
@@ -415,16 +460,23 @@ public class WorldDecode
     private void decodeLevelTexture(StringBuilder sb, File levelTexFile, File outDirFile)
     {
         LevelTexDecode levelTexDecoder = new LevelTexDecode(gameType);
+        levelTexDecoder.setParallel(parallel);
         try {
             levelTexDecoder.read(levelTexFile);
         } catch (IOException ioe){
             sb.append("Failed to read level texture ").append(levelTexFile.getName());
+            complete = false;
             return;
         }
         try {
-            levelTexDecoder.extractAll(outDirFile);
+            List<File> written = new ArrayList<>();
+            if (!levelTexDecoder.extractAll(outDirFile, written)) {
+                complete = false;
+            }
+            written.forEach(file -> outputs.add(file.toPath()));
         } catch (IOException ioe){
             sb.append("Failed export level texture ").append(levelTexFile.getName());
+            complete = false;
         }
     }
 
@@ -447,32 +499,60 @@ public class WorldDecode
         int textureArrayOffset = DataUtil.getLEInt(fileData, 0x64);
 
         LevelTexDecode levelTexDecoder = new LevelTexDecode(gameType);
+        levelTexDecoder.setParallel(parallel);
         boolean canExportTextures=true;
         try {
             levelTexDecoder.read(levelTexFile);
         } catch (IOException ioe){
             sb.append("Failed to read level texture ").append(levelTexFile.getName());
             canExportTextures=false;
+            complete = false;
         }
+        record Export(File outFile, int offset, int texOffset) {}
+
+        // Grid entries in order, with the textures of each to export
+        List<String> lines = new ArrayList<>();
+        List<List<Export>> exports = new ArrayList<>();
         for (int y=ymin; y<=ymax; ++y){
             for (int x=xmin; x <= xmax; ++x){
                 int entryOffset = textureArrayOffset + (x-xmin)*8 + 800 * (y-ymin);
                 int texOffset = DataUtil.getLEInt(fileData, entryOffset);
                 int texLen = DataUtil.getLEInt(fileData, entryOffset+4);
-                sb.append("Tex entry (").append(x).append(",").append(y).append(") = Offset ");
-                sb.append(HexUtil.formatHex(texOffset)).append(", len ").append(HexUtil.formatHex(texLen));
-                sb.append("\r\n");
+                lines.add("Tex entry (" + x + "," + y + ") = Offset " + HexUtil.formatHex(texOffset) + ", len " + HexUtil.formatHex(texLen) + "\r\n");
+                List<Export> entryExports = new ArrayList<>();
                 if (canExportTextures){
                     int n = levelTexDecoder.getNumEntries(texOffset);
                     for (int i=1; i<=n; ++i){
                         File outFile = new File(outDirFile, Integer.toString(x)+ y +'_'+ i +".png");
-                        try {
-                            levelTexDecoder.extract(outFile, texOffset + 0x40*i, texOffset);
-                        } catch (IOException ioe){
-                            sb.append("Failed to export ").append(outFile.getName());
-                        }
+                        entryExports.add(new Export(outFile, texOffset + 0x40*i, texOffset));
                     }
                 }
+                exports.add(entryExports);
+            }
+        }
+
+        // Export every texture, keeping the failures in grid order for the report
+        List<Export> all = exports.stream().flatMap(List::stream).toList();
+        var stream = parallel ? all.parallelStream() : all.stream();
+        Set<Export> failed = ConcurrentHashMap.newKeySet();
+        stream.forEach(export -> {
+            try {
+                if (levelTexDecoder.extract(export.outFile, export.offset, export.texOffset)) {
+                    outputs.add(export.outFile.toPath());
+                }
+            } catch (IOException | RuntimeException e){
+                failed.add(export);
+            }
+        });
+        if (!failed.isEmpty()) {
+            complete = false;
+        }
+        for (int i = 0; i < lines.size(); ++i) {
+            sb.append(lines.get(i));
+            for (var export : exports.get(i)) {
+                if (failed.contains(export)) {
+                    sb.append("Failed to export ").append(export.outFile.getName());
+                }
             }
         }
 
@@ -0,0 +1,139 @@
+package net.ijbrown.elf;
+
+import org.junit.jupiter.api.AfterEach;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityPoolTest {
+
+    private static final int STRTAB = 2;
+    private static final int HELLO = 1;
+    private static final int WORLD = 7;
+
+    // A 32 bit ELF with no program headers and three sections: null, .shstrtab and .strtab.
+    private static Entity makeEntity(String name) {
+        byte[] shstrtab = "\0.shstrtab\0.strtab\0".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] strtab = "\0hello\0world\0".getBytes(StandardCharsets.ISO_8859_1);
+        int shstrtabOffset = FileHeader.headerSize;
+        int strtabOffset = shstrtabOffset + shstrtab.length;
+        int shoff = (strtabOffset + strtab.length + 3) & ~3;
+
+        ByteBuffer buf = ByteBuffer.allocate(shoff + 3 * 40).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(0, new byte[]{FileHeader.ELFMAG0, FileHeader.ELFMAG1, FileHeader.ELFMAG2, FileHeader.ELFMAG3,
+                FileHeader.ELFCLASS32, FileHeader.ELFDATA2LSB});
+        buf.putInt(0x20, shoff);
+        buf.putShort(0x28, (short) FileHeader.headerSize);
+        buf.putShort(0x2E, (short) 40);
+        buf.putShort(0x30, (short) 3);
+        buf.putShort(0x32, (short) 1);
+        buf.put(shstrtabOffset, shstrtab);
+        buf.put(strtabOffset, strtab);
+        putSectHeader(buf, shoff + 40, 1, shstrtabOffset, shstrtab.length);
+        putSectHeader(buf, shoff + 80, 11, strtabOffset, strtab.length);
+
+        var entity = new Entity(name, buf.array());
+        assertEquals(0, entity.parse());
+        return entity;
+    }
+
+    private static void putSectHeader(ByteBuffer buf, int pos, int nameOffset, int offset, int size) {
+        buf.putInt(pos, nameOffset);
+        buf.putInt(pos + 4, SectHeader.SHT_STRTAB);
+        buf.putInt(pos + 16, offset);
+        buf.putInt(pos + 20, size);
+    }
+
+    // Whether the .strtab contents are held in memory
+    private static boolean isLoaded(Entity entity) {
+        return ((StrSection) entity.getSection(STRTAB)).table != null;
+    }
+
+    @AfterEach
+    void resetPool() {
+        EntityPool.clear();
+        EntityPool.setMaxEntities(EntityPool.DEFAULT_MAX_ENTITIES);
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsStrings() {
+        var entity = makeEntity("a");
+        assertEquals(".strtab", entity.getSectionName(STRTAB));
+        assertEquals("hello", entity.getString(STRTAB, HELLO));
+        assertEquals("world", entity.getString(STRTAB, WORLD));
+        assertNull(entity.getString(STRTAB, 0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void evictsLeastRecentlyUsed() {
+        EntityPool.setMaxEntities(2);
+        var a = makeEntity("a");
+        var b = makeEntity("b");
+        var c = makeEntity("c");
+        EntityPool.put("a", a);
+        EntityPool.put("b", b);
+        assertEquals("hello", a.getString(STRTAB, HELLO));
+        assertEquals("hello", b.getString(STRTAB, HELLO));
+
+        // Using a leaves b as the least recently used
+        assertSame(a, EntityPool.get("a"));
+        EntityPool.put("c", c);
+        assertEquals(2, EntityPool.size());
+        assertNull(EntityPool.get("b"));
+        assertSame(a, EntityPool.get("a"));
+        assertSame(c, EntityPool.get("c"));
+
+        // Evicting dropped b's sections, they are read again if needed
+        assertFalse(isLoaded(b));
+        assertTrue(isLoaded(a));
+        assertEquals("world", b.getString(STRTAB, WORLD));
+
+        EntityPool.setMaxEntities(1);
+        assertEquals(1, EntityPool.size());
+        assertNull(EntityPool.get("a"));
+        assertFalse(isLoaded(a));
+    }
+
+    @org.junit.jupiter.api.Test
+    void pinnedEntitiesAreReleasedWhenUnpinned() {
+        var a = makeEntity("a");
+        EntityPool.put("a", a);
+        assertEquals("hello", a.getString(STRTAB, HELLO));
+
+        a.pin();
+        a.pin();
+        assertSame(a, EntityPool.remove("a"));
+        assertTrue(isLoaded(a));
+        a.unpin();
+        assertTrue(isLoaded(a));
+        a.unpin();
+        assertFalse(isLoaded(a));
+
+        assertThrows(IllegalStateException.class, a::unpin);
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsWhileBeingReleased() throws InterruptedException {
+        var a = makeEntity("a");
+        var failure = new AtomicReference<Throwable>();
+        var reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100000; ++i) {
+                    assertEquals("world", a.getString(STRTAB, WORLD));
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        while (reader.isAlive()) {
+            a.release();
+        }
+        reader.join();
+        assertNull(failure.get());
+    }
+}
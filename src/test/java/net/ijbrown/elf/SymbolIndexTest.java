@@ -0,0 +1,135 @@
+package net.ijbrown.elf;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolIndexTest {
+
+    // Unnamed symbols so that no string table is needed, given out of address order.
+    private static SymbolIndex makeIndex(int[][] symbols) {
+        List<SymSection.SymEntry> entries = new ArrayList<>();
+        for (int[] symbol : symbols) {
+            var entry = new SymSection.SymEntry();
+            entry.st_value = new Address(symbol[0]);
+            entry.st_size = symbol[1];
+            entries.add(entry);
+        }
+        return new SymbolIndex(null, 0, entries);
+    }
+
+    // The start address of the symbol holding an address, or -1.
+    private static long enclosing(SymbolIndex index, int address) {
+        int symbol = index.findEnclosing(address);
+        return symbol < 0 ? -1 : Integer.toUnsignedLong(index.getAddress(symbol));
+    }
+
+    @org.junit.jupiter.api.Test
+    void findsEnclosingSymbols() {
+        var index = makeIndex(new int[][]{
+                {0x2000, 0x10},
+                {0x1010, 0x10},
+                {0x1000, 0x100},    // holds the two after it
+                {0x1080, 0},        // only its own address
+                {0x80000000, 0x20},
+                {0xFFFFFFF0, 0x10}
+        });
+        assertEquals(6, index.size());
+
+        assertEquals(-1, enclosing(index, 0x0FFF));
+        assertEquals(0x1000, enclosing(index, 0x1000));
+        assertEquals(0x1010, enclosing(index, 0x1015));
+        assertEquals(0x1080, enclosing(index, 0x1080));
+        assertEquals(0x1000, enclosing(index, 0x10FF));
+        assertEquals(-1, enclosing(index, 0x1100));
+        assertEquals(-1, enclosing(index, 0x1FFF));
+        assertEquals(0x2000, enclosing(index, 0x2008));
+        assertEquals(-1, enclosing(index, 0x2010));
+    }
+
+    @org.junit.jupiter.api.Test
+    void walksBackPastShorterSymbols() {
+        var index = makeIndex(new int[][]{
+                {0x1000, 0x100},
+                {0x1010, 0x10},
+                {0x1080, 0},
+                {0x1090, 0x8}
+        });
+        // Each of these starts after a short symbol that has already ended
+        assertEquals(0x1000, enclosing(index, 0x1020));
+        assertEquals(0x1000, enclosing(index, 0x1081));
+        assertEquals(0x1000, enclosing(index, 0x10FF));
+        assertEquals(0x1090, enclosing(index, 0x1097));
+    }
+
+    @org.junit.jupiter.api.Test
+    void skipsSymbolsInsideALargeOne() {
+        // A section sized symbol holding many small ones with gaps between them
+        int count = 200000;
+        int[][] symbols = new int[count + 1][];
+        symbols[0] = new int[]{0x100000, count * 0x10};
+        for (int i = 0; i < count; ++i) {
+            symbols[i + 1] = new int[]{0x100000 + i * 0x10, 8};
+        }
+        var index = makeIndex(symbols);
+
+        // Walking back over the small symbols would make this quadratic
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < count; ++i) {
+                int small = 0x100000 + i * 0x10;
+                assertEquals(small, enclosing(index, small + 4));
+                assertEquals(0x100000, enclosing(index, small + 8));
+            }
+        });
+        assertEquals(-1, enclosing(index, 0x100000 + count * 0x10));
+    }
+
+    @org.junit.jupiter.api.Test
+    void matchesALinearSearch() {
+        var random = new Random(1);
+        int[][] symbols = new int[300][];
+        for (int i = 0; i < symbols.length; ++i) {
+            // Some symbols large enough to overlap many others
+            int size = random.nextInt(10) == 0 ? random.nextInt(0x800) : random.nextInt(0x40);
+            symbols[i] = new int[]{random.nextInt(0x2000), size};
+        }
+        var index = makeIndex(symbols);
+
+        for (int address = 0; address < 0x2900; ++address) {
+            // The enclosing symbol starting nearest below the address, with ties going to the later one
+            int expected = -1;
+            for (int i = 0; i < index.size(); ++i) {
+                int start = index.getAddress(i);
+                if (start <= address && address < start + Math.max(1, index.getSize(i))) {
+                    expected = i;
+                }
+            }
+            assertEquals(expected, index.findEnclosing(address), "address " + address);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void sortsAddressesAsUnsigned() {
+        var index = makeIndex(new int[][]{
+                {0xFFFFFFF0, 0x10},
+                {0x80000000, 0x20},
+                {0x100, 0x10}
+        });
+        assertEquals(0x100, index.getAddress(0));
+        assertEquals(0x80000000, index.getAddress(1));
+        assertEquals(-1, enclosing(index, 0x7FFFFFFF));
+        assertEquals(0x80000000L, enclosing(index, 0x8000001F));
+        assertEquals(-1, enclosing(index, 0x80000020));
+        assertEquals(0xFFFFFFF0L, enclosing(index, 0xFFFFFFFF));
+    }
+
+    @org.junit.jupiter.api.Test
+    void describesAddressesWithoutNamesAsHex() {
+        var index = makeIndex(new int[][]{{0x1000, 0x100}});
+        assertEquals("0x00001010", index.describe(0x1010));
+        assertEquals("0x00002000", index.describe(0x2000));
+    }
+}
@@ -0,0 +1,117 @@
+package net.ijbrown.jbgda.loaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Builds small archives in the Champions of Norrath formats for the tests.
+ */
+class ArchiveFixtures {
+
+    static final GameType GAME_TYPE = GameType.CHAMPIONS_OF_NORRATH;
+
+    /**
+     * An lmp with the entries in map order. The directory holds a string offset, data offset and length
+     * for each entry and is followed by the names and then the data.
+     */
+    static byte[] lmp(Map<String, byte[]> entries) {
+        int stringsOffset = 4 + entries.size() * 0x0C;
+        int dataOffset = stringsOffset;
+        for (var name : entries.keySet()) {
+            dataOffset += name.length() + 1;
+        }
+        int size = dataOffset;
+        for (var data : entries.values()) {
+            size += data.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, entries.size());
+        int rec = 4;
+        for (var entry : entries.entrySet()) {
+            buf.putInt(rec, stringsOffset);
+            buf.putInt(rec + 4, dataOffset);
+            buf.putInt(rec + 8, entry.getValue().length);
+            buf.put(stringsOffset, entry.getKey().getBytes(StandardCharsets.ISO_8859_1));
+            buf.put(dataOffset, entry.getValue());
+            stringsOffset += entry.getKey().length() + 1;
+            dataOffset += entry.getValue().length;
+            rec += 0x0C;
+        }
+        return buf.array();
+    }
+
+    /**
+     * A GOB holding the given lmps, a table of 0x28 byte name and offset entries followed by the lmps.
+     */
+    static byte[] gob(Map<String, byte[]> lmps) {
+        int offset = (lmps.size() + 1) * 0x28;
+        int size = offset;
+        for (var lmp : lmps.values()) {
+            size += lmp.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        int rec = 0;
+        for (var lmp : lmps.entrySet()) {
+            buf.put(rec, lmp.getKey().getBytes(StandardCharsets.ISO_8859_1));
+            buf.putInt(rec + 0x20, offset);
+            buf.put(offset, lmp.getValue());
+            offset += lmp.getValue().length;
+            rec += 0x28;
+        }
+        return buf.array();
+    }
+
+    /**
+     * Writes an EQCACHE style HDR and DAT. Each element of an entry is given as {id, start sector, sectors}.
+     */
+    static void writeHdrDat(Path hdrPath, Path datPath, Map<String, int[][]> entries, byte[] dat) throws IOException {
+        int numElements = 0;
+        for (var elements : entries.values()) {
+            numElements += elements.length;
+        }
+        int elementsOffset = 4 + entries.size() * 12;
+        int stringsOffset = elementsOffset + numElements * 8;
+        int size = stringsOffset;
+        for (var name : entries.keySet()) {
+            size += name.length() + 1;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, entries.size());
+        int rec = 4;
+        for (var entry : entries.entrySet()) {
+            buf.putInt(rec, elementsOffset);
+            buf.putInt(rec + 4, stringsOffset);
+            buf.putInt(rec + 8, entry.getValue().length);
+            for (int[] element : entry.getValue()) {
+                buf.putShort(elementsOffset, (short) element[0]);
+                buf.putShort(elementsOffset + 2, (short) element[2]);
+                buf.putInt(elementsOffset + 4, element[1]);
+                elementsOffset += 8;
+            }
+            buf.put(stringsOffset, entry.getKey().getBytes(StandardCharsets.ISO_8859_1));
+            stringsOffset += entry.getKey().length() + 1;
+            rec += 12;
+        }
+        Files.write(hdrPath, buf.array());
+        Files.write(datPath, dat);
+    }
+
+    /**
+     * Data where each byte is distinct from its neighbours, so misplaced reads are caught.
+     */
+    static byte[] pattern(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + (i >> 8) * 7 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,170 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveIndexTest {
+
+    private static final byte[] CHEST_VIF = ArchiveFixtures.pattern(300, 1);
+    private static final byte[] CHEST_TEX = ArchiveFixtures.pattern(77, 2);
+    private static final byte[] TOWN_WORLD = ArchiveFixtures.pattern(500, 3);
+    private static final byte[] CAVE_WORLD = ArchiveFixtures.pattern(64, 4);
+
+    @TempDir
+    Path dataDir;
+
+    @TempDir
+    Path extractedDir;
+
+    private Path indexPath() {
+        return extractedDir.resolve(ArchiveIndex.FILENAME);
+    }
+
+    private void writeArchives() throws IOException {
+        var chest = new LinkedHashMap<String, byte[]>();
+        chest.put("chest.vif", CHEST_VIF);
+        chest.put("chest.tex", CHEST_TEX);
+        Files.write(dataDir.resolve("CHEST.LMP"), ArchiveFixtures.lmp(chest));
+
+        var lmps = new LinkedHashMap<String, byte[]>();
+        lmps.put("town.lmp", ArchiveFixtures.lmp(Map.of("town.world", TOWN_WORLD)));
+        lmps.put("cave.lmp", ArchiveFixtures.lmp(Map.of("cave.world", CAVE_WORLD)));
+        Files.write(dataDir.resolve("CUTTOWN.GOB"), ArchiveFixtures.gob(lmps));
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    @org.junit.jupiter.api.Test
+    void findsEntries() throws IOException {
+        writeArchives();
+        var index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        assertTrue(Files.exists(indexPath()));
+        assertEquals(4, index.size());
+
+        var entry = index.find("CUTTOWN_GOB/cave_lmp/cave.world");
+        assertNotNull(entry);
+        assertEquals("CUTTOWN.GOB", entry.container);
+        assertEquals("world", entry.type);
+        assertEquals(CAVE_WORLD.length, entry.length);
+        assertArrayEquals(CAVE_WORLD, bytes(index.read(entry)));
+        assertArrayEquals(CHEST_TEX, bytes(index.read("CHEST_LMP/chest.tex")));
+
+        assertNull(index.find("CHEST_LMP/chest.anm"));
+        assertNull(index.find("CUTTOWN_GOB/town_lmp/cave.world"));
+        assertThrows(NoSuchFileException.class, () -> index.read("CHEST_LMP/chest.anm"));
+
+        var byName = index.findByName("town.world");
+        assertEquals(1, byName.size());
+        assertEquals("CUTTOWN_GOB/town_lmp/town.world", byName.get(0).path);
+        assertEquals(List.of(), index.findByName("chest.anm"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void rebuildsWhenAnArchiveChanges() throws IOException {
+        writeArchives();
+        ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+
+        // An up to date index is mapped, not rewritten
+        var marker = FileTime.fromMillis(1000000000L);
+        Files.setLastModifiedTime(indexPath(), marker);
+        var index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        assertEquals(marker, Files.getLastModifiedTime(indexPath()));
+        assertNotNull(index.find("CHEST_LMP/chest.vif"));
+
+        var chestPath = dataDir.resolve("CHEST.LMP");
+        var chestTime = Files.getLastModifiedTime(chestPath);
+        Files.write(chestPath, ArchiveFixtures.lmp(Map.of("chest.anm", CHEST_TEX)));
+        Files.setLastModifiedTime(chestPath, FileTime.fromMillis(chestTime.toMillis() + 2000));
+
+        index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        assertNotEquals(marker, Files.getLastModifiedTime(indexPath()));
+        assertEquals(3, index.size());
+        assertNull(index.find("CHEST_LMP/chest.vif"));
+        assertArrayEquals(CHEST_TEX, bytes(index.read("CHEST_LMP/chest.anm")));
+    }
+
+    @org.junit.jupiter.api.Test
+    void rebuildsATruncatedIndex() throws IOException {
+        writeArchives();
+        ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        byte[] good = Files.readAllBytes(indexPath());
+
+        // Cut off in the header, the archive records, the entries and the strings
+        for (int length : new int[]{0, 0x20, 0x30, 0x80, good.length - 1}) {
+            Files.write(indexPath(), Arrays.copyOf(good, length));
+            var index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+            assertArrayEquals(good, Files.readAllBytes(indexPath()), "length " + length);
+            assertEquals(4, index.size());
+            assertArrayEquals(CAVE_WORLD, bytes(index.read("CUTTOWN_GOB/cave_lmp/cave.world")));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void rebuildsACorruptIndex() throws IOException {
+        writeArchives();
+        ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        byte[] good = Files.readAllBytes(indexPath());
+        var header = ByteBuffer.wrap(good).order(ByteOrder.LITTLE_ENDIAN);
+        int entriesOffset = header.getInt(0x1C);
+        int slotsOffset = header.getInt(0x20);
+
+        // A name past the strings, an entry in an archive that doesn't exist and a slot past the entries
+        int[][] corruptions = {{0x28, 0x7FFFFFF0}, {entriesOffset + 12, 99}, {slotsOffset, 1000}, {0x14, 1000}};
+        for (int[] corruption : corruptions) {
+            byte[] corrupt = good.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(corruption[0], corruption[1]);
+            Files.write(indexPath(), corrupt);
+            var index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+            assertArrayEquals(good, Files.readAllBytes(indexPath()), "offset " + corruption[0]);
+            assertArrayEquals(CHEST_VIF, bytes(index.read("CHEST_LMP/chest.vif")));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void handlesArchivesTooLargeToMap() throws IOException {
+        writeArchives();
+
+        // A sparse GOB with its lmp past 2GB, which has to be read an entry at a time
+        long lmpOffset = 0x80001000L;
+        byte[] table = new byte[2 * 0x28];
+        System.arraycopy("big.lmp".getBytes(StandardCharsets.ISO_8859_1), 0, table, 0, 7);
+        ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN).putInt(0x20, (int) lmpOffset);
+        try (var channel = FileChannel.open(dataDir.resolve("BIG.GOB"), CREATE_NEW, WRITE)) {
+            channel.write(ByteBuffer.wrap(table), 0);
+            channel.write(ByteBuffer.wrap(ArchiveFixtures.lmp(Map.of("big.world", TOWN_WORLD))), lmpOffset);
+        }
+        // An lmp can't be that large, it is left out of the index
+        try (var channel = FileChannel.open(dataDir.resolve("HUGE.LMP"), CREATE_NEW, WRITE)) {
+            channel.write(ByteBuffer.allocate(4), lmpOffset);
+        }
+
+        var index = ArchiveIndex.open(dataDir, ArchiveFixtures.GAME_TYPE, indexPath());
+        assertEquals(5, index.size());
+        var entry = index.find("BIG_GOB/big_lmp/big.world");
+        assertNotNull(entry);
+        assertTrue(entry.offset > lmpOffset);
+        assertArrayEquals(TOWN_WORLD, bytes(index.read(entry)));
+        assertArrayEquals(CHEST_VIF, bytes(index.read("CHEST_LMP/chest.vif")));
+    }
+}
@@ -0,0 +1,130 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.ijbrown.jbgda.loaders.HdrDatArchive.SECTOR_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssetFileSystemTest {
+
+    private static final byte[] CHEST_VIF = ArchiveFixtures.pattern(300, 1);
+    private static final byte[] CHEST_TEX = ArchiveFixtures.pattern(77, 2);
+    private static final byte[] TOWN_WORLD = ArchiveFixtures.pattern(500, 3);
+    private static final byte[] TOWN_TEX = ArchiveFixtures.pattern(123, 4);
+    private static final byte[] CAVE_WORLD = ArchiveFixtures.pattern(64, 5);
+    private static final byte[] DAT = ArchiveFixtures.pattern(3 * SECTOR_SIZE, 6);
+
+    @TempDir
+    Path dataDir;
+
+    private AssetFileSystem open() throws IOException {
+        var chest = new LinkedHashMap<String, byte[]>();
+        chest.put("chest.vif", CHEST_VIF);
+        chest.put("chest.tex", CHEST_TEX);
+        Files.write(dataDir.resolve("CHEST.LMP"), ArchiveFixtures.lmp(chest));
+
+        var town = new LinkedHashMap<String, byte[]>();
+        town.put("town.world", TOWN_WORLD);
+        town.put("town.tex", TOWN_TEX);
+        var lmps = new LinkedHashMap<String, byte[]>();
+        lmps.put("town.lmp", ArchiveFixtures.lmp(town));
+        lmps.put("cave.lmp", ArchiveFixtures.lmp(Map.of("cave.world", CAVE_WORLD)));
+        Files.write(dataDir.resolve("CUTTOWN.GOB"), ArchiveFixtures.gob(lmps));
+
+        ArchiveFixtures.writeHdrDat(dataDir.resolve("EQCACHE.HDR"), dataDir.resolve("EQCACHE.DAT"),
+                Map.of("sword", new int[][]{{5, 1, 1}, {6, 2, 1}}), DAT);
+
+        return new AssetFileSystem(dataDir, ArchiveFixtures.GAME_TYPE);
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    @org.junit.jupiter.api.Test
+    void resolvesPaths() throws IOException {
+        try (var fs = open()) {
+            assertEquals(List.of("CHEST_LMP", "CUTTOWN_GOB", "EQCACHE_HDR"), List.copyOf(fs.getArchiveNames()));
+            assertEquals(List.of("CHEST_LMP/chest.vif", "CHEST_LMP/chest.tex"), fs.list("CHEST_LMP"));
+
+            assertTrue(fs.exists("CHEST_LMP/chest.tex"));
+            assertFalse(fs.exists("CHEST_LMP/chest.anm"));
+            assertFalse(fs.exists("CHEST_LMP"));
+            assertFalse(fs.exists("BARREL_LMP/barrel.vif"));
+            assertFalse(fs.exists("chest.tex"));
+
+            assertArrayEquals(CHEST_VIF, bytes(fs.read("CHEST_LMP/chest.vif")));
+            assertArrayEquals(CHEST_TEX, bytes(fs.read("CHEST_LMP/chest.tex")));
+            assertThrows(NoSuchFileException.class, () -> fs.read("CHEST_LMP/chest.anm"));
+            assertThrows(NoSuchFileException.class, () -> fs.read("BARREL_LMP/barrel.vif"));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void findsLmpsInGobs() throws IOException {
+        try (var fs = open()) {
+            assertEquals(List.of("CUTTOWN_GOB/town_lmp/town.world", "CUTTOWN_GOB/town_lmp/town.tex",
+                    "CUTTOWN_GOB/cave_lmp/cave.world"), fs.list("CUTTOWN_GOB"));
+
+            assertTrue(fs.exists("CUTTOWN_GOB/cave_lmp/cave.world"));
+            assertFalse(fs.exists("CUTTOWN_GOB/town_lmp/cave.world"));
+            assertFalse(fs.exists("CUTTOWN_GOB/town.world"));
+
+            assertArrayEquals(TOWN_WORLD, bytes(fs.read("CUTTOWN_GOB/town_lmp/town.world")));
+            assertArrayEquals(TOWN_TEX, bytes(fs.read("CUTTOWN_GOB/town_lmp/town.tex")));
+            assertArrayEquals(CAVE_WORLD, bytes(fs.read("CUTTOWN_GOB/cave_lmp/cave.world")));
+
+            // The location is relative to the GOB, not the lmp
+            var location = fs.locate("CUTTOWN_GOB/cave_lmp/cave.world");
+            assertEquals(dataDir.resolve("CUTTOWN.GOB"), location.file());
+            byte[] gob = Files.readAllBytes(location.file());
+            int start = Math.toIntExact(location.offset());
+            assertArrayEquals(CAVE_WORLD, Arrays.copyOfRange(gob, start, start + location.length()));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsHdrDatElements() throws IOException {
+        try (var fs = open()) {
+            assertEquals(List.of("EQCACHE_HDR/sword/sword-el_0-id_5.tex", "EQCACHE_HDR/sword/sword-el_1-id_6.vif"),
+                    fs.list("EQCACHE_HDR"));
+
+            assertArrayEquals(Arrays.copyOfRange(DAT, SECTOR_SIZE, 2 * SECTOR_SIZE),
+                    bytes(fs.read("EQCACHE_HDR/sword/sword-el_0-id_5.tex")));
+            assertArrayEquals(Arrays.copyOfRange(DAT, 2 * SECTOR_SIZE, 3 * SECTOR_SIZE),
+                    bytes(fs.read("EQCACHE_HDR/sword/sword-el_1-id_6.vif")));
+
+            var location = fs.locate("EQCACHE_HDR/sword/sword-el_1-id_6.vif");
+            assertEquals(dataDir.resolve("EQCACHE.DAT"), location.file());
+            assertEquals(2 * SECTOR_SIZE, location.offset());
+            assertEquals(SECTOR_SIZE, location.length());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void entriesHashLikeTheirExtractedFiles() throws IOException {
+        var extracted = Files.createDirectories(dataDir.resolve("CUTTOWN_GOB/town_lmp"));
+        Files.write(extracted.resolve("town.world"), TOWN_WORLD);
+        Files.write(dataDir.resolve("TOWN.TEX"), TOWN_TEX);
+        var files = List.of(extracted.resolve("town.world"), extracted.resolve("town.anm"), dataDir.resolve("TOWN.TEX"));
+        try (var fs = open()) {
+            var entries = List.of("CUTTOWN_GOB/town_lmp/town.world", "CUTTOWN_GOB/town_lmp/town.anm");
+            assertEquals(ExtractManifest.hash(files),
+                    ExtractManifest.hash(fs, entries, List.of(dataDir.resolve("TOWN.TEX"))));
+            assertNotEquals(ExtractManifest.hash(files),
+                    ExtractManifest.hash(fs, entries.subList(0, 1), List.of(dataDir.resolve("TOWN.TEX"))));
+        }
+    }
+}
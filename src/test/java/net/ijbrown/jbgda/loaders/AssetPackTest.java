@@ -0,0 +1,237 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssetPackTest {
+
+    private static final float[] POSITIONS = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+    private static final float[] NORMALS = {10, 11, 12, 13, 14, 15, 16, 17, 18};
+    private static final float[] TANGENTS = {20, 21, 22, 23, 24, 25, 26, 27, 28};
+    private static final float[] BITANGENTS = {30, 31, 32, 33, 34, 35, 36, 37, 38};
+    private static final float[] UVS = {0.5f, 0.25f, 0.75f, 1.0f, 0.0f, 0.125f};
+    private static final int[] INDICES = {0, 1, 2, 2, 1, 0};
+
+    @TempDir
+    Path dir;
+
+    private static float[] expectedVertex(int v, boolean hasUvs) {
+        int p = v * 3;
+        return new float[]{
+                POSITIONS[p], POSITIONS[p + 1], POSITIONS[p + 2],
+                NORMALS[p], NORMALS[p + 1], NORMALS[p + 2],
+                TANGENTS[p], TANGENTS[p + 1], TANGENTS[p + 2],
+                BITANGENTS[p], BITANGENTS[p + 1], BITANGENTS[p + 2],
+                hasUvs ? UVS[v * 2] : 0, hasUvs ? UVS[v * 2 + 1] : 0};
+    }
+
+    private Path writePack() throws IOException {
+        byte[] rgba = ArchiveFixtures.pattern(3 * 2 * 4, 1);
+        var writer = new AssetPack.Writer();
+        writer.addTextureRgba("tex", 3, 2, ByteBuffer.wrap(rgba));
+        writer.addMesh("mesh_0", POSITIONS, NORMALS, TANGENTS, BITANGENTS, UVS, INDICES, 0);
+        writer.addMesh("mesh_1", POSITIONS, NORMALS, TANGENTS, BITANGENTS, null, INDICES, 1);
+        Path path = dir.resolve("test.pack");
+        writer.write(path);
+        return path;
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsBackWhatWasWritten() throws IOException {
+        Path path = writePack();
+        var pack = AssetPack.open(path);
+        assertEquals(List.of("tex", "mesh_0", "mesh_1"), pack.getRecords().stream().map(r -> r.name).toList());
+
+        var tex = pack.find("tex");
+        assertEquals(AssetPack.Kind.TEXTURE_RGBA, tex.kind);
+        assertEquals(3, tex.getWidth());
+        assertEquals(2, tex.getHeight());
+        var texData = pack.getData(tex);
+        byte[] rgba = new byte[texData.remaining()];
+        texData.get(rgba);
+        assertArrayEquals(ArchiveFixtures.pattern(3 * 2 * 4, 1), rgba);
+
+        for (int m = 0; m < 2; ++m) {
+            var mesh = pack.find("mesh_" + m);
+            assertEquals(AssetPack.Kind.MESH, mesh.kind);
+            assertEquals(3, mesh.getNumVertices());
+            assertEquals(INDICES.length, mesh.getNumIndices());
+            assertEquals(m, mesh.getMaterialIdx());
+
+            var vertices = pack.getVertices(mesh);
+            assertEquals(3 * AssetPack.VERTEX_FLOATS * 4, vertices.remaining());
+            for (int v = 0; v < 3; ++v) {
+                float[] vertex = new float[AssetPack.VERTEX_FLOATS];
+                for (int i = 0; i < vertex.length; ++i) {
+                    vertex[i] = vertices.getFloat();
+                }
+                assertArrayEquals(expectedVertex(v, m == 0), vertex);
+            }
+
+            var indices = pack.getIndices(mesh);
+            int[] read = new int[indices.remaining() / 4];
+            for (int i = 0; i < read.length; ++i) {
+                read[i] = indices.getInt();
+            }
+            assertArrayEquals(INDICES, read);
+        }
+        assertNull(pack.find("mesh_2"));
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    private static float[] floats(ByteBuffer buf) {
+        float[] data = new float[buf.remaining() / 4];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = buf.getFloat();
+        }
+        return data;
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsBackIndexedTextures() throws IOException {
+        byte[] indices = ArchiveFixtures.pattern(5 * 3, 2);
+        byte[] palette = ArchiveFixtures.pattern(16 * 4, 3);
+        var writer = new AssetPack.Writer();
+        writer.addTextureIndexed("font", 5, 3, ByteBuffer.wrap(indices), ByteBuffer.wrap(palette));
+        assertThrows(IllegalArgumentException.class,
+                () -> writer.addTextureIndexed("bad", 4, 4, ByteBuffer.wrap(indices), ByteBuffer.wrap(palette)));
+        Path path = dir.resolve("test.pack");
+        writer.write(path);
+
+        var pack = AssetPack.open(path);
+        var font = pack.find("font");
+        assertEquals(AssetPack.Kind.TEXTURE_INDEXED, font.kind);
+        assertEquals(5, font.getWidth());
+        assertEquals(3, font.getHeight());
+        assertEquals(16, font.getNumPaletteEntries());
+        assertArrayEquals(indices, bytes(pack.getPixels(font)));
+        assertArrayEquals(palette, bytes(pack.getPalette(font)));
+        assertNull(pack.find("bad"));
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsBackAnimations() throws IOException {
+        int numJoints = 2;
+        float[] times = {0.0f, 0.5f, 1.25f};
+        List<float[]> frames = new ArrayList<>();
+        for (int f = 0; f < times.length; ++f) {
+            float[] frame = new float[numJoints * 16];
+            for (int i = 0; i < frame.length; ++i) {
+                frame[i] = f * 100 + i;
+            }
+            frames.add(frame);
+        }
+        var writer = new AssetPack.Writer();
+        writer.addAnimation("open", numJoints, times, frames);
+        Path path = dir.resolve("test.pack");
+        writer.write(path);
+
+        var pack = AssetPack.open(path);
+        var open = pack.find("open");
+        assertEquals(AssetPack.Kind.ANIMATION, open.kind);
+        assertEquals(numJoints, open.getNumJoints());
+        assertEquals(times.length, open.getNumFrames());
+        assertEquals(1.25f, open.getDuration());
+        for (int f = 0; f < times.length; ++f) {
+            assertArrayEquals(frames.get(f), floats(pack.getFrame(open, f)));
+        }
+        assertArrayEquals(times, floats(pack.getFrameTimes(open)));
+    }
+
+    @org.junit.jupiter.api.Test
+    void storesAnmKeyFramesAsJointMatrices() throws IOException {
+        var anm = new AnmData();
+        anm.name = "chest_open.anm";
+        anm.numJoints = 2;
+        anm.keyFrames = new ArrayList<>();
+        for (int f = 0; f < 2; ++f) {
+            var keyFrame = new AnmData.KeyFrame();
+            keyFrame.timestamp = f * 0.25f;
+            keyFrame.jointPositions = List.of(new Vector3f(1, 2, 3 + f), new Vector3f(-4, 5, 6));
+            keyFrame.jointRotations = List.of(new Quaternionf().rotateX(0.5f * f), new Quaternionf().rotateZ(1.0f));
+            anm.keyFrames.add(keyFrame);
+        }
+        var writer = new AssetPack.Writer();
+        writer.addAnimation(anm);
+        Path path = dir.resolve("test.pack");
+        writer.write(path);
+
+        var pack = AssetPack.open(path);
+        var clip = pack.find("chest_open.anm");
+        assertEquals(2, clip.getNumJoints());
+        assertEquals(2, clip.getNumFrames());
+        assertEquals(0.25f, clip.getDuration());
+        for (int f = 0; f < 2; ++f) {
+            var keyFrame = anm.keyFrames.get(f);
+            float[] frame = floats(pack.getFrame(clip, f));
+            for (int joint = 0; joint < 2; ++joint) {
+                var expected = new Matrix4f().translationRotate(keyFrame.jointPositions.get(joint), keyFrame.jointRotations.get(joint));
+                var read = new Matrix4f().set(frame, joint * 16);
+                assertTrue(expected.equals(read, 1e-6f), "frame " + f + " joint " + joint);
+                // The translation is in the last column
+                assertEquals(keyFrame.jointPositions.get(joint).z, frame[joint * 16 + 14]);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void alignsDataToPages() throws IOException {
+        Path path = writePack();
+        var pack = AssetPack.open(path);
+        long end = 0;
+        for (var record : pack.getRecords()) {
+            assertEquals(0, record.offset % AssetPack.PAGE_SIZE, record.name);
+            assertTrue(record.offset >= end, record.name);
+            end = record.offset + record.length;
+        }
+        assertEquals(0, Files.size(path) % AssetPack.PAGE_SIZE);
+        assertTrue(Files.size(path) >= end);
+    }
+
+    @org.junit.jupiter.api.Test
+    void isRebuiltWhenASourceChanges() throws IOException {
+        Path source = dir.resolve("CHEST.LMP");
+        Files.write(source, new byte[16]);
+        Path path = dir.resolve("test.pack");
+        assertFalse(AssetPack.isUpToDate(path, source));
+
+        writePack();
+        var packTime = Files.getLastModifiedTime(path);
+        Files.setLastModifiedTime(source, FileTime.fromMillis(packTime.toMillis() - 1000));
+        assertTrue(AssetPack.isUpToDate(path, source));
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(packTime.toMillis() + 1000));
+        assertFalse(AssetPack.isUpToDate(path, source));
+
+        writePack();
+        Files.setLastModifiedTime(path, FileTime.fromMillis(packTime.toMillis() + 2000));
+        assertTrue(AssetPack.isUpToDate(path, source));
+
+        // A pack in an older format is rebuilt whatever its age
+        byte[] data = Files.readAllBytes(path);
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 2);
+        Files.write(path, data);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(packTime.toMillis() + 2000));
+        assertFalse(AssetPack.isUpToDate(path, source));
+        Files.write(path, new byte[4]);
+        assertFalse(AssetPack.isUpToDate(path, source));
+    }
+}
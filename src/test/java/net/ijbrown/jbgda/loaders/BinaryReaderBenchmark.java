@@ -0,0 +1,119 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading little endian values with BinaryReader against assembling them a byte at a time,
+ * which is how DataUtil used to read them.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=net.ijbrown.jbgda.loaders.BinaryReaderBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryReaderBenchmark
+{
+    private static final int SIZE = 64 * 1024;
+
+    private byte[] data;
+    private short[] shorts;
+
+    @Setup
+    public void setup()
+    {
+        data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        shorts = new short[SIZE / 2];
+    }
+
+    private static int shiftInt(byte[] data, int offset)
+    {
+        return data[offset + 3] << 24 | (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff);
+    }
+
+    private static short shiftShort(byte[] data, int offset)
+    {
+        return (short) ((data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff));
+    }
+
+    @Benchmark
+    public int intsByShifting()
+    {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += shiftInt(data, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int intsByVarHandle()
+    {
+        int sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += BinaryReader.getInt(data, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int intsByCursor()
+    {
+        var reader = new BinaryReader(data, 0);
+        int sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += reader.readInt();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float floatsByShifting()
+    {
+        float sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += Float.intBitsToFloat(shiftInt(data, i));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float floatsByVarHandle()
+    {
+        float sum = 0;
+        for (int i = 0; i < SIZE; i += 4) {
+            sum += BinaryReader.getFloat(data, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public short[] shortBlockByShifting()
+    {
+        for (int i = 0; i < shorts.length; ++i) {
+            shorts[i] = shiftShort(data, i * 2);
+        }
+        return shorts;
+    }
+
+    @Benchmark
+    public short[] shortBlockBulk()
+    {
+        new BinaryReader(data, 0).readShorts(shorts, 0, shorts.length);
+        return shorts;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(BinaryReaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
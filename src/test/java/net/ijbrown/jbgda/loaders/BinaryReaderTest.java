@@ -0,0 +1,118 @@
+package net.ijbrown.jbgda.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryReaderTest {
+
+    private static final byte[] DATA = ArchiveFixtures.pattern(64, 3);
+
+    private static ByteBuffer le() {
+        return ByteBuffer.wrap(DATA).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsScalarsAtAnyOffset() {
+        var buf = le();
+        for (int offset = 0; offset <= DATA.length - 8; ++offset) {
+            assertEquals(buf.getShort(offset), BinaryReader.getShort(DATA, offset));
+            assertEquals(buf.getShort(offset) & 0xFFFF, BinaryReader.getUShort(DATA, offset));
+            assertEquals(buf.getInt(offset), BinaryReader.getInt(DATA, offset));
+            assertEquals(buf.getLong(offset), BinaryReader.getLong(DATA, offset));
+            assertEquals(Float.floatToRawIntBits(buf.getFloat(offset)),
+                    Float.floatToRawIntBits(BinaryReader.getFloat(DATA, offset)));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsSignedAndUnsignedShorts() {
+        byte[] data = {(byte) 0xFE, (byte) 0xFF, 0x34, 0x12};
+        assertEquals(-2, BinaryReader.getShort(data, 0));
+        assertEquals(0xFFFE, BinaryReader.getUShort(data, 0));
+        assertEquals(0x1234, BinaryReader.getUShort(data, 2));
+        assertEquals(0x1234FFFE, BinaryReader.getInt(data, 0));
+    }
+
+    @org.junit.jupiter.api.Test
+    void movesTheCursorPastWhatWasRead() {
+        var buf = le();
+        var reader = new BinaryReader(DATA, 1);
+        assertSame(DATA, reader.getData());
+        assertEquals(DATA[1], reader.readByte());
+        assertEquals(DATA[2] & 0xFF, reader.readUByte());
+        assertEquals(buf.getShort(3), reader.readShort());
+        assertEquals(buf.getShort(5) & 0xFFFF, reader.readUShort());
+        assertEquals(buf.getInt(7), reader.readInt());
+        assertEquals(buf.getLong(11), reader.readLong());
+        assertEquals(buf.getFloat(19), reader.readFloat());
+        assertEquals(23, reader.getPosition());
+
+        assertEquals(24, reader.align(4).getPosition());
+        assertEquals(24, reader.align(4).getPosition());
+        assertEquals(32, reader.skip(1).align(16).getPosition());
+        assertEquals(buf.getInt(40), reader.skip(8).readInt());
+        assertEquals(buf.getInt(2), reader.setPosition(2).readInt());
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsBlocks() {
+        var buf = le();
+        var reader = new BinaryReader(DATA, 3);
+
+        short[] shorts = new short[6];
+        reader.readShorts(shorts, 1, 4);
+        assertEquals(0, shorts[0]);
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(buf.getShort(3 + i * 2), shorts[1 + i]);
+        }
+        assertEquals(0, shorts[5]);
+        assertEquals(11, reader.getPosition());
+
+        int[] ushorts = new int[3];
+        reader.readUShorts(ushorts, 0, 3);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(buf.getShort(11 + i * 2) & 0xFFFF, ushorts[i]);
+        }
+        assertEquals(17, reader.getPosition());
+
+        int[] ints = new int[4];
+        reader.readInts(ints, 2, 2);
+        assertArrayEquals(new int[]{0, 0, buf.getInt(17), buf.getInt(21)}, ints);
+        assertEquals(25, reader.getPosition());
+
+        float[] floats = new float[3];
+        reader.readFloats(floats, 0, 3);
+        assertArrayEquals(new float[]{buf.getFloat(25), buf.getFloat(29), buf.getFloat(33)}, floats);
+        assertEquals(37, reader.getPosition());
+
+        byte[] bytes = new byte[2];
+        reader.readBytes(bytes, 0, 2);
+        assertArrayEquals(new byte[]{DATA[37], DATA[38]}, bytes);
+        assertEquals(39, reader.getPosition());
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsUpToTheEnd() {
+        var buf = le();
+        int end = DATA.length;
+        assertEquals(buf.getInt(end - 4), new BinaryReader(DATA, end - 4).readInt());
+        assertEquals(buf.getLong(end - 8), BinaryReader.getLong(DATA, end - 8));
+        int[] ints = new int[2];
+        var reader = new BinaryReader(DATA, end - 8);
+        reader.readInts(ints, 0, 2);
+        assertEquals(end, reader.getPosition());
+        assertEquals(buf.getInt(end - 4), ints[1]);
+
+        // Reads past the end fail without moving the cursor
+        assertThrows(IndexOutOfBoundsException.class, () -> BinaryReader.getInt(DATA, end - 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> BinaryReader.getShort(DATA, end - 1));
+        var past = new BinaryReader(DATA, end - 6);
+        assertThrows(IndexOutOfBoundsException.class, past::readLong);
+        assertThrows(IndexOutOfBoundsException.class, () -> past.readFloats(new float[2], 0, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> past.readShorts(new short[4], 0, 4));
+        assertEquals(end - 6, past.getPosition());
+        assertEquals(buf.getShort(end - 6), past.readShort());
+    }
+}
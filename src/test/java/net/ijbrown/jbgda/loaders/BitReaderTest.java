@@ -0,0 +1,56 @@
+package net.ijbrown.jbgda.loaders;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitReaderTest {
+
+    @org.junit.jupiter.api.Test
+    void readBits() {
+        byte[] data={0x34, 0x12, 0x78, 0x56};
+        var bits = new BitReader(data, 0, BitReader.Order.WORD_SWAPPED);
+        assertEquals(1, bits.readBits(4));
+        assertEquals(0x23, bits.readBits(8));
+        assertEquals(0x4, bits.peekBits(4));
+        assertEquals(0x45, bits.peekBits(8));
+        assertEquals(2, bits.readSignedBits(3));
+        bits.skip(2);
+        assertEquals(0x15, bits.readBits(5));
+        assertEquals(22, bits.getBitPosition());
+        assertEquals(-7, bits.readSignedBits(4));
+        // Past the end reads as zero
+        assertEquals(0xE00, bits.readBits(12));
+    }
+
+    @org.junit.jupiter.api.Test
+    void msbFirst() {
+        byte[] data={0x12, 0x34, 0x56, 0x78, (byte) 0x9A};
+        var bits = new BitReader(data, 1, BitReader.Order.MSB_FIRST);
+        assertEquals(0x3456789A, bits.readBits(32));
+        bits.setBitPosition(4);
+        assertEquals(0x456, bits.readBits(12));
+    }
+
+    @org.junit.jupiter.api.Test
+    void matchesGetBits() {
+        byte[] data = new byte[256];
+        new Random(1).nextBytes(data);
+        var random = new Random(2);
+        var bits = new BitReader(data, 0, BitReader.Order.WORD_SWAPPED);
+        int bitPos = 0;
+        while (bitPos < data.length * 8 - 16) {
+            int len = 1 + random.nextInt(16);
+            boolean unsigned = random.nextBoolean();
+            int expected = DataUtil.getBits(data, bitPos, len, unsigned);
+            assertEquals(expected, unsigned ? bits.readBits(len) : bits.readSignedBits(len), "at bit " + bitPos);
+            bitPos += len;
+            if (random.nextInt(8) == 0) {
+                int skip = random.nextInt(100);
+                bits.skip(skip);
+                bitPos += skip;
+            }
+            assertEquals(bitPos, bits.getBitPosition());
+        }
+    }
+}
@@ -16,4 +16,13 @@ class DataUtilTest {
         assertEquals(0x15, DataUtil.getBits(data, 17, 5, true));
 
     }
-}
\ No newline at end of file
+
+    @org.junit.jupiter.api.Test
+    void getLELongKeepsTheLowWordUnsigned() {
+        // The low word has its top bit set, which used to be sign extended over the high word
+        byte[] data = {0, 0, 0, 0, 0, 0, 0, (byte) 0x80, 1, 0, 0, 0};
+        var dataUtil = new DataUtil(data, 4);
+        assertEquals(0x0000000180000000L, dataUtil.getLELong(0));
+        assertEquals(0x80000000L << 32, new DataUtil(data, 0).getLELong(0));
+    }
+}
@@ -0,0 +1,85 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the page table swizzle in GSMemory with the per-pixel address calculation it replaced, for
+ * each pixel format, on a 256 x 256 texture.
+ * <p>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=net.ijbrown.jbgda.loaders.GSMemoryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GSMemoryBenchmark
+{
+    private static final int SIZE = 256;
+
+    private GSMemory gsMem;
+    // The same contents for the reference code, which works on a plain array
+    private byte[] referenceMem;
+    private byte[] data;
+
+    @Setup
+    public void setup()
+    {
+        referenceMem = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(referenceMem);
+        gsMem = new GSMemory();
+        gsMem.load(referenceMem);
+        data = new byte[SIZE * SIZE * 4];
+        new Random(43).nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] writePSMCT32Reference()
+    {
+        GSSwizzleReference.writeTexPSMCT32(referenceMem, 0, SIZE / 64, 0, 0, SIZE, SIZE, data, 0);
+        return referenceMem;
+    }
+
+    @Benchmark
+    public GSMemory writePSMCT32Tables()
+    {
+        gsMem.writeTexPSMCT32(0, SIZE / 64, 0, 0, SIZE, SIZE, data, 0);
+        return gsMem;
+    }
+
+    @Benchmark
+    public byte[] readPSMT8Reference()
+    {
+        return GSSwizzleReference.readTexPSMT8(referenceMem, 0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public byte[] readPSMT8Tables()
+    {
+        return gsMem.readTexPSMT8(0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public byte[] readPSMT4Reference()
+    {
+        return GSSwizzleReference.readTexPSMT4(referenceMem, 0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+
+    @Benchmark
+    public byte[] readPSMT4Tables()
+    {
+        return gsMem.readTexPSMT4(0, SIZE / 64, 0, 0, SIZE, SIZE);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(GSMemoryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
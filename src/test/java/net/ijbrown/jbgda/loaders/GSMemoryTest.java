@@ -0,0 +1,178 @@
+package net.ijbrown.jbgda.loaders;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GSMemoryTest {
+
+    // dbp, dbw, dsax, dsay, rrw, rrh
+    private static final int[][] rects = {
+            {0, 2, 0, 0, 128, 128},
+            {0, 4, 0, 0, 256, 64},
+            {0x1A0, 1, 0, 0, 64, 32},
+            {0x40, 3, 5, 3, 150, 70},
+            {0x2000, 10, 60, 30, 200, 140},
+            {0x3F00, 2, 127, 63, 3, 5},
+            {7, 6, 0, 100, 384, 40},
+    };
+
+    private static GSMemory randomMemory(long seed) {
+        var gsMem = new GSMemory();
+        byte[] contents = new byte[4 * 1024 * 1024];
+        new Random(seed).nextBytes(contents);
+        gsMem.load(contents);
+        return gsMem;
+    }
+
+    @org.junit.jupiter.api.Test
+    void writePSMCT32() {
+        for (int[] r : rects) {
+            var gsMem = randomMemory(1);
+            byte[] expected = gsMem.snapshot();
+            byte[] data = new byte[r[4] * r[5] * 4 + 16];
+            new Random(2).nextBytes(data);
+
+            GSSwizzleReference.writeTexPSMCT32(expected, r[0], r[1], r[2], r[3], r[4], r[5], data, 16);
+            gsMem.writeTexPSMCT32(r[0], r[1], r[2], r[3], r[4], r[5], data, 16);
+            assertArrayEquals(expected, gsMem.snapshot());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void writePSMCT32ShortData() {
+        var gsMem = randomMemory(3);
+        byte[] expected = gsMem.snapshot();
+        byte[] data = new byte[100 * 4];
+        new Random(4).nextBytes(data);
+
+        GSSwizzleReference.writeTexPSMCT32(expected, 0x80, 2, 10, 10, 64, 64, data, 0);
+        gsMem.writeTexPSMCT32(0x80, 2, 10, 10, 64, 64, data, 0);
+        assertArrayEquals(expected, gsMem.snapshot());
+    }
+
+    @org.junit.jupiter.api.Test
+    void readPSMT8() {
+        var gsMem = randomMemory(5);
+        for (int[] r : rects) {
+            // PSMT8 pages are twice the width of PSMCT32 pages
+            int dbw = r[1] * 2;
+            byte[] expected = GSSwizzleReference.readTexPSMT8(gsMem.snapshot(), r[0], dbw, r[2], r[3], r[4], r[5]);
+            assertArrayEquals(expected, gsMem.readTexPSMT8(r[0], dbw, r[2], r[3], r[4], r[5]));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void readPSMT4() {
+        var gsMem = randomMemory(6);
+        for (int[] r : rects) {
+            int dbw = r[1] * 2;
+            int rrw = r[4] & ~1;
+            byte[] expected = GSSwizzleReference.readTexPSMT4(gsMem.snapshot(), r[0], dbw, r[2], r[3], rrw, r[5]);
+            assertArrayEquals(expected, gsMem.readTexPSMT4(r[0], dbw, r[2], r[3], rrw, r[5]));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void pooledInstancesAreCleared() {
+        byte[] data = new byte[200 * 90 * 4];
+        new Random(7).nextBytes(data);
+
+        GSMemory first;
+        try (GSMemory gsMem = GSMemory.acquire()) {
+            first = gsMem;
+            gsMem.writeTexPSMCT32(0x1234, 4, 17, 9, 200, 90, data, 0);
+            try (GSMemory nested = GSMemory.acquire()) {
+                assertNotSame(gsMem, nested);
+            }
+        }
+        try (GSMemory gsMem = GSMemory.acquire()) {
+            assertSame(first, gsMem);
+            assertArrayEquals(new byte[4 * 1024 * 1024], gsMem.snapshot());
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void loadedMemoryIsClearedWhenPooled() {
+        byte[] contents = new byte[4 * 1024 * 1024];
+        new Random(10).nextBytes(contents);
+        GSMemory first;
+        try (GSMemory gsMem = GSMemory.acquire()) {
+            first = gsMem;
+            gsMem.load(contents);
+            assertArrayEquals(contents, gsMem.snapshot());
+        }
+        try (GSMemory gsMem = GSMemory.acquire()) {
+            assertSame(first, gsMem);
+            assertArrayEquals(new byte[contents.length], gsMem.snapshot());
+        }
+    }
+
+    private static final int[] allFormats = {
+            GSMemory.PSMCT32, GSMemory.PSMCT24, GSMemory.PSMCT16, GSMemory.PSMCT16S,
+            GSMemory.PSMT8, GSMemory.PSMT4, GSMemory.PSMT8H, GSMemory.PSMT4HL, GSMemory.PSMT4HH,
+            GSMemory.PSMZ32, GSMemory.PSMZ24, GSMemory.PSMZ16, GSMemory.PSMZ16S
+    };
+
+    @org.junit.jupiter.api.Test
+    void writeThenReadEveryFormat() {
+        for (int psm : allFormats) {
+            for (int[] r : rects) {
+                var gsMem = new GSMemory();
+                // an even buffer width so that it is whole pages in every format
+                int dbw = (r[1] + 1) & ~1;
+                byte[] data = new byte[GSMemory.transferSize(psm, r[4], r[5])];
+                new Random(psm).nextBytes(data);
+                if ((r[4] * r[5] & 1) != 0 && (psm == GSMemory.PSMT4 || psm == GSMemory.PSMT4HL || psm == GSMemory.PSMT4HH)) {
+                    // the unused top nibble of the last byte is not transferred
+                    data[data.length - 1] &= 0x0f;
+                }
+                gsMem.write(psm, r[0], dbw, r[2], r[3], r[4], r[5], data, 0);
+                assertArrayEquals(data, gsMem.read(psm, r[0], dbw, r[2], r[3], r[4], r[5]), "psm 0x" + Integer.toHexString(psm));
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void highFormatsShareThe32BitLayout() {
+        var gsMem = new GSMemory();
+        byte[] data = new byte[96 * 40 * 4];
+        new Random(8).nextBytes(data);
+        gsMem.write(GSMemory.PSMCT32, 0x100, 2, 3, 7, 96, 40, data, 0);
+
+        byte[] high = gsMem.read(GSMemory.PSMT8H, 0x100, 2, 3, 7, 96, 40);
+        byte[] lowNibbles = gsMem.read(GSMemory.PSMT4HL, 0x100, 2, 3, 7, 96, 40);
+        byte[] highNibbles = gsMem.read(GSMemory.PSMT4HH, 0x100, 2, 3, 7, 96, 40);
+        for (int i = 0; i < high.length; ++i) {
+            assertEquals(data[i * 4 + 3], high[i]);
+            assertEquals(data[i * 4 + 3] & 0x0f, (lowNibbles[i / 2] >> ((i & 1) * 4)) & 0x0f);
+            assertEquals((data[i * 4 + 3] >> 4) & 0x0f, (highNibbles[i / 2] >> ((i & 1) * 4)) & 0x0f);
+        }
+
+        // 24 bit writes leave the alpha alone
+        byte[] rgb = new byte[96 * 40 * 3];
+        new Random(9).nextBytes(rgb);
+        gsMem.write(GSMemory.PSMCT24, 0x100, 2, 3, 7, 96, 40, rgb, 0);
+        byte[] argb = gsMem.read(GSMemory.PSMCT32, 0x100, 2, 3, 7, 96, 40);
+        for (int i = 0; i < high.length; ++i) {
+            assertEquals(rgb[i * 3], argb[i * 4]);
+            assertEquals(rgb[i * 3 + 2], argb[i * 4 + 2]);
+            assertEquals(high[i], argb[i * 4 + 3]);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void zFormatsReorderBlocks() {
+        var gsMem = new GSMemory();
+        gsMem.write(GSMemory.PSMZ32, 0, 1, 0, 0, 1, 1, new byte[]{1, 2, 3, 4}, 0);
+        byte[] mem = gsMem.snapshot();
+        assertEquals(1, mem[24 * 256]);
+        assertEquals(4, mem[24 * 256 + 3]);
+
+        gsMem.write(GSMemory.PSMZ16, 0, 1, 0, 0, 1, 1, new byte[]{5, 6}, 0);
+        mem = gsMem.snapshot();
+        assertEquals(5, mem[24 * 256]);
+        assertEquals(6, mem[24 * 256 + 1]);
+        assertEquals(3, mem[24 * 256 + 2]);
+    }
+}
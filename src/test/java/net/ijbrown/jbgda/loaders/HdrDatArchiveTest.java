@@ -0,0 +1,114 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static net.ijbrown.jbgda.loaders.HdrDatArchive.SECTOR_SIZE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HdrDatArchiveTest {
+
+    // The cache holds 16 blocks of 32 sectors
+    private static final int BLOCK_SECTORS = 32;
+    private static final int NUM_BLOCKS = 24;
+
+    private static final byte[] DAT = ArchiveFixtures.pattern(NUM_BLOCKS * BLOCK_SECTORS * SECTOR_SIZE, 1);
+    private static final byte[] NEW_DAT = ArchiveFixtures.pattern(DAT.length, 2);
+
+    @TempDir
+    Path dataDir;
+
+    private Path datPath;
+
+    private HdrDatArchive open() throws IOException {
+        var entries = new LinkedHashMap<String, int[][]>();
+        entries.put("ring", new int[][]{
+                {1, BLOCK_SECTORS - 2, 4},                      // across one block boundary
+                {2, 2 * BLOCK_SECTORS - 1, BLOCK_SECTORS + 2},  // across two
+                {3, 0, 300}                                     // more than half the cache
+        });
+        // One sector at the start of each block, id 100 + block
+        int[][] blocks = new int[NUM_BLOCKS][];
+        for (int block = 0; block < NUM_BLOCKS; ++block) {
+            blocks[block] = new int[]{100 + block, block * BLOCK_SECTORS, 1};
+        }
+        entries.put("gem", blocks);
+
+        datPath = dataDir.resolve("EQCACHE.DAT");
+        ArchiveFixtures.writeHdrDat(dataDir.resolve("EQCACHE.HDR"), datPath, entries, DAT);
+        return new HdrDatArchive(dataDir.resolve("EQCACHE.HDR"));
+    }
+
+    // Overwrites the DAT in place, reads of blocks still in the cache return the old data.
+    private void overwriteDat() throws IOException {
+        try (var channel = FileChannel.open(datPath, WRITE)) {
+            channel.write(ByteBuffer.wrap(NEW_DAT), 0);
+        }
+    }
+
+    private static byte[] sectors(byte[] dat, int start, int count) {
+        return Arrays.copyOfRange(dat, start * SECTOR_SIZE, (start + count) * SECTOR_SIZE);
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    private static byte[] readBlock(HdrDatArchive archive, int block) throws IOException {
+        return bytes(archive.read("gem", 100 + block));
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsAcrossBlocks() throws IOException {
+        try (var archive = open()) {
+            assertArrayEquals(sectors(DAT, BLOCK_SECTORS - 2, 4), bytes(archive.read("ring", 1)));
+            assertArrayEquals(sectors(DAT, 2 * BLOCK_SECTORS - 1, BLOCK_SECTORS + 2), bytes(archive.read("ring", 2)));
+            assertArrayEquals(sectors(DAT, 0, 300), bytes(archive.read("ring", 3)));
+            assertNull(archive.read("ring", 4));
+            assertNull(archive.read("necklace", 1));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void evictsLeastRecentlyUsedBlocks() throws IOException {
+        try (var archive = open()) {
+            for (int block = 0; block < 16; ++block) {
+                assertArrayEquals(sectors(DAT, block * BLOCK_SECTORS, 1), readBlock(archive, block));
+            }
+            overwriteDat();
+
+            // All 16 blocks are cached, using block 1 makes block 0 the least recently used
+            assertArrayEquals(sectors(DAT, BLOCK_SECTORS, 1), readBlock(archive, 1));
+            assertArrayEquals(sectors(NEW_DAT, 16 * BLOCK_SECTORS, 1), readBlock(archive, 16));
+            assertArrayEquals(sectors(NEW_DAT, 0, 1), readBlock(archive, 0));
+
+            // Reading block 0 back evicted block 2, block 1 was used more recently
+            assertArrayEquals(sectors(NEW_DAT, 2 * BLOCK_SECTORS, 1), readBlock(archive, 2));
+            assertArrayEquals(sectors(DAT, BLOCK_SECTORS, 1), readBlock(archive, 1));
+            assertArrayEquals(sectors(DAT, 15 * BLOCK_SECTORS, 1), readBlock(archive, 15));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void largeElementsBypassTheCache() throws IOException {
+        try (var archive = open()) {
+            // Caches blocks 0 to 2
+            assertArrayEquals(sectors(DAT, BLOCK_SECTORS - 2, 4), bytes(archive.read("ring", 1)));
+            assertArrayEquals(sectors(DAT, 2 * BLOCK_SECTORS, 1), readBlock(archive, 2));
+            overwriteDat();
+
+            assertArrayEquals(sectors(NEW_DAT, 0, 300), bytes(archive.read("ring", 3)));
+            // and the cached blocks were left alone
+            assertArrayEquals(sectors(DAT, BLOCK_SECTORS - 2, 4), bytes(archive.read("ring", 1)));
+        }
+    }
+}
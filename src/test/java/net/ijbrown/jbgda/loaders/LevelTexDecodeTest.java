@@ -0,0 +1,237 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LevelTexDecodeTest {
+
+    // The number of codes of each length, leaving some 16 bit words without a code.
+    private static final int[] CODE_COUNTS = {0, 0, 1, 2, 0, 3, 0, 0, 10, 20, 0, 0, 40, 0, 0, 0, 100};
+
+    // 256 codes of 8 bits, so that each byte of a block is one pixel command
+    private static final int[] BYTE_CODES = {0, 0, 0, 0, 0, 0, 0, 0, 256, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    // Literal pixels, then the back references and the lookups in table0
+    private static final int[] BYTE_VALUES = new int[256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            BYTE_VALUES[i] = i < 0xF0 ? i : 0x100 + i - 0xF0;
+        }
+    }
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Lays out canonical Huffman codes as in a level texture: the number of table1 entries, table1
+     * with the value of each code, then table2 and table3 indexed by code length.
+     */
+    static byte[] codeTables(int[] codeCounts, int[] values) {
+        int table1Len = values.length * 2;
+        var buf = ByteBuffer.allocate(4 + table1Len + 0x48 + 0x44).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, values.length);
+        for (int i = 0; i < values.length; ++i) {
+            buf.putShort(4 + i * 2, (short) values[i]);
+        }
+        int table2Start = 4 + table1Len;
+        int table3Start = table2Start + 0x48;
+        int code = 0;
+        int index = 0;
+        for (int bit = 1; bit <= 16; ++bit) {
+            buf.putInt(table2Start + bit * 4, index - code);
+            code += codeCounts[bit];
+            index += codeCounts[bit];
+            buf.putInt(table3Start + bit * 4, code - 1);
+            code <<= 1;
+        }
+        return buf.array();
+    }
+
+    static int[] codeValues(int[] codeCounts) {
+        int count = 0;
+        for (int n : codeCounts) {
+            count += n;
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = (i * 37) % 0x10D;
+        }
+        return values;
+    }
+
+    // The bit by bit walk of the tables the decoder used to do for every pixel.
+    private static int referenceLookup(byte[] tables, int word) {
+        int table1Len = DataUtil.getLEInt(tables, 0) * 2;
+        int table2Start = 4 + table1Len;
+        int table3Start = table2Start + 0x48;
+        int bit = 1;
+        while (DataUtil.getLEInt(tables, table3Start + bit * 4) < word >> (16 - bit)) {
+            ++bit;
+            if (bit > 16) {
+                throw new RuntimeException("A decoding error occured");
+            }
+        }
+        int table1Index = (word >> (16 - bit)) + DataUtil.getLEInt(tables, table2Start + bit * 4);
+        return DataUtil.getLEShort(tables, 4 + table1Index * 2) << 8 | bit;
+    }
+
+    @org.junit.jupiter.api.Test
+    void lookupMatchesTheBitByBitWalk() {
+        byte[] tables = codeTables(CODE_COUNTS, codeValues(CODE_COUNTS));
+        var codes = new LevelTexDecode.CodeTable(tables, 0);
+        int unmatched = 0;
+        for (int word = 0; word < 0x10000; ++word) {
+            int expected;
+            try {
+                expected = referenceLookup(tables, word);
+            } catch (RuntimeException e) {
+                ++unmatched;
+                final int w = word;
+                assertThrows(RuntimeException.class, () -> codes.lookup(w), "word " + word);
+                continue;
+            }
+            assertEquals(expected, codes.lookup(word), "word " + word);
+        }
+        // The codes are incomplete, so there are words without a code.
+        assertTrue(unmatched > 0);
+    }
+
+    @org.junit.jupiter.api.Test
+    void codesWithoutAValueFailOnlyWhenUsed() {
+        byte[] tables = codeTables(CODE_COUNTS, codeValues(CODE_COUNTS));
+        // Point the 2 bit code past the end of the file
+        int table2Start = 4 + DataUtil.getLEInt(tables, 0) * 2;
+        ByteBuffer.wrap(tables).order(ByteOrder.LITTLE_ENDIAN).putInt(table2Start + 2 * 4, 100000);
+
+        var codes = new LevelTexDecode.CodeTable(tables, 0);
+        // The 2 bit code is 00, the 3 bit codes 010 and 011
+        assertThrows(RuntimeException.class, () -> codes.lookup(0x0000));
+        assertThrows(RuntimeException.class, () -> codes.lookup(0x3FFF));
+        assertEquals(referenceLookup(tables, 0x4000), codes.lookup(0x4000));
+        assertEquals(3, codes.lookup(0x7FFF) & 0xFF);
+    }
+
+    /**
+     * Builds a level texture file, as laid out by the games after Dark Alliance, with the given number of
+     * textures in each chunk. The textures of a chunk share its palette and code tables.
+     */
+    static byte[] levelTex(int[] texturesPerChunk, int width, int height, long seed) {
+        var random = new Random(seed);
+        int blocksWide = (width + 15) / 16;
+        int blocksHigh = (height + 15) / 16;
+        int numBlocks = blocksWide * blocksHigh;
+        byte[] codes = codeTables(BYTE_CODES, BYTE_VALUES);
+        int paletteSize = 0xC00 + codes.length;
+        int blockListSize = 8 + numBlocks * 4 + 4;
+        int textureSize = blockListSize + numBlocks * 256;
+
+        int headerSize = (4 + (texturesPerChunk.length + 1) * 12 + 15) & ~15;
+        int total = headerSize;
+        for (int n : texturesPerChunk) {
+            total += 64 * (n + 1) + paletteSize + n * textureSize;
+        }
+        var buf = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+
+        int chunkStart = headerSize;
+        for (int chunk = 0; chunk < texturesPerChunk.length; ++chunk) {
+            int n = texturesPerChunk[chunk];
+            int chunkSize = 64 * (n + 1) + paletteSize + n * textureSize;
+            buf.putInt(4 + chunk * 12, chunk);
+            buf.putInt(8 + chunk * 12, chunkStart);
+            buf.putInt(12 + chunk * 12, chunkSize);
+
+            // Offsets within the chunk are from its start
+            buf.putInt(chunkStart, n);
+            int palette = 64 * (n + 1);
+            byte[] paletteAndTable0 = new byte[0xC00];
+            random.nextBytes(paletteAndTable0);
+            buf.put(chunkStart + palette, paletteAndTable0);
+            buf.put(chunkStart + palette + 0xC00, codes);
+
+            int texture = palette + paletteSize;
+            for (int i = 1; i <= n; ++i) {
+                int header = chunkStart + 64 * i;
+                buf.putShort(header, (short) width);
+                buf.putShort(header + 2, (short) height);
+                buf.putInt(header + 0x10, texture);
+
+                int p = chunkStart + texture;
+                buf.putInt(p, palette);
+                buf.put(p + 4, new byte[]{0, 0, (byte) (blocksWide - 1), (byte) (blocksHigh - 1)});
+                for (int block = 0; block < numBlocks; ++block) {
+                    int blockData = texture + blockListSize + block * 256;
+                    buf.putInt(p + 8 + block * 4, blockData);
+                    for (int k = 0; k < 256; ++k) {
+                        // The first pixels of a block have nothing to refer back to
+                        int code = k < 17 ? random.nextInt(0xF0) : random.nextInt(256);
+                        // The stream is read as 16 bit words, high byte first
+                        buf.put(chunkStart + blockData + (k ^ 1), (byte) code);
+                    }
+                }
+                buf.put(p + 8 + numBlocks * 4, (byte) -1);
+                texture += textureSize;
+            }
+            chunkStart += chunkSize;
+        }
+        buf.putInt(4 + texturesPerChunk.length * 12, -1);
+        return buf.array();
+    }
+
+    private List<File> extractAll(Path levelTex, boolean parallel, String outDir) throws IOException {
+        var decoder = new LevelTexDecode(GameType.CHAMPIONS_RTA);
+        decoder.setParallel(parallel);
+        // Reading again replaces the textures of the first read
+        decoder.read(levelTex.toFile());
+        decoder.read(levelTex.toFile());
+        var written = new ArrayList<File>();
+        assertTrue(decoder.extractAll(Files.createDirectory(tempDir.resolve(outDir)).toFile(), written));
+        return written;
+    }
+
+    @org.junit.jupiter.api.Test
+    void parallelAndSerialDecodesMatch() throws IOException {
+        Path levelTex = tempDir.resolve("level.tex");
+        Files.write(levelTex, levelTex(new int[]{3, 5, 1}, 40, 24, 1));
+
+        var serial = extractAll(levelTex, false, "serial");
+        var parallel = extractAll(levelTex, true, "parallel");
+        assertEquals(9, serial.size());
+        assertEquals(serial.stream().map(File::getName).toList(), parallel.stream().map(File::getName).toList());
+        for (int i = 0; i < serial.size(); ++i) {
+            assertArrayEquals(Files.readAllBytes(serial.get(i).toPath()), Files.readAllBytes(parallel.get(i).toPath()));
+        }
+        assertFalse(Arrays.equals(Files.readAllBytes(serial.get(0).toPath()), Files.readAllBytes(serial.get(1).toPath())));
+    }
+
+    @org.junit.jupiter.api.Test
+    void skipsVQTextures() throws IOException {
+        byte[] data = levelTex(new int[]{2}, 16, 16, 2);
+        // Flag the first texture of the chunk as VQ compressed
+        int firstTexture = DataUtil.getLEInt(data, 8) + 64;
+        data[firstTexture + 8] = 1;
+        Path levelTex = tempDir.resolve("level.tex");
+        Files.write(levelTex, data);
+
+        var decoder = new LevelTexDecode(GameType.CHAMPIONS_OF_NORRATH);
+        decoder.read(levelTex.toFile());
+        assertNull(decoder.decode(firstTexture, DataUtil.getLEInt(data, 8)));
+        var written = new ArrayList<File>();
+        // Skipped rather than failed
+        assertTrue(decoder.extractAll(tempDir.toFile(), written));
+        assertEquals(List.of("leveltex_0_2.png"), written.stream().map(File::getName).toList());
+        assertFalse(Files.exists(tempDir.resolve("leveltex_0_1.png")));
+    }
+}
@@ -0,0 +1,67 @@
+package net.ijbrown.jbgda.loaders;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PngWriterTest {
+
+    private static int[] makeImage(int width, int height, boolean alpha) {
+        int[] argb = new int[width * height];
+        var random = new Random(width * 31L + height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                // a mix of smooth areas and noise so that every filter gets picked
+                int noise = random.nextInt(16);
+                int rgb = ((x * 3 + noise) & 0xFF) << 16 | ((y * 5) & 0xFF) << 8 | ((x ^ y) & 0xFF);
+                int a = alpha ? (x + y) & 0xFF : 0xFF;
+                argb[y * width + x] = a << 24 | rgb;
+            }
+        }
+        return argb;
+    }
+
+    private static void assertRoundTrip(int width, int height, boolean alpha) throws IOException {
+        int[] argb = makeImage(width, height, alpha);
+        var out = new ByteArrayOutputStream();
+        PngWriter.write(argb, width, height, out);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        assertEquals(alpha, image.getColorModel().hasAlpha());
+        assertArrayEquals(argb, image.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @org.junit.jupiter.api.Test
+    void smallImages() throws IOException {
+        assertRoundTrip(1, 1, false);
+        assertRoundTrip(16, 16, true);
+        assertRoundTrip(37, 5, false);
+    }
+
+    @org.junit.jupiter.api.Test
+    void largeImagesAreSplitIntoBands() throws IOException {
+        assertRoundTrip(512, 512, false);
+        assertRoundTrip(700, 333, true);
+    }
+
+    @org.junit.jupiter.api.Test
+    void adler32Combine() {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        var whole = new Adler32();
+        whole.update(data);
+        var first = new Adler32();
+        first.update(data, 0, 40000);
+        var second = new Adler32();
+        second.update(data, 40000, 60000);
+        assertEquals(whole.getValue(), PngWriter.adler32Combine(first.getValue(), second.getValue(), 60000));
+    }
+}
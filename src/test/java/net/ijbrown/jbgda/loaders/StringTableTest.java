@@ -0,0 +1,133 @@
+package net.ijbrown.jbgda.loaders;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringTableTest {
+
+    // Four bytes of header, then "chest", "lid", "" and "key" which runs to the end of the data
+    private static final byte[] DATA = {
+            9, 9, 9, 9,
+            'c', 'h', 'e', 's', 't', 0,
+            'l', 'i', 'd', 0,
+            0,
+            'k', 'e', 'y'};
+
+    @BeforeEach
+    @AfterEach
+    void clearPool() {
+        StringTable.clearPool();
+    }
+
+    private static List<StringTable> tables() {
+        var direct = ByteBuffer.allocateDirect(DATA.length).put(DATA).flip();
+        // A heap buffer that is a slice of a larger array
+        byte[] padded = new byte[DATA.length + 3];
+        System.arraycopy(DATA, 0, padded, 3, DATA.length);
+        var slice = ByteBuffer.wrap(padded).position(3).slice();
+        return List.of(new StringTable(DATA, 4), new StringTable(ByteBuffer.wrap(DATA), 4),
+                new StringTable(slice, 4), new StringTable(direct, 4));
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsStringsByOffset() {
+        for (var table : tables()) {
+            assertEquals("chest", table.get(0));
+            assertEquals("hest", table.get(1));
+            assertEquals("lid", table.get(6));
+            assertEquals("", table.get(10));
+            assertEquals("key", table.get(11));
+            assertEquals("y", table.get(13));
+            assertEquals("", table.get(14));
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void remembersStrings() {
+        var table = new StringTable(DATA, 4);
+        String chest = table.get(0);
+        assertEquals(1, table.size());
+        assertSame(chest, table.get(0));
+        assertEquals(1, table.size());
+
+        table.get(6);
+        assertSame(chest, table.get(0));
+        assertEquals(2, table.size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void growsPastItsInitialCapacity() {
+        // Enough strings to grow the table several times, one every 4 bytes
+        var out = new ByteArrayOutputStream();
+        int count = 500;
+        for (int i = 0; i < count; ++i) {
+            out.writeBytes(String.format("s%02x", i & 0xFF).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(0);
+        }
+        var table = new StringTable(out.toByteArray(), 0);
+
+        var read = new ArrayList<String>();
+        for (int i = 0; i < count; ++i) {
+            read.add(table.get(i * 4));
+            assertEquals(i + 1, table.size());
+        }
+        for (int i = 0; i < count; ++i) {
+            assertSame(read.get(i), table.get(i * 4));
+            assertEquals(String.format("s%02x", i & 0xFF), read.get(i));
+        }
+        // The offsets inside a string are distinct from its start
+        assertEquals("02", table.get(9));
+        assertEquals(count + 1, table.size());
+    }
+
+    @org.junit.jupiter.api.Test
+    void internsAcrossTables() {
+        var tables = tables();
+        String chest = tables.get(0).get(0);
+        for (var table : tables) {
+            assertSame(chest, table.get(0));
+        }
+        // The same string at a different offset
+        byte[] other = {'l', 'i', 'd', 0, 'c', 'h', 'e', 's', 't', 0};
+        assertSame(chest, new StringTable(other, 0).get(4));
+        assertSame(chest, StringTable.intern(new String("chest")));
+        assertEquals(1, StringTable.getPoolSize());
+    }
+
+    @org.junit.jupiter.api.Test
+    void poolCanBeCleared() {
+        String chest = new StringTable(DATA, 4).get(0);
+        new StringTable(DATA, 4).get(6);
+        assertEquals(2, StringTable.getPoolSize());
+
+        StringTable.clearPool();
+        assertEquals(0, StringTable.getPoolSize());
+        String again = new StringTable(DATA, 4).get(0);
+        assertEquals(chest, again);
+        assertNotSame(chest, again);
+        assertEquals(1, StringTable.getPoolSize());
+    }
+
+    @org.junit.jupiter.api.Test
+    void poolIsBounded() {
+        for (int i = 0; i < StringTable.MAX_POOL_SIZE; ++i) {
+            StringTable.intern(Integer.toString(i));
+        }
+        assertEquals(StringTable.MAX_POOL_SIZE, StringTable.getPoolSize());
+        String first = StringTable.intern("0");
+        assertSame(first, StringTable.intern(new String("0")));
+
+        // One more empties the pool rather than growing it
+        StringTable.intern("overflow");
+        assertEquals(1, StringTable.getPoolSize());
+        assertNotSame(first, StringTable.intern(new String("0")));
+    }
+}
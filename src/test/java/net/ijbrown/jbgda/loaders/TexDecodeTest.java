@@ -0,0 +1,242 @@
+package net.ijbrown.jbgda.loaders;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TexDecodeTest {
+
+    private static final int TEX0_1 = 0x06;
+    private static final int BITBLTBUF = 0x50;
+    private static final int TRXPOS = 0x51;
+    private static final int TRXREG = 0x52;
+    private static final int TRXDIR = 0x53;
+
+    /**
+     * Builds a .tex file: a 0x20 byte header followed by GIF packets. Packets added after
+     * countPackets() are left out of the size in the header, as the image of a 32 bit texture is.
+     */
+    private static class TexBuilder {
+        private final ByteArrayOutputStream gif = new ByteArrayOutputStream();
+        private int countedBytes = -1;
+
+        TexBuilder registers(long... valuesAndAddresses) {
+            int nloop = valuesAndAddresses.length / 2;
+            var buf = ByteBuffer.allocate((nloop + 1) * 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, nloop);
+            buf.putInt(4, 1 << 28);     // PACKED, one register
+            buf.putInt(8, 0x0E);        // A+D
+            for (int i = 0; i < nloop; ++i) {
+                buf.putLong(16 + i * 16, valuesAndAddresses[i * 2]);
+                buf.putLong(24 + i * 16, valuesAndAddresses[i * 2 + 1]);
+            }
+            gif.writeBytes(buf.array());
+            return this;
+        }
+
+        TexBuilder transfer(int dbp, int dbw, int dpsm, int dsax, int dsay, int rrw, int rrh) {
+            return registers(
+                    (long) dbp << 32 | (long) dbw << 48 | (long) dpsm << 56, BITBLTBUF,
+                    (long) dsax << 32 | (long) dsay << 48, TRXPOS,
+                    rrw | (long) rrh << 32, TRXREG,
+                    0, TRXDIR);
+        }
+
+        TexBuilder image(byte[] data, int from, int to) {
+            int qwords = (to - from + 15) / 16;
+            var buf = ByteBuffer.allocate((qwords + 1) * 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, qwords);
+            buf.putInt(4, 2 << 26);     // IMAGE
+            buf.put(16, data, from, to - from);
+            gif.writeBytes(buf.array());
+            return this;
+        }
+
+        TexBuilder image(byte[] data) {
+            return image(data, 0, data.length);
+        }
+
+        TexBuilder countPackets() {
+            countedBytes = gif.size();
+            return this;
+        }
+
+        byte[] build(int width, int height) {
+            byte[] packets = gif.toByteArray();
+            var buf = ByteBuffer.allocate(0x20 + packets.length).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putShort(0, (short) width);
+            buf.putShort(2, (short) height);
+            buf.putShort(6, (short) ((countedBytes < 0 ? packets.length : countedBytes) / 16));
+            buf.putInt(0x10, 0x20);
+            buf.put(0x20, packets);
+            return buf.array();
+        }
+    }
+
+    private static byte[] random(int length, int seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // 4 bit pixels packed two to a byte, low nibble first, as one byte per pixel.
+    private static int index4(byte[] packed, int pixel) {
+        return (packed[pixel >> 1] >> ((pixel & 1) * 4)) & 0x0f;
+    }
+
+    // The host data of a texture of one storage mode uploaded in another.
+    private static byte[] reinterpret(int psm, int dbw, int rrw, int rrh, byte[] data, int asPsm, int asDbw, int asRrw, int asRrh) {
+        var gsMem = new GSMemory();
+        gsMem.write(psm, 0, dbw, 0, 0, rrw, rrh, data, 0);
+        return gsMem.read(asPsm, 0, asDbw, 0, 0, asRrw, asRrh);
+    }
+
+    private static TexDecode.DecodedTex decode(byte[] tex) {
+        var decoded = TexDecode.decodeTex(ByteBuffer.wrap(tex));
+        // Decoding through a pooled GSMemory left dirty by the first must give the same result
+        assertArrayEquals(decoded.pixels, TexDecode.decodeTex(tex, 0, tex.length).pixels);
+        // Without a length the texture runs to the end of the data
+        assertArrayEquals(decoded.pixels, TexDecode.decodeTex(tex, 0, 0).pixels);
+        return decoded;
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodes8BitTexturesUploadedAs32Bit() {
+        // One PSMT8 page, 128x64, is one PSMCT32 page, 64x32
+        byte[] indices = random(128 * 64, 1);
+        byte[] host = reinterpret(GSMemory.PSMT8, 2, 128, 64, indices, GSMemory.PSMCT32, 1, 64, 32);
+        byte[] palette = random(256 * 4, 2);
+
+        byte[] tex = new TexBuilder()
+                .transfer(0x3000, 1, GSMemory.PSMCT32, 0, 0, 16, 16).image(palette)
+                .transfer(0x40, 1, GSMemory.PSMCT32, 0, 0, 64, 32)
+                .image(host, 0, 4096).image(host, 4096, host.length)    // split over two IMAGE packets
+                .build(100, 64);
+
+        var decoded = decode(tex);
+        assertEquals(100, decoded.targetWidth);
+        assertEquals(128, decoded.pixelsWidth);
+        assertEquals(64, decoded.pixelsHeight);
+        int[] clut = PalEntry.unswizzlePalette(PalEntry.readPalette(palette, 0, 16, 16));
+        for (int i = 0; i < indices.length; ++i) {
+            assertEquals(clut[indices[i] & 0xFF], decoded.pixels[i], "pixel " + i);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodes4BitTexturesUploadedAs32Bit() {
+        // One PSMT4 page, 128x128, is one PSMCT32 page
+        byte[] indices = random(128 * 128 / 2, 3);
+        byte[] host = reinterpret(GSMemory.PSMT4, 2, 128, 128, indices, GSMemory.PSMCT32, 1, 64, 32);
+        byte[] palette = random(16 * 4, 4);
+
+        byte[] tex = new TexBuilder()
+                .transfer(0x3000, 1, GSMemory.PSMCT32, 0, 0, 8, 2).image(palette)
+                .transfer(0x80, 1, GSMemory.PSMCT32, 0, 0, 64, 32).image(host)
+                .build(128, 40);
+
+        var decoded = decode(tex);
+        assertEquals(128, decoded.pixelsWidth);
+        assertEquals(48, decoded.pixelsHeight);
+        int[] clut = PalEntry.readPalette(palette, 0, 8, 2);
+        for (int i = 0; i < 128 * 48; ++i) {
+            assertEquals(clut[index4(indices, i)], decoded.pixels[i], "pixel " + i);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodes4BitTexturesUploadedAs4Bit() {
+        byte[] indices = random(30 * 20 / 2, 5);
+        byte[] palette = random(16 * 4, 6);
+
+        byte[] tex = new TexBuilder()
+                .transfer(0x3000, 1, GSMemory.PSMCT32, 0, 0, 8, 2).image(palette)
+                .transfer(0x80, 2, GSMemory.PSMT4, 0, 0, 30, 20).image(indices)
+                .build(30, 20);
+
+        var decoded = decode(tex);
+        assertEquals(32, decoded.pixelsWidth);
+        assertEquals(32, decoded.pixelsHeight);
+        int[] clut = PalEntry.readPalette(palette, 0, 8, 2);
+        for (int y = 0; y < 32; ++y) {
+            for (int x = 0; x < 32; ++x) {
+                // Outside the transfer GS memory is clear
+                int expected = x < 30 && y < 20 ? clut[index4(indices, y * 30 + x)] : clut[0];
+                assertEquals(expected, decoded.pixels[y * 32 + x], "pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodes32BitTexturesInTheirOwnFormat() {
+        byte[] rgba = random(20 * 10 * 4, 7);
+        byte[] tex = new TexBuilder()
+                .transfer(0x100, 1, GSMemory.PSMCT32, 0, 0, 20, 10)
+                .countPackets()
+                .image(rgba)
+                .build(20, 10);
+
+        var decoded = decode(tex);
+        assertEquals(20, decoded.pixelsWidth);
+        assertEquals(10, decoded.pixelsHeight);
+        for (int i = 0; i < 200; ++i) {
+            assertEquals(PalEntry.rgbaToArgb(DataUtil.getLEInt(rgba, i * 4)), decoded.pixels[i], "pixel " + i);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void decodes16BitTexturesInTheirOwnFormat() {
+        byte[] data = random(24 * 40 * 2, 8);
+        byte[] tex = new TexBuilder()
+                .transfer(0x100, 1, GSMemory.PSMCT16, 0, 0, 24, 40)
+                .countPackets()
+                .image(data)
+                .build(24, 40);
+
+        var decoded = decode(tex);
+        assertEquals(24 * 40, decoded.pixels.length);
+        for (int i = 0; i < decoded.pixels.length; ++i) {
+            int val = DataUtil.getLEUShort(data, i * 2);
+            int expected = ((val & 0x8000) != 0 ? 0x80000000 : 0)
+                    | (val & 0x1F) << 19 | ((val >> 5) & 0x1F) << 11 | ((val >> 10) & 0x1F) << 3;
+            assertEquals(expected, decoded.pixels[i], "pixel " + i);
+        }
+    }
+
+    @org.junit.jupiter.api.Test
+    void readsTheFormatFromTex0() {
+        byte[] indices = random(128 * 64, 9);
+        byte[] palette = random(256 * 4, 10);
+        int tbp = 0x200;
+        int cbp = 0x3000;
+        long tex0 = tbp | 2L << 14 | (long) GSMemory.PSMT8 << 20 | (long) cbp << 37;
+
+        // The image is sent before the palette, which is found from the CBP
+        byte[] tex = new TexBuilder()
+                .transfer(tbp, 2, GSMemory.PSMT8, 0, 0, 128, 64).image(indices)
+                .transfer(cbp, 1, GSMemory.PSMCT32, 0, 0, 16, 16).image(palette)
+                .registers(tex0, TEX0_1)
+                .build(128, 64);
+
+        var decoded = decode(tex);
+        int[] clut = PalEntry.unswizzlePalette(PalEntry.readPalette(palette, 0, 16, 16));
+        int[] expected = new int[indices.length];
+        for (int i = 0; i < indices.length; ++i) {
+            expected[i] = clut[indices[i] & 0xFF];
+        }
+        assertArrayEquals(expected, decoded.pixels);
+    }
+
+    @org.junit.jupiter.api.Test
+    void texturesWithoutImagesHaveNoPixels() {
+        byte[] tex = new TexBuilder().transfer(0, 1, GSMemory.PSMCT32, 0, 0, 16, 16).build(16, 16);
+        var decoded = decode(tex);
+        assertNull(decoded.pixels);
+        assertEquals(16, decoded.targetWidth);
+        assertEquals(Arrays.asList(16, 16), Arrays.asList(decoded.pixelsWidth, decoded.pixelsHeight));
+    }
+}
@@ -0,0 +1,161 @@
+package net.ijbrown.jbgda.loaders;
+
+import net.ijbrown.elf.Memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TexScannerTest {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int PACKED = 0;
+    private static final int IMAGE = 2;
+
+    private static void putTag(ByteBuffer buf, int pos, int nloop, int flg, int nreg, int regs) {
+        buf.putInt(pos, nloop);
+        buf.putInt(pos + 4, flg << 26 | nreg << 28);
+        buf.putInt(pos + 8, regs);
+    }
+
+    private static void putAD(ByteBuffer buf, int pos, long data, int reg) {
+        buf.putLong(pos, data);
+        buf.putInt(pos + 8, reg);
+    }
+
+    /**
+     * A 16x16 texture with a 16x16 palette. The GIF packet is an A+D tag setting up the palette transfer,
+     * the palette image and then the pixels, which are left as zero.
+     */
+    private static byte[] palettisedTex() {
+        int gifOffset = 0x20;
+        int pixelQwords = 16 * 16 / 16;
+        int packetSize = 0x50 + 0x410 + 0x40 + (pixelQwords + 1) * 0x10;
+        var buf = ByteBuffer.allocate(gifOffset + packetSize).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort(0, (short) 16);
+        buf.putShort(2, (short) 16);
+        buf.putShort(6, (short) (packetSize / 16));
+        buf.putInt(0x10, gifOffset);
+
+        int gif = gifOffset;
+        putTag(buf, gif, 4, PACKED, 1, 0x0E);
+        putAD(buf, gif + 0x10, 0, 0x50);
+        putAD(buf, gif + 0x20, 0, 0x51);
+        putAD(buf, gif + 0x30, 16L | 16L << 32, 0x52);
+        putAD(buf, gif + 0x40, 0, 0x53);
+        putTag(buf, gif + 0x50, 16 * 16 * 4 / 16, IMAGE, 0, 0);
+        // then a transfer of the pixels
+        int pixels = gif + 0x460;
+        putTag(buf, pixels, 3, PACKED, 1, 0x0E);
+        putAD(buf, pixels + 0x10, 0, 0x50);
+        putAD(buf, pixels + 0x20, 0, 0x52);
+        putAD(buf, pixels + 0x30, 0, 0x53);
+        putTag(buf, pixels + 0x40, pixelQwords, IMAGE, 0, 0);
+        return buf.array();
+    }
+
+    /**
+     * An 8x8 32 bit texture, where the image tag that follows the A+D tag is at 0xC0.
+     */
+    private static byte[] rgbaTex() {
+        int gifOffset = 0x80;
+        int pixelQwords = 8 * 8 * 4 / 16;
+        int packetSize = 0x40 + (pixelQwords + 1) * 0x10;
+        var buf = ByteBuffer.allocate(gifOffset + packetSize).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort(0, (short) 8);
+        buf.putShort(2, (short) 8);
+        buf.putShort(6, (short) (packetSize / 16));
+        buf.putInt(0x10, gifOffset);
+        putTag(buf, gifOffset, 3, PACKED, 1, 0x0E);
+        putAD(buf, gifOffset + 0x10, 0, 0x50);
+        putAD(buf, gifOffset + 0x20, 8L | 8L << 32, 0x52);
+        putAD(buf, gifOffset + 0x30, 0, 0x53);
+        putTag(buf, 0xC0, pixelQwords, IMAGE, 0, 0);
+        return buf.array();
+    }
+
+    private static Memory memoryWith(int address, byte[] data) {
+        var memory = new Memory();
+        memory.setData(data, address);
+        return memory;
+    }
+
+    @org.junit.jupiter.api.Test
+    void scoresValidHeaders() {
+        assertEquals(4, new TexScanner(memoryWith(0x10000, palettisedTex())).scoreTex(0x10000));
+        assertEquals(4, new TexScanner(memoryWith(0x10000, rgbaTex())).scoreTex(0x10000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void rejectsBadHeaders() {
+        byte[] tex = palettisedTex();
+        var memory = memoryWith(0x10000, tex);
+        var scanner = new TexScanner(memory);
+
+        // A zero width
+        memory.store16(0x10000, 0);
+        assertEquals(-1, scanner.scoreTex(0x10000));
+        memory.store16(0x10000, 16);
+
+        // A GIF offset that is not 16 byte aligned
+        memory.store32(0x10010, 0x28);
+        assertEquals(-1, scanner.scoreTex(0x10000));
+        memory.store32(0x10010, 0x20);
+
+        // A register that isn't part of a transfer
+        memory.store32(0x10020 + 0x20 + 8, 0x06);
+        assertEquals(-1, scanner.scoreTex(0x10000));
+        memory.store32(0x10020 + 0x20 + 8, 0x51);
+
+        // Too many A+D writes for a texture
+        memory.store32(0x10020, 5);
+        assertEquals(-1, scanner.scoreTex(0x10000));
+        memory.store32(0x10020, 4);
+        assertEquals(4, scanner.scoreTex(0x10000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void scoresTheTagChain() {
+        byte[] tex = palettisedTex();
+        var memory = memoryWith(0x10000, tex);
+        var scanner = new TexScanner(memory);
+
+        // The header claims less data than the tags cover
+        memory.store16(0x10006, (tex.length - 0x20) / 16 - 1);
+        assertEquals(3, scanner.scoreTex(0x10000));
+
+        // or more, so the walk runs into zeros and finds no image
+        memory.store16(0x10006, (tex.length - 0x20) / 16 + 1);
+        assertEquals(2, scanner.scoreTex(0x10000));
+
+        // A palette that is not one of the GS sizes
+        memory.store16(0x10006, (tex.length - 0x20) / 16);
+        memory.store32(0x10020 + 0x30, 12);
+        assertEquals(2, scanner.scoreTex(0x10000));
+    }
+
+    @org.junit.jupiter.api.Test
+    void findsTexturesAcrossChunks() {
+        var memory = new Memory();
+        // One header at the very end of a chunk with its packet in the next, one at the start of a chunk
+        int straddling = CHUNK_SIZE - 0x10;
+        int chunkStart = 2 * CHUNK_SIZE;
+        memory.setData(palettisedTex(), straddling);
+        memory.setData(rgbaTex(), chunkStart);
+
+        // A font whose texture is only reported as part of the font
+        int font = 3 * CHUNK_SIZE + 0x1000;
+        int fontTex = font + 0x100;
+        memory.store32(font + 0x10, fontTex - font);
+        memory.setData(palettisedTex(), fontTex);
+
+        List<TexScanner.Candidate> found = new TexScanner(memory).scan();
+        assertEquals(List.of(
+                new TexScanner.Candidate(TexScanner.Kind.TEX, straddling, straddling, 16, 16, 4),
+                new TexScanner.Candidate(TexScanner.Kind.TEX, chunkStart, chunkStart, 8, 8, 4),
+                new TexScanner.Candidate(TexScanner.Kind.FONT, font, fontTex, 16, 16, 4)), found);
+    }
+}